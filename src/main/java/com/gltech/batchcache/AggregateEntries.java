@@ -0,0 +1,333 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AggregateEntries keeps aggregate entries, such as the cached result of getAllCompanies(), in step with changes to
+ * the entities they are built from.  A change to one company patches the cached list in place, instead of evicting
+ * it and reloading every company on the next read.
+ *
+ * <p>An aggregate is declared with aggregateOf on its BatchCache method, and is known here once that method has been
+ * validated or called, or a put or eviction has gone through its class.  A node that writes the entities from
+ * another class must register the aggregates at startup with BatchCacheAspect.validate, or it will leave them stale.
+ * Puts and evictions under the entity prefix read the aggregate, replace, add or remove the changed elements,
+ * matched by the aggregate's field, and write it back with CacheClient.replace.  Paged aggregates are written to new
+ * pages, like any other write of the result.  An aggregate that can't be patched, because it isn't a Collection, one
+ * of its pages has gone missing, or it changed between the read and the write, is evicted instead.  Clients without
+ * compare-and-set always evict.
+ *
+ * <p>The same registrations record which results without arguments are stored in pages, so evictions only look for
+ * page manifests under keys that can hold one.
+ *
+ * <p>The aspects share one instance per CacheClient, like NamespaceGenerations.
+ *
+ * @author Matt Giacomini
+ * @see BatchCache#aggregateOf()
+ */
+final class AggregateEntries
+{
+    private static final Map<CacheClient, AggregateEntries> INSTANCES = new WeakHashMap<>();
+
+    // Held weakly, since INSTANCES is keyed weakly by the client and a strong reference here would keep it reachable.
+    private final WeakReference<CacheClient> cacheClient;
+    private final NamespaceGenerations generations;
+    private final KeySchemas schemas;
+    // Aggregate annotations by entity prefix, then by aggregate key.
+    private final Map<String, Map<String, BatchCache>> aggregates = new ConcurrentHashMap<>();
+    // Key prefixes of paged BatchCache methods.
+    private final Set<String> pagedKeys = ConcurrentHashMap.newKeySet();
+    private final Set<Class<?>> registeredTypes = ConcurrentHashMap.newKeySet();
+
+    private AggregateEntries(CacheClient cacheClient)
+    {
+        this.cacheClient = new WeakReference<>(cacheClient);
+        this.generations = NamespaceGenerations.forClient(cacheClient);
+        this.schemas = KeySchemas.forClient(cacheClient);
+    }
+
+    static AggregateEntries forClient(CacheClient cacheClient)
+    {
+        synchronized (INSTANCES)
+        {
+            return INSTANCES.computeIfAbsent(cacheClient, AggregateEntries::new);
+        }
+    }
+
+    /**
+     * @param batchCache annotation of a method with no arguments; ignored unless it declares aggregateOf or pageSize.
+     */
+    void register(BatchCache batchCache)
+    {
+        if (!batchCache.aggregateOf().isEmpty())
+        {
+            aggregates.computeIfAbsent(batchCache.aggregateOf(), prefix -> new ConcurrentHashMap<>()).putIfAbsent(batchCache.key(), batchCache);
+        }
+        if (batchCache.pageSize() > 0)
+        {
+            pagedKeys.add(batchCache.key());
+        }
+    }
+
+    /**
+     * Register the aggregates and paged results declared on a class and its superclasses, once per class.  The write
+     * aspects call this for the class of every write, so a node that only writes still knows the aggregates and paged
+     * results declared beside its writes.
+     *
+     * @param type class of an object with annotated methods.
+     */
+    void register(Class<?> type)
+    {
+        if (!registeredTypes.add(type))
+        {
+            return;
+        }
+        for (Class<?> declaring = type; declaring != null && declaring != Object.class; declaring = declaring.getSuperclass())
+        {
+            for (Method method : declaring.getDeclaredMethods())
+            {
+                BatchCache batchCache = method.getAnnotation(BatchCache.class);
+                if (batchCache != null && method.getParameterCount() == 0)
+                {
+                    register(batchCache);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key key prefix, as used in the annotations.
+     * @return true if a BatchCache method with the key stores its result in pages.
+     */
+    boolean isPaged(String key)
+    {
+        return pagedKeys.contains(key);
+    }
+
+    /**
+     * @param prefix entity key prefix.
+     * @return true if an aggregate built from the prefix is known.
+     */
+    boolean hasAggregates(String prefix)
+    {
+        return aggregates.containsKey(prefix);
+    }
+
+    /**
+     * @param prefix entity key prefix.
+     * @param key    aggregate key prefix, as used in the annotations.
+     * @return true if the key is an aggregate built from the prefix.
+     */
+    boolean isAggregateOf(String prefix, String key)
+    {
+        return aggregates.getOrDefault(prefix, Map.of()).containsKey(key);
+    }
+
+    /**
+     * @param prefix entity key prefix.
+     * @return current keys of the aggregates built from the prefix, for evicting them outright.
+     */
+    List<String> getKeys(String prefix)
+    {
+        List<String> keys = new ArrayList<>();
+        aggregates.getOrDefault(prefix, Map.of()).values().forEach(aggregate -> keys.add(aggregateKey(aggregate)));
+        return keys;
+    }
+
+    /**
+     * @param prefix entity key prefix.
+     * @return current keys of the paged aggregates built from the prefix.
+     */
+    List<String> getPagedKeys(String prefix)
+    {
+        List<String> keys = new ArrayList<>();
+        aggregates.getOrDefault(prefix, Map.of()).values().stream().filter(aggregate -> aggregate.pageSize() > 0).forEach(aggregate -> keys.add(aggregateKey(aggregate)));
+        return keys;
+    }
+
+    /**
+     * Replace the elements of every aggregate built from the prefix that share an id with one of the values, and
+     * add the values that aren't in the aggregate yet.
+     *
+     * @param prefix entity key prefix.
+     * @param values changed entities.
+     */
+    void put(String prefix, Collection<?> values)
+    {
+        patch(prefix, values, false);
+    }
+
+    /**
+     * Remove the elements with the given ids from every aggregate built from the prefix.
+     *
+     * @param prefix entity key prefix.
+     * @param ids    ids, or entities, that no longer exist.
+     */
+    void remove(String prefix, Collection<?> ids)
+    {
+        patch(prefix, ids, true);
+    }
+
+    private void patch(String prefix, Collection<?> changes, boolean remove)
+    {
+        if (changes.isEmpty())
+        {
+            return;
+        }
+
+        CacheClient cacheClient = this.cacheClient.get();
+        for (BatchCache aggregate : aggregates.getOrDefault(prefix, Map.of()).values())
+        {
+            String key = aggregateKey(aggregate);
+            Object cachedValue = cacheClient.get(key);
+            if (cachedValue == null)
+            {
+                continue;
+            }
+
+            // Changes by element id; a null change removes the element.
+            Map<String, Object> changed = new LinkedHashMap<>();
+            changes.forEach(change -> changed.put(BatchCacheAspect.getKey(aggregate.key(), aggregate.field(), change), remove ? null : change));
+
+            Object value = cachedValue instanceof CacheEntry ? ((CacheEntry) cachedValue).getValue() : cachedValue;
+            if (value instanceof PageManifest)
+            {
+                patchPages(cacheClient, aggregate, key, cachedValue, (PageManifest) value, changed);
+            }
+            else if (value instanceof Collection)
+            {
+                List<Object> patched = patch(aggregate, (Collection<?>) value, changed);
+                if (patched != null && !cacheClient.replace(key, cachedValue, rewrap(cachedValue, value instanceof Set ? new LinkedHashSet<>(patched) : patched)))
+                {
+                    evict(cacheClient, key);
+                }
+            }
+            else
+            {
+                evict(cacheClient, key);
+            }
+        }
+    }
+
+    private void patchPages(CacheClient cacheClient, BatchCache aggregate, String key, Object cachedValue, PageManifest manifest, Map<String, Object> changed)
+    {
+        List<String> pageKeys = manifest.getPageKeys();
+        Map<String, Object> pages = cacheClient.get(pageKeys);
+        if (pages.size() != pageKeys.size())
+        {
+            evict(cacheClient, key);
+            return;
+        }
+
+        List<Object> values = new ArrayList<>(manifest.getSize());
+        pageKeys.forEach(pageKey -> values.addAll((List<?>) pages.get(pageKey)));
+        List<Object> patched = patch(aggregate, values, changed);
+        if (patched == null)
+        {
+            return;
+        }
+
+        // The patched result is written under new page keys, like any other write of it, and the old pages are only
+        // removed once the manifest has moved on.
+        int pageSize = aggregate.pageSize();
+        PageManifest patchedManifest = new PageManifest(PageManifest.newPagePrefix(key), (patched.size() + pageSize - 1) / pageSize, patched.size());
+        Map<String, Object> patchedPages = new LinkedHashMap<>();
+        for (int page = 0; page < patchedManifest.getPages(); page++)
+        {
+            int from = page * pageSize;
+            patchedPages.put(patchedManifest.getPageKey(page), new ArrayList<>(patched.subList(from, Math.min(from + pageSize, patched.size()))));
+        }
+        if (!patchedPages.isEmpty())
+        {
+            cacheClient.set(patchedPages);
+        }
+
+        if (cacheClient.replace(key, cachedValue, rewrap(cachedValue, patchedManifest)))
+        {
+            cacheClient.delete(pageKeys);
+        }
+        else
+        {
+            cacheClient.delete(patchedManifest.getPageKeys());
+            evict(cacheClient, key);
+        }
+    }
+
+    /**
+     * Delete an aggregate, and its pages if it is paged, when it can't be patched.  Inside an EvictionScope the keys
+     * are buffered with the rest of the scope's evictions.
+     */
+    private static void evict(CacheClient cacheClient, String key)
+    {
+        Set<String> keys = new LinkedHashSet<>(PageManifest.withPageKeys(List.of(key), cacheClient.get(List.of(key))));
+        if (!EvictionScope.defer(cacheClient, keys))
+        {
+            cacheClient.delete(keys);
+        }
+    }
+
+    /**
+     * @return the values with changed elements replaced or removed, and new values added at the end, or null if
+     * none of the changes apply.
+     */
+    private static List<Object> patch(BatchCache aggregate, Collection<?> values, Map<String, Object> changed)
+    {
+        List<Object> patched = new ArrayList<>(values.size());
+        int pending = changed.size();
+        for (Object value : values)
+        {
+            String id = BatchCacheAspect.getKey(aggregate.key(), aggregate.field(), value);
+            if (!changed.containsKey(id))
+            {
+                patched.add(value);
+            }
+            else if (changed.get(id) != null)
+            {
+                patched.add(changed.remove(id));
+            }
+            else
+            {
+                changed.remove(id);
+            }
+        }
+        changed.values().stream().filter(Objects::nonNull).forEach(patched::add);
+        return changed.size() == pending && patched.size() == values.size() ? null : patched;
+    }
+
+    private static Object rewrap(Object cachedValue, Object value)
+    {
+        // Keep the original write time, so refresh-ahead still reloads the whole aggregate when it is due.
+        return cachedValue instanceof CacheEntry ? new CacheEntry(value, ((CacheEntry) cachedValue).getWriteTime()) : value;
+    }
+
+    private String aggregateKey(BatchCache aggregate)
+    {
+        return schemas.apply(aggregate.key(), aggregate.generational() ? generations.currentPrefix(aggregate.key()) : aggregate.key());
+    }
+}
@@ -55,4 +55,65 @@ public @interface BatchCache
      * @return field that we used in defining the annotation.
      */
     String field() default "id";
+
+    /**
+     * BatchCache annotation parameter that enables refresh-ahead.  Once a cached value is older than this many
+     * milliseconds it is still returned right away, but it is also reloaded in the background.  Refreshes for
+     * different ids of the same method are grouped into batch calls.  Zero, the default, disables refresh-ahead.
+     *
+     * @return age in milliseconds after which a cached value is refreshed in the background.
+     */
+    long refreshAfterMillis() default 0;
+
+    /**
+     * BatchCache annotation parameter that puts the key prefix in a generation-versioned namespace.  The current
+     * generation of the prefix is folded into every key, so a BatchCacheEvict with no arguments on the prefix can
+     * drop every entry at once by bumping the generation.  Use the same setting on the matching BatchCache and
+     * BatchCacheEvict annotations.
+     *
+     * @return true if keys for this prefix are generation-versioned.
+     * @see NamespaceGenerations
+     */
+    boolean generational() default false;
+
+    /**
+     * BatchCache annotation parameter for methods that return a Stream.  Ids are read this many at a time; each
+     * window is looked up in cache with one bulk get and its misses are loaded with one call to the method before
+     * the next window is read.  Results come back window by window, cached values first.
+     *
+     * @return number of ids looked up and loaded together when streaming.
+     */
+    int windowSize() default 1000;
+
+    /**
+     * BatchCache annotation parameter for methods with no arguments that return a large Collection, Stream or
+     * Iterator.  Instead of one entry holding the whole result, the values are stored as pages of this many values
+     * plus a small manifest under the key.  Collections read every page with one bulk get; Streams and Iterators read
+     * the pages one at a time as they are consumed.  Zero, the default, stores the result as a single entry.
+     * Evictions of the key remove its pages once the method is known to be paged, after it has been called or
+     * validated, or an eviction has gone through its class; other keys are deleted without looking for pages.
+     *
+     * @return number of values stored in each page.
+     * @see PageManifest
+     */
+    int pageSize() default 0;
+
+    /**
+     * BatchCache annotation parameter for methods with no arguments whose result is built from the entities cached
+     * under another key prefix, such as a list of every company built from "company".  Puts and evictions under that
+     * prefix patch the cached result in place, matching elements by field, instead of it having to be evicted
+     * and reloaded in full:
+     * <ul>
+     *     <li>A BatchCachePut, or a BatchCacheEvict given the entities themselves, replaces or adds the elements.</li>
+     *     <li>A BatchCacheEvict given ids removes the elements if it is marked deletes, otherwise it evicts the
+     *     whole result, since the new state of the entities isn't known.</li>
+     * </ul>
+     * Patches only replace the result if it is unchanged since they read it, through CacheClient.replace, and
+     * evict it otherwise.  Writes from other classes than this method's only patch it once it is registered, by
+     * calling the method or validating its class at startup.
+     *
+     * @return key prefix of the entities the result is built from, or empty if it isn't an aggregate.
+     * @see AggregateEntries
+     */
+    String aggregateOf() default "";
 }
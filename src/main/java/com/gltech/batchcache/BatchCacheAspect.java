@@ -29,10 +29,15 @@ import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * BatchCacheAspect is a caching concern that is designed with two goals in mind.  First, allow caching to be defined
@@ -48,7 +53,25 @@ import java.util.stream.Collectors;
 @Aspect
 public class BatchCacheAspect
 {
-    private final CacheClient cacheClient;
+    private static final ClassValue<Map<String, Method>> ACCESSORS = new ClassValue<>()
+    {
+        @Override
+        protected Map<String, Method> computeValue(Class<?> type)
+        {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final BatchCacheTemplate template;
+    private final AggregateEntries aggregates;
+    private final Map<Method, Strategy> plans = new ConcurrentHashMap<>();
+
+    private enum Strategy
+    {
+        STREAM, COLLECTION_FROM_ARRAY, MAP_FROM_ARRAY, MAP_FROM_COLLECTION, COLLECTION_FROM_COLLECTION, OBJECT,
+        // The declared id type doesn't settle the strategy, so it is picked from each call's argument.
+        DYNAMIC
+    }
 
     /**
      * Set your cache implementation based on CacheClient Interface
@@ -58,7 +81,248 @@ public class BatchCacheAspect
      */
     public BatchCacheAspect(CacheClient cacheClient)
     {
-        this.cacheClient = cacheClient;
+        this(new BatchCacheTemplate(cacheClient));
+    }
+
+    /**
+     * Run annotated methods through an existing template, so they share its settings and membership filters with
+     * code that calls the template directly.
+     *
+     * @param template BatchCacheTemplate that does the caching.
+     * @see BatchCacheTemplate
+     */
+    public BatchCacheAspect(BatchCacheTemplate template)
+    {
+        this.template = template;
+        this.aggregates = AggregateEntries.forClient(template.getCacheClient());
+    }
+
+    /**
+     * @return the template annotated methods are run through.
+     */
+    public BatchCacheTemplate getTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * Set the executor that reloads stale values for methods using refresh-ahead.  By default stale values are
+     * reloaded one batch at a time on a single background thread.
+     *
+     * @param executor Executor used for refresh-ahead loads, or null to use the background thread.
+     * @see BatchCache#refreshAfterMillis()
+     */
+    public void setRefreshExecutor(Executor executor)
+    {
+        template.setRefreshExecutor(executor);
+    }
+
+    /**
+     * Skip the cache lookup for batch methods whose hit ratio is below this value.  Each method's hit ratio is
+     * measured over windows of lookups; while it is below the threshold, its ids go straight to the method and are
+     * still written back to cache.  One call in bypassSampleEvery keeps looking up the cache, and lookups resume
+     * when a window of those samples recovers.  Zero, the default, never skips lookups.
+     *
+     * @param hitRatio hit ratio, between 0 and 1, below which lookups are skipped.
+     * @see #setBypassSampleEvery(int)
+     */
+    public void setBypassBelowHitRatio(double hitRatio)
+    {
+        template.setBypassBelowHitRatio(hitRatio);
+    }
+
+    /**
+     * @param calls While a method's lookups are skipped, one call in this many still looks up the cache.
+     * @see #setBypassBelowHitRatio(double)
+     */
+    public void setBypassSampleEvery(int calls)
+    {
+        template.setBypassSampleEvery(calls);
+    }
+
+    /**
+     * Only write a loaded value back to cache once its key has been looked up at least minFrequency times recently.
+     * Lookups are counted in a compact frequency sketch that halves itself over time, so one-off ids, such as those
+     * from bulk exports, are loaded without pushing hotter entries out of the cache.  Refresh-ahead reloads of
+     * entries already in cache are always written.  A minFrequency of 1 or less admits every write, the default.
+     *
+     * @param minFrequency recent lookups of a key before its loaded value is written back.
+     * @param expectedKeys number of distinct keys the sketch is sized for, roughly the number of cached entries.
+     * @see #getRejectedWrites()
+     */
+    public void setAdmissionFrequency(int minFrequency, int expectedKeys)
+    {
+        template.setAdmissionFrequency(minFrequency, expectedKeys);
+    }
+
+    /**
+     * @return number of loaded values not written back to cache because their keys were not seen often enough.
+     * @see #setAdmissionFrequency(int, int)
+     */
+    public long getRejectedWrites()
+    {
+        return template.getRejectedWrites();
+    }
+
+    /**
+     * @return methods whose cache lookups are currently skipped, with the hit ratio of their last window.
+     * @see #setBypassBelowHitRatio(double)
+     */
+    public Map<Method, Double> getBypassedMethods()
+    {
+        Map<Method, Double> bypassed = new HashMap<>();
+        template.getBypassed().forEach((site, ratio) ->
+        {
+            if (site instanceof Method)
+            {
+                bypassed.put((Method) site, ratio);
+            }
+        });
+        return bypassed;
+    }
+
+    /**
+     * Guard the filter's key prefix against ids that don't exist.  Ids the filter rules out are dropped from the
+     * batch before the cache and the loader are called.
+     *
+     * @param membershipFilter filter for one key prefix.
+     * @see MembershipFilter
+     */
+    public void addMembershipFilter(MembershipFilter membershipFilter)
+    {
+        template.addMembershipFilter(membershipFilter);
+    }
+
+    /**
+     * Validate every @BatchCache method of the given classes and build its plan, so bad annotations fail at startup
+     * rather than on the first call, and the first call doesn't pay for resolving strategies and key accessors.
+     * Pass the bean classes, not the proxy classes.  Every problem found is reported in one exception.  Aggregates
+     * declared with aggregateOf are registered too, so changes patch them even before they are first read here.
+     *
+     * @param types classes with @BatchCache methods.
+     * @return number of @BatchCache methods validated.
+     * @throws IllegalStateException listing every invalid method.
+     */
+    public int validate(Class<?>... types)
+    {
+        List<String> problems = new ArrayList<>();
+        int validated = 0;
+        for (Class<?> type : types)
+        {
+            for (Method method : BatchCacheValidation.annotatedMethods(type, BatchCache.class))
+            {
+                validated++;
+                String problem = validate(method, method.getAnnotation(BatchCache.class));
+                if (problem != null)
+                {
+                    problems.add(method + ": " + problem);
+                }
+            }
+        }
+        BatchCacheValidation.failOnProblems(problems);
+        return validated;
+    }
+
+    private static String checkPaged(Method method)
+    {
+        Class<?> returnType = method.getReturnType();
+        if (returnType.isAssignableFrom(List.class) || returnType.isAssignableFrom(LinkedHashSet.class) ||
+                Stream.class.isAssignableFrom(returnType) || Iterator.class.isAssignableFrom(returnType))
+        {
+            return null;
+        }
+        return "paged results must be returned as a List, Set, Collection, Stream or Iterator, not " + returnType.getSimpleName();
+    }
+
+    private String validate(Method method, BatchCache batchCache)
+    {
+        if (batchCache.key() == null || batchCache.key().isEmpty())
+        {
+            return "a key is required";
+        }
+        if (method.getParameterCount() == 0)
+        {
+            aggregates.register(batchCache);
+            return batchCache.pageSize() > 0 ? checkPaged(method) : null;
+        }
+        if (batchCache.pageSize() != 0)
+        {
+            return "page size only applies to methods without arguments";
+        }
+        if (!batchCache.aggregateOf().isEmpty())
+        {
+            return "aggregateOf only applies to methods without arguments";
+        }
+
+        Strategy strategy;
+        try
+        {
+            strategy = plan(method);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return e.getMessage();
+        }
+
+        Class<?> idType = method.getParameterTypes()[0];
+        Type ids = method.getGenericParameterTypes()[0];
+        Type values = BatchCacheValidation.elementType(method.getGenericReturnType());
+        String problem = null;
+
+        switch (strategy)
+        {
+            case STREAM:
+                problem = batchCache.windowSize() <= 0 ? "window size must be positive" : checkKeyTypes(batchCache, BatchCacheValidation.elementType(ids), values);
+                break;
+            case COLLECTION_FROM_ARRAY:
+            case COLLECTION_FROM_COLLECTION:
+                problem = checkKeyTypes(batchCache, BatchCacheValidation.elementType(ids), values);
+                break;
+            case MAP_FROM_ARRAY:
+                try
+                {
+                    getMapByAssignable(method.getReturnType());
+                    problem = checkKeyTypes(batchCache, BatchCacheValidation.elementType(ids), null);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    problem = e.getMessage();
+                }
+                break;
+            case MAP_FROM_COLLECTION:
+                problem = method.getReturnType().isAssignableFrom(HashMap.class) ? checkKeyTypes(batchCache, BatchCacheValidation.elementType(ids), null) :
+                        "ids in a Collection can only return a Map that a HashMap can be assigned to, not " + method.getReturnType().getName();
+                break;
+            case OBJECT:
+                if (idType.isArray() || Collection.class.isAssignableFrom(idType))
+                {
+                    problem = "ids in an array or Collection need a List, Set, Map or Stream return type, not " + method.getReturnType().getName();
+                }
+                else if (Stream.class.isAssignableFrom(method.getReturnType()))
+                {
+                    problem = "a Stream return type needs ids in a Collection, array, Iterator or Stream";
+                }
+                else
+                {
+                    problem = checkKeyTypes(batchCache, ids, null);
+                }
+                break;
+            default:
+                break;
+        }
+
+        if (problem == null)
+        {
+            plans.put(method, strategy);
+            BatchCacheValidation.interfaceMethods(method.getDeclaringClass(), method).forEach(interfaceMethod -> plans.put(interfaceMethod, strategy));
+        }
+        return problem;
+    }
+
+    private static String checkKeyTypes(BatchCache batchCache, Type ids, Type values)
+    {
+        String problem = ids == null ? null : BatchCacheValidation.checkKeyType(ids, batchCache.field());
+        return problem != null || values == null ? problem : BatchCacheValidation.checkKeyType(values, batchCache.field());
     }
 
     /**
@@ -70,11 +334,17 @@ public class BatchCacheAspect
      *     <li>return results</li>
      * </ul>
      *
+     * <p>Methods that return a Stream are handled lazily, one window of ids at a time, so very large lookups keep a
+     * flat memory profile.  Their ids may be passed as a Collection, an array, an Iterator or a Stream.
+     *
+     * <p>The caching itself is done by BatchCacheTemplate; this advice adapts the method's arguments and return type.
+     *
      * @param joinPoint  JoinPoint provided by the APO Framework.
      * @param batchCache BatchCache annotation provided by the APO Framework.
      * @return the results of the annotated method.
      * @throws Throwable Generic throwable because joinPoint.proceed() could reference anything
      * @see BatchCache
+     * @see BatchCacheTemplate
      * @see Around
      */
     @Around(value = "@annotation(batchCache)")
@@ -88,301 +358,326 @@ public class BatchCacheAspect
         // If we got no arguments then just cache everything with the key name
         if (joinPoint.getArgs().length == 0)
         {
-            return getAllForKey(batchCache.key(), joinPoint);
+            return getAllForKey(batchCache, joinPoint);
         }
         else if (joinPoint.getArgs()[0] == null)
         {
             return joinPoint.proceed();
         }
-        // Key from [] and return Collection
-        else if (joinPoint.getArgs().length > 0 && joinPoint.getArgs()[0].getClass().isArray() &&
-                (((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().isAssignableFrom(List.class) ||
-                        ((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().isAssignableFrom(Set.class)))
-        {
-            return getCollectionFromArray(batchCache, joinPoint);
-        }
-        // Key from [] and return Map
-        else if (joinPoint.getArgs().length > 0 && joinPoint.getArgs()[0].getClass().isArray() &&
-                ((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().isAssignableFrom(Map.class))
-        {
-            return getMapFromArray(batchCache, joinPoint);
-        }
-        // Key from List|Set and return Map
-        else if (joinPoint.getArgs().length > 0 && joinPoint.getArgs()[0] instanceof Collection &&
-                ((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().isAssignableFrom(Map.class))
+
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Strategy strategy = plans.computeIfAbsent(method, BatchCacheAspect::plan);
+        if (strategy == Strategy.DYNAMIC)
         {
-            return getMapFromList(batchCache, joinPoint);
+            strategy = strategy(method, joinPoint.getArgs()[0].getClass());
         }
-        // Key from List|Set and return List|Set
-        else if (joinPoint.getArgs().length > 0 && joinPoint.getArgs()[0] instanceof Collection &&
-                (((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().isAssignableFrom(List.class) ||
-                        ((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().isAssignableFrom(Set.class)))
+
+        switch (strategy)
         {
-            return getCollectionFromCollection(batchCache, joinPoint);
+            case STREAM:
+                return getStream(batchCache, joinPoint);
+            case COLLECTION_FROM_ARRAY:
+                return getCollectionFromArray(batchCache, joinPoint);
+            case MAP_FROM_ARRAY:
+                return getMapFromArray(batchCache, joinPoint);
+            case MAP_FROM_COLLECTION:
+                return getMapFromList(batchCache, joinPoint);
+            case COLLECTION_FROM_COLLECTION:
+                return getCollectionFromCollection(batchCache, joinPoint);
+            default:
+                return getObjectFromObject(batchCache, joinPoint);
         }
-        // Key from int and return Object
-        else if (joinPoint.getArgs().length > 0)
+    }
+
+    /**
+     * Pick the strategy for a method from its declared id type, or DYNAMIC if an argument of that type could be
+     * handled by more than one strategy.
+     */
+    private static Strategy plan(Method method)
+    {
+        Class<?> idType = method.getParameterTypes()[0];
+        if (idType.isArray() || idType.isPrimitive() || Collection.class.isAssignableFrom(idType) ||
+                Iterator.class.isAssignableFrom(idType) || Stream.class.isAssignableFrom(idType))
         {
-            return getObjectFromObject(batchCache, joinPoint);
+            return strategy(method, idType);
         }
-        else
+        if (idType.isAssignableFrom(ArrayList.class) || idType.isAssignableFrom(HashSet.class) || idType.isAssignableFrom(Object[].class) ||
+                idType.isAssignableFrom(Iterator.class) || idType.isAssignableFrom(Stream.class))
         {
-            throw new IllegalArgumentException("Missing caching strategy for parameter '" + joinPoint.getArgs()[0].getClass().getName() + "' returning '" + ((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().getName() + "'");
+            return Strategy.DYNAMIC;
         }
+        return strategy(method, idType);
     }
 
-    private Object getAllForKey(String keyPrefix, ProceedingJoinPoint joinPoint) throws Throwable
+    private static Strategy strategy(Method method, Class<?> idType)
     {
-        Object cachedValue = cacheClient.get(keyPrefix);
+        Class<?> returnType = method.getReturnType();
+        boolean isCollection = Collection.class.isAssignableFrom(idType);
+        boolean isIterator = Iterator.class.isAssignableFrom(idType) || Stream.class.isAssignableFrom(idType);
 
-        if (cachedValue != null)
+        // Key from List|Set|[]|Iterator|Stream and return Stream
+        if (Stream.class.isAssignableFrom(returnType) && (isCollection || isIterator || idType.isArray()))
         {
-            return cachedValue;
+            return Strategy.STREAM;
         }
-        else
+        else if (isIterator)
+        {
+            throw new IllegalArgumentException("Iterator and Stream ids require a Stream return type: " + method);
+        }
+        // Key from [] and return Collection
+        else if (idType.isArray() && (returnType.isAssignableFrom(List.class) || returnType.isAssignableFrom(Set.class)))
         {
-            Object toAdd = joinPoint.proceed();
-            cacheClient.set(keyPrefix, toAdd);
-            return toAdd;
+            return Strategy.COLLECTION_FROM_ARRAY;
         }
+        // Key from [] and return Map
+        else if (idType.isArray() && returnType.isAssignableFrom(Map.class))
+        {
+            return Strategy.MAP_FROM_ARRAY;
+        }
+        // Key from List|Set and return Map
+        else if (isCollection && returnType.isAssignableFrom(Map.class))
+        {
+            return Strategy.MAP_FROM_COLLECTION;
+        }
+        // Key from List|Set and return List|Set
+        else if (isCollection && (returnType.isAssignableFrom(List.class) || returnType.isAssignableFrom(Set.class)))
+        {
+            return Strategy.COLLECTION_FROM_COLLECTION;
+        }
+        // Key from int and return Object
+        return Strategy.OBJECT;
     }
 
-    private Object getObjectFromObject(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws Throwable
+    private Object getAllForKey(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws Throwable
     {
-        String key = getKey(batchCache, joinPoint.getArgs()[0]);
-        Object cachedValue = cacheClient.get(key);
-
-        if (cachedValue != null)
+        aggregates.register(batchCache);
+        if (batchCache.pageSize() <= 0)
         {
-            return cachedValue;
+            return template.get(call(batchCache, joinPoint), null, ids -> joinPoint.proceed(joinPoint.getArgs()));
         }
-        else
+
+        Class<?> returnType = ((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType();
+        if (Stream.class.isAssignableFrom(returnType) || Iterator.class.isAssignableFrom(returnType))
         {
-            Object toAdd = joinPoint.proceed();
-            cacheClient.set(key, toAdd);
-            return toAdd;
+            Iterator<Object> values = template.iteratePages(call(batchCache, joinPoint), batchCache.pageSize(), ids -> joinPoint.proceed(joinPoint.getArgs()));
+            return Iterator.class.isAssignableFrom(returnType) ? values :
+                    StreamSupport.stream(Spliterators.spliteratorUnknownSize(values, Spliterator.ORDERED), false);
         }
+
+        List<Object> values = template.getPages(call(batchCache, joinPoint), batchCache.pageSize(), ids -> joinPoint.proceed(joinPoint.getArgs()));
+        return returnType.isAssignableFrom(List.class) ? values : new LinkedHashSet<>(values);
     }
 
-    private Object getCollectionFromCollection(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws IllegalAccessException, InvocationTargetException
+    private Object getObjectFromObject(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws Throwable
     {
-        Collection ids = (Collection) joinPoint.getArgs()[0];
-        Object keyObjects = ids.stream().map(id -> getKey(batchCache, id)).distinct().collect(Collectors.toList());
-        List<String> keys = (List) keyObjects;
-        Map<String, Object> cachedValues = cacheClient.get(keys);
+        return template.get(call(batchCache, joinPoint), joinPoint.getArgs()[0], ids -> joinPoint.proceed(joinPoint.getArgs()));
+    }
 
+    private Collection getCollectionFromCollection(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws Throwable
+    {
         boolean isList = ((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().isAssignableFrom(List.class);
         Collection results = isList ? new ArrayList() : new HashSet();
-        Collection missing = isList ? new ArrayList() : new HashSet();
 
-        for (Object id : ids)
-        {
-            String key = getKey(batchCache, id);
-            if (cachedValues.containsKey(key))
-            {
-                if (cachedValues.get(key) != null)
-                {
-                    results.add(cachedValues.get(key));
-                }
-            }
-            else
-            {
-                missing.add(id);
-            }
-        }
+        template.getAll(call(batchCache, joinPoint), (Collection) joinPoint.getArgs()[0],
+                missing -> invokeWithIds(joinPoint, isList ? missing : new HashSet(missing)), false, (id, value) -> results.add(value));
 
-        if (missing.size() > 0)
-        {
-            Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
-            Object[] methodArgs = joinPoint.getArgs();
-            methodArgs[0] = missing;
+        return results;
+    }
 
-            Collection toAdd = (Collection) method.invoke(joinPoint.getTarget(), methodArgs);
+    private Collection getCollectionFromArray(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws Throwable
+    {
+        ArrayHelper arrayHelper = new ArrayHelper(joinPoint);
+        boolean isList = ((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().isAssignableFrom(List.class);
+        Collection results = isList ? new ArrayList() : new HashSet();
 
-            for (Object add : toAdd)
-            {
-                String key = getKey(batchCache, add);
-                cacheClient.set(key, add);
-            }
+        template.getAll(call(batchCache, joinPoint), arrayHelper.getIds(),
+                missing -> invokeWithIds(joinPoint, arrayHelper.getArray(isList ? missing : new HashSet(missing))), false, (id, value) -> results.add(value));
 
-            results.addAll(toAdd);
-        }
+        return results;
+    }
+
+    private Map getMapFromArray(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws Throwable
+    {
+        ArrayHelper arrayHelper = new ArrayHelper(joinPoint);
+        Map results = getMapByAssignable(((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType());
+
+        template.getAll(call(batchCache, joinPoint), arrayHelper.getIds(),
+                missing -> invokeWithIds(joinPoint, arrayHelper.getArray(missing)), true, results::put);
 
         return results;
     }
 
-    private Collection getCollectionFromArray(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws IllegalAccessException, InvocationTargetException
+    private Map getMapFromList(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws Throwable
     {
-        ArrayHelper arrayHelper = new ArrayHelper(batchCache, joinPoint);
-        List<String> keys = arrayHelper.getKeys();
+        Map results = new HashMap<>();
 
-        Map<String, Object> cachedValues = cacheClient.get(keys);
+        template.getAll(call(batchCache, joinPoint), (Collection) joinPoint.getArgs()[0],
+                missing -> invokeWithIds(joinPoint, missing), true, results::put);
 
-        boolean isList = ((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType().isAssignableFrom(List.class);
-        Collection results = isList ? new ArrayList() : new HashSet();
-        Collection missing = isList ? new ArrayList() : new HashSet();
+        return results;
+    }
 
-        for (Object id : arrayHelper.getIds())
+    private Stream getStream(BatchCache batchCache, ProceedingJoinPoint joinPoint)
+    {
+        if (batchCache.windowSize() <= 0)
         {
-            String key = getKey(batchCache, id);
-            if (cachedValues.containsKey(key))
-            {
-                if (cachedValues.get(key) != null)
-                {
-                    results.add(cachedValues.get(key));
-                }
-            }
-            else
-            {
-                missing.add(id);
-            }
+            throw new IllegalArgumentException("Window size must be positive: " + batchCache.windowSize());
         }
 
-        if (missing.size() > 0)
+        Object arg = joinPoint.getArgs()[0];
+        Iterator ids;
+        WindowArg windowArg;
+
+        if (arg instanceof Stream)
         {
-            Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
-            Object[] methodArgs = joinPoint.getArgs();
-            methodArgs[0] = arrayHelper.getArray(missing);
+            ids = ((Stream) arg).iterator();
+            windowArg = List::stream;
+        }
+        else if (arg instanceof Iterator)
+        {
+            ids = (Iterator) arg;
+            windowArg = List::iterator;
+        }
+        else if (arg.getClass().isArray())
+        {
+            ArrayHelper arrayHelper = new ArrayHelper(joinPoint);
+            ids = arrayHelper.getIds().iterator();
+            windowArg = arrayHelper::getArray;
+        }
+        else
+        {
+            boolean isList = ((MethodSignature) joinPoint.getSignature()).getMethod().getParameterTypes()[0].isAssignableFrom(List.class);
+            ids = ((Collection) arg).iterator();
+            windowArg = window -> isList ? window : new LinkedHashSet(window);
+        }
 
-            Collection toAdd = (Collection) method.invoke(joinPoint.getTarget(), methodArgs);
+        Spliterator results = Spliterators.spliteratorUnknownSize(new WindowIterator(batchCache, joinPoint, ids, windowArg), Spliterator.ORDERED | Spliterator.NONNULL);
+        Stream stream = StreamSupport.stream(results, false);
+        return arg instanceof Stream ? (Stream) stream.onClose(((Stream) arg)::close) : stream;
+    }
 
-            for (Object add : toAdd)
-            {
-                String key = getKey(batchCache, add);
-                cacheClient.set(key, add);
-            }
+    private static Object invokeWithIds(ProceedingJoinPoint joinPoint, Object ids) throws Throwable
+    {
+        // Proceed on a copy so the rest of the advice chain runs and the caller's arguments are left untouched
+        Object[] methodArgs = joinPoint.getArgs().clone();
+        methodArgs[0] = ids;
+        return joinPoint.proceed(methodArgs);
+    }
 
-            results.addAll(toAdd);
-        }
+    private static BatchCacheTemplate.Call call(BatchCache batchCache, ProceedingJoinPoint joinPoint)
+    {
+        return new BatchCacheTemplate.Call(batchCache.key(), batchCache.field(), batchCache.refreshAfterMillis(), batchCache.generational(),
+                ((MethodSignature) joinPoint.getSignature()).getMethod(), () -> CacheEvents.method(joinPoint), refreshGroup(joinPoint), null);
+    }
 
-        return results;
+    private static Object refreshGroup(ProceedingJoinPoint joinPoint)
+    {
+        // The method, target and trailing arguments; the ids in the first argument are what gets batched.
+        List<Object> group = new ArrayList<>();
+        group.add(((MethodSignature) joinPoint.getSignature()).getMethod());
+        group.addAll(Arrays.asList(joinPoint.getArgs()).subList(Math.min(1, joinPoint.getArgs().length), joinPoint.getArgs().length));
+        group.add(joinPoint.getTarget());
+        return group;
     }
 
-    private Map getMapFromArray(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws IllegalAccessException, InvocationTargetException
+    private interface WindowArg
     {
-        ArrayHelper arrayHelper = new ArrayHelper(batchCache, joinPoint);
-        List<String> keys = arrayHelper.getKeys();
+        Object toArg(List<Object> window);
+    }
 
-        Map<String, Object> cachedValues = cacheClient.get(keys);
+    /**
+     * Walks the ids of a Stream lookup one window at a time.  Each window's cached values are handed out as soon as
+     * they are read, and its misses are loaded with one call and written back before the next window is read.
+     */
+    private class WindowIterator implements Iterator<Object>
+    {
+        private final BatchCache batchCache;
+        private final ProceedingJoinPoint joinPoint;
+        private final Iterator ids;
+        private final WindowArg windowArg;
+        private final BatchCacheTemplate.Call call;
+        private Iterator<Object> current = Collections.emptyIterator();
 
-        Map results = getMapByAssignable(((MethodSignature) joinPoint.getSignature()).getMethod().getReturnType());
-        List missing = new ArrayList();
+        WindowIterator(BatchCache batchCache, ProceedingJoinPoint joinPoint, Iterator ids, WindowArg windowArg)
+        {
+            this.batchCache = batchCache;
+            this.joinPoint = joinPoint;
+            this.ids = ids;
+            this.windowArg = windowArg;
+            this.call = call(batchCache, joinPoint);
+        }
 
-        for (Object id : arrayHelper.getIds())
+        @Override
+        public boolean hasNext()
         {
-            String key = getKey(batchCache, id);
-            if (cachedValues.containsKey(key))
-            {
-                if (cachedValues.get(key) != null)
-                {
-                    results.put(id, cachedValues.get(key));
-                }
-            }
-            else
+            while (!current.hasNext() && ids.hasNext())
             {
-                missing.add(id);
+                current = nextWindow().iterator();
             }
+            return current.hasNext();
         }
 
-        if (missing.size() > 0)
+        @Override
+        public Object next()
         {
-            Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
-            Object[] methodArgs = joinPoint.getArgs();
-            methodArgs[0] = arrayHelper.getArray(missing);
-
-            Map toAdd = (Map) method.invoke(joinPoint.getTarget(), methodArgs);
-
-            for (Object id : missing)
+            if (!hasNext())
             {
-                String key = getKey(batchCache, id);
-                cacheClient.set(key, toAdd.get(id));
+                throw new NoSuchElementException();
             }
-
-            results.putAll(toAdd);
+            return current.next();
         }
 
-        return results;
-    }
-
-    private Map getMapFromList(BatchCache batchCache, ProceedingJoinPoint joinPoint) throws IllegalAccessException, InvocationTargetException
-    {
-        List ids = (List) joinPoint.getArgs()[0];
-        Object keyObjects = ids.stream().map(id -> getKey(batchCache, id)).distinct().collect(Collectors.toList());
-        List<String> keys = (List) keyObjects;
-        Map<String, Object> cachedValues = cacheClient.get(keys);
-
-        Map results = new HashMap<>();
-        List missing = new ArrayList<>();
-
-        for (Object id : ids)
+        private List<Object> nextWindow()
         {
-            String key = getKey(batchCache, id);
-            if (cachedValues.containsKey(key))
+            List<Object> window = new ArrayList<>();
+            while (window.size() < batchCache.windowSize() && ids.hasNext())
             {
-                if (cachedValues.get(key) != null)
+                Object id = ids.next();
+                if (id != null)
                 {
-                    results.put(id, cachedValues.get(key));
+                    window.add(id);
                 }
             }
-            else
+
+            List<Object> results = new ArrayList<>();
+            try
             {
-                missing.add(id);
+                template.getAll(call, window, missing -> invokeWithIds(joinPoint, windowArg.toArg(missing)), false, (id, value) -> results.add(value));
             }
-        }
-
-        if (missing.size() > 0)
-        {
-            Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
-            Object[] methodArgs = joinPoint.getArgs();
-            methodArgs[0] = missing;
-
-            Map toAdd = (Map) method.invoke(joinPoint.getTarget(), methodArgs);
-
-            for (Object id : missing)
+            catch (RuntimeException | Error e)
             {
-                String key = getKey(batchCache, id);
-                cacheClient.set(key, toAdd.get(id));
+                throw e;
+            }
+            catch (Throwable e)
+            {
+                throw new IllegalStateException("Could not load window for key: " + batchCache.key(), e);
             }
 
-            results.putAll(toAdd);
+            return results;
         }
-
-        return results;
-    }
-
-    private static String getKey(BatchCache batchCache, Object object)
-    {
-        return getKey(batchCache.key(), batchCache.field(), object);
     }
 
     static String getKey(String prefix, String field, Object object)
     {
         try
         {
-            if (object instanceof Integer || object instanceof Long || object instanceof String)
-            {
-                return prefix + "-" + object;
-            }
-            if (object instanceof Date)
+            String encoded = KeyCodecs.encode(object);
+            if (encoded != null)
             {
-                return prefix + "-" + ((Date) object).getTime();
+                return prefix + "-" + encoded;
             }
             if (field != null && !field.isEmpty())
             {
-                String methodName = isRecord(object) ? field : "get" + field.substring(0, 1).toUpperCase() + field.substring(1);
-                Method method = object.getClass().getMethod(methodName, (Class<?>[]) null);
+                Method method = accessor(object.getClass(), field);
                 Object result = method.invoke(object, (Object[]) null);
 
-                if (result instanceof Integer || result instanceof Long || result instanceof String)
+                encoded = KeyCodecs.encode(result);
+                if (encoded != null)
                 {
-                    return prefix + "-" + result;
-                }
-                if (result instanceof Date)
-                {
-                    return prefix + "-" + ((Date) result).getTime();
+                    return prefix + "-" + encoded;
                 }
 
-                throw new RuntimeException("Method " + methodName + " returned type " + result.getClass().getName() + "  Only int, long, String, and Date are supported.");
+                throw new RuntimeException("Method " + method.getName() + " returned type " + result.getClass().getName() + "  Only int, long, String, Date and types with a KeyCodec are supported.");
             }
         }
         catch (Exception e)
@@ -393,19 +688,29 @@ public class BatchCacheAspect
         throw new IllegalStateException("Could not generate Cache key.  Prefix: " + prefix + ",  Field: " + field + ",  Object: " + object.getClass().getName());
     }
 
-    private static boolean isRecord(Object base)
+    /**
+     * @return the method that reads field from a type, field() on a record and getField() otherwise.  Lookups are
+     * cached per type, so only the first key of each type pays for the reflection.
+     */
+    static Method accessor(Class<?> type, String field) throws NoSuchMethodException
     {
-        return base != null && base.getClass().isRecord();
+        Map<String, Method> accessors = ACCESSORS.get(type);
+        Method method = accessors.get(field);
+        if (method == null)
+        {
+            String methodName = type.isRecord() ? field : "get" + field.substring(0, 1).toUpperCase() + field.substring(1);
+            method = type.getMethod(methodName, (Class<?>[]) null);
+            accessors.put(field, method);
+        }
+        return method;
     }
 
     static private class ArrayHelper
     {
-        private final BatchCache batchCache;
         private final ProceedingJoinPoint joinPoint;
 
-        public ArrayHelper(BatchCache batchCache, ProceedingJoinPoint joinPoint)
+        public ArrayHelper(ProceedingJoinPoint joinPoint)
         {
-            this.batchCache = batchCache;
             this.joinPoint = joinPoint;
         }
 
@@ -436,15 +741,15 @@ public class BatchCacheAspect
                 String[] ids = (String[]) joinPoint.getArgs()[0];
                 return Arrays.stream(ids).collect(Collectors.toList());
             }
+            else if (!joinPoint.getArgs()[0].getClass().getComponentType().isPrimitive())
+            {
+                Object[] ids = (Object[]) joinPoint.getArgs()[0];
+                return Arrays.stream(ids).collect(Collectors.toList());
+            }
 
             throw new RuntimeException("Not able to get Keys from class type: " + joinPoint.getArgs()[0].getClass().getName());
         }
 
-        public List<String> getKeys()
-        {
-            return getIds().stream().map(id -> getKey(batchCache, id)).distinct().collect(Collectors.toList());
-        }
-
         public Object getArray(Collection missing)
         {
             if (joinPoint.getArgs()[0].getClass().getComponentType().isAssignableFrom(int.class))
@@ -476,12 +781,17 @@ public class BatchCacheAspect
                 for (int i = 0; i < missing.size(); i++) array[i] = (String) missingList.get(i);
                 return array;
             }
+            else if (!joinPoint.getArgs()[0].getClass().getComponentType().isPrimitive())
+            {
+                Object[] array = (Object[]) Array.newInstance(joinPoint.getArgs()[0].getClass().getComponentType(), missing.size());
+                return missing.toArray(array);
+            }
 
             throw new RuntimeException("Not able to get values from missing: " + joinPoint.getArgs()[0].getClass().getName());
         }
     }
 
-    private Map getMapByAssignable(Class clazz)
+    private static Map getMapByAssignable(Class clazz)
     {
         if (clazz.isAssignableFrom(HashMap.class))
         {
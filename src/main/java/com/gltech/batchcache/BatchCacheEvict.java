@@ -43,9 +43,11 @@ import java.lang.annotation.Target;
 public @interface BatchCacheEvict
 {
     /**
-     * BatchCache annotation parameter that defines the prefix of the key.
+     * BatchCache annotation parameter that defines the prefix of the key.  Entries registered as depending on the
+     * prefix are evicted with it.
      *
      * @return Key that we used in defining the annotation.  Can not be null.
+     * @see KeyDependencies
      */
     String key();
 
@@ -55,4 +57,24 @@ public @interface BatchCacheEvict
      * @return field that we used in defining the annotation.
      */
     String field() default "id";
+
+    /**
+     * BatchCacheEvict annotation parameter that puts the key prefix in a generation-versioned namespace.  The
+     * current generation of the prefix is folded into every key, so an eviction with no arguments drops every
+     * entry under the prefix by bumping its generation, instead of deleting the literal key.  Use the same setting
+     * on the matching BatchCache and BatchCacheEvict annotations.
+     *
+     * @return true if keys for this prefix are generation-versioned.
+     * @see NamespaceGenerations
+     */
+    boolean generational() default false;
+
+    /**
+     * BatchCacheEvict annotation parameter that marks the evicted ids as deleted, so aggregates built from the key
+     * prefix drop their elements in place instead of being evicted.
+     *
+     * @return true if the evicted entities no longer exist.
+     * @see BatchCache#aggregateOf()
+     */
+    boolean deletes() default false;
 }
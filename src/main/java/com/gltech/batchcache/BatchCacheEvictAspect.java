@@ -28,10 +28,15 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 /**
@@ -42,13 +47,21 @@ import java.util.stream.Collectors;
  *
  * <p><a href="https://docs.spring.io/spring-framework/reference/core/aop.html">Aspect Oriented Programming with Spring</a>
  *
+ * <p>Evicted keys are sent to the CacheClient as one bulk delete per call, or buffered until the end of the unit
+ * of work when an EvictionScope is open on the calling thread.
+ *
  * @author Matt Giacomini
  * @see Aspect
+ * @see EvictionScope
  */
 @Aspect
 public class BatchCacheEvictAspect
 {
     private final CacheClient cacheClient;
+    private final NamespaceGenerations generations;
+    private final KeySchemas schemas;
+    private final AggregateEntries aggregates;
+    private final KeyDependencies dependencies;
 
     /**
      * Set your cache implementation based on CacheClient Interface
@@ -59,12 +72,59 @@ public class BatchCacheEvictAspect
     public BatchCacheEvictAspect(CacheClient cacheClient)
     {
         this.cacheClient = cacheClient;
+        this.generations = NamespaceGenerations.forClient(cacheClient);
+        this.schemas = KeySchemas.forClient(cacheClient);
+        this.aggregates = AggregateEntries.forClient(cacheClient);
+        this.dependencies = KeyDependencies.forClient(cacheClient);
     }
 
+    /**
+     * Validate every @BatchCacheEvict method of the given classes, so bad annotations fail at startup rather than
+     * on the first call, and resolve the key accessors the first call would otherwise look up.  Pass the bean
+     * classes, not the proxy classes.  Every problem found is reported in one exception.
+     *
+     * @param types classes with @BatchCacheEvict methods.
+     * @return number of @BatchCacheEvict methods validated.
+     * @throws IllegalStateException listing every invalid method.
+     */
+    public int validate(Class<?>... types)
+    {
+        List<String> problems = new ArrayList<>();
+        int validated = 0;
+        for (Class<?> type : types)
+        {
+            for (Method method : BatchCacheValidation.annotatedMethods(type, BatchCacheEvict.class))
+            {
+                validated++;
+                BatchCacheEvict batchCacheEvict = method.getAnnotation(BatchCacheEvict.class);
+                String problem = null;
+                if (batchCacheEvict.key() == null || batchCacheEvict.key().isEmpty())
+                {
+                    problem = "a key is required";
+                }
+                else if (method.getParameterCount() > 0)
+                {
+                    Class<?> idType = method.getParameterTypes()[0];
+                    Type ids = method.getGenericParameterTypes()[0];
+                    boolean isBatch = idType.isArray() || Collection.class.isAssignableFrom(idType);
+                    problem = isBatch && BatchCacheValidation.elementType(ids) == null ? null :
+                            BatchCacheValidation.checkKeyType(isBatch ? BatchCacheValidation.elementType(ids) : ids, batchCacheEvict.field());
+                }
+
+                if (problem != null)
+                {
+                    problems.add(method + ": " + problem);
+                }
+            }
+        }
+        BatchCacheValidation.failOnProblems(problems);
+        return validated;
+    }
 
     /**
      * Aspect method that runs "around" a method annotated with @BatchCacheEvict. This method simply needs to find out
-     * which objects need to be evicted and evict them from cache.
+     * which objects need to be evicted and evict them from cache.  Aggregates built from the key prefixes with
+     * aggregateOf are patched in place where the change allows it, and evicted otherwise.
      *
      * @param joinPoint       JoinPoint provided by the APO Framework.
      * @param batchCacheEvict BatchCacheEvict annotation provided by the APO Framework.
@@ -75,146 +135,313 @@ public class BatchCacheEvictAspect
      */
     @Around(value = "@annotation(batchCacheEvict)")
     public Object batchCacheEvict(ProceedingJoinPoint joinPoint, BatchCacheEvict batchCacheEvict) throws Throwable
+    {
+        return batchCacheEvict(batchCacheEvict, Invocation.of(joinPoint));
+    }
+
+    /**
+     * Run a @BatchCacheEvict method for BatchCacheTemplate, on behalf of a subclass generated by BatchCacheProcessor,
+     * exactly as the around advice would.
+     *
+     * @param method  the annotated method.
+     * @param args    arguments of the call.
+     * @param proceed calls the overridden method.
+     * @return the results of the annotated method.
+     * @see BatchCacheTemplate#evict(Method, Object[], Callable)
+     */
+    Object evict(Method method, Object[] args, Callable<?> proceed)
+    {
+        try
+        {
+            return batchCacheEvict(method.getAnnotation(BatchCacheEvict.class), Invocation.of(method, args, proceed));
+        }
+        catch (Throwable e)
+        {
+            throw Invocation.rethrow(e);
+        }
+    }
+
+    private Object batchCacheEvict(BatchCacheEvict batchCacheEvict, Invocation invocation) throws Throwable
     {
         if (batchCacheEvict.key() == null || batchCacheEvict.key().isEmpty())
         {
             throw new IllegalArgumentException("Valid key required for Caching");
         }
+        aggregates.register(invocation.getTargetType());
 
-        if (joinPoint.getArgs().length == 0)
+        if (invocation.getArgs().length == 0)
         {
-            return evictAllForKey(batchCacheEvict.key(), joinPoint);
+            return evictAllForKey(batchCacheEvict, invocation);
         }
-        else if (joinPoint.getArgs()[0] == null)
+        else if (invocation.getArgs()[0] == null)
         {
-            return joinPoint.proceed();
+            return invocation.proceed();
         }
-        else if (joinPoint.getArgs().length > 0 && joinPoint.getArgs()[0].getClass().isArray())
+        else if (invocation.getArgs().length > 0 && invocation.getArgs()[0].getClass().isArray())
         {
-            return evictFromArray(batchCacheEvict, joinPoint);
+            return evictFromArray(batchCacheEvict, invocation);
         }
-        else if (joinPoint.getArgs().length > 0 && joinPoint.getArgs()[0] instanceof Collection)
+        else if (invocation.getArgs().length > 0 && invocation.getArgs()[0] instanceof Collection)
         {
-            return evictFromList(batchCacheEvict, joinPoint);
+            return evictFromList(batchCacheEvict, invocation);
         }
         // Key from int Object that supports and getId method.
-        else if (joinPoint.getArgs().length > 0)
+        else if (invocation.getArgs().length > 0)
         {
-            return evictFromObject(batchCacheEvict, joinPoint);
+            return evictFromObject(batchCacheEvict, invocation);
         }
         else
         {
-            throw new IllegalArgumentException("Not able to parse keys from " + joinPoint.getArgs()[0].getClass().getName());
+            throw new IllegalArgumentException("Not able to parse keys from " + invocation.getArgs()[0].getClass().getName());
         }
     }
 
-    private Object evictAllForKey(String keyPrefix, ProceedingJoinPoint joinPoint) throws Throwable
+    private Object evictAllForKey(BatchCacheEvict batchCacheEvict, Invocation invocation) throws Throwable
     {
         try
         {
-            return joinPoint.proceed();
+            return invocation.proceed();
         }
         finally
         {
-            Arrays.stream(keyPrefix.replaceAll("\\s", "").split(",")).forEach(cacheClient::delete);
+            KeyDependencies.Closure closure = dependencies.closure(batchCacheEvict.key());
+            List<String> keys = new ArrayList<>();
+            List<String> paged = new ArrayList<>();
+            List<String> bumped = new ArrayList<>();
+            for (String prefix : closure.getPrefixes())
+            {
+                if (closure.isGenerational(prefix, batchCacheEvict.generational()))
+                {
+                    bumped.add(prefix);
+                }
+                else
+                {
+                    addKey(keys, paged, prefix, versionedPrefix(batchCacheEvict, closure, prefix));
+                }
+            }
+            if (!bumped.isEmpty())
+            {
+                CacheEvents.Evict event = new CacheEvents.Evict();
+                event.begin();
+                bumped.forEach(generations::bump);
+                commit(event, batchCacheEvict, invocation, bumped.size());
+            }
+
+            // Aggregates built from the prefixes and the single keys depending on them go with them.
+            for (String prefix : closure.getPrefixes())
+            {
+                keys.addAll(aggregates.getKeys(prefix));
+                paged.addAll(aggregates.getPagedKeys(prefix));
+            }
+            closure.getKeys().stream().filter(key -> !isAggregate(closure, key)).forEach(key -> addKey(keys, paged, key, versionedPrefix(batchCacheEvict, closure, key)));
+            if (!keys.isEmpty())
+            {
+                delete(batchCacheEvict, invocation, withPageKeys(keys, paged));
+            }
+        }
+    }
+
+    private Object evictFromList(BatchCacheEvict batchCacheEvict, Invocation invocation) throws Throwable
+    {
+        Collection<?> ids = (Collection<?>) invocation.getArgs()[0];
+        List<String> prefixes = keyPrefixes(batchCacheEvict);
+
+        Set<String> keys = new LinkedHashSet<>();
+        for (Object id : ids)
+        {
+            keys.addAll(getKeySet(prefixes, batchCacheEvict.field(), id));
         }
+        return evict(batchCacheEvict, invocation, keys, ids);
     }
 
-    private Object evictFromList(BatchCacheEvict batchCacheEvict, ProceedingJoinPoint joinPoint) throws Throwable
+    private Object evictFromObject(BatchCacheEvict batchCacheEvict, Invocation invocation) throws Throwable
     {
-        Collection ids = (Collection) joinPoint.getArgs()[0];
+        Set<String> keys = getKeySet(keyPrefixes(batchCacheEvict), batchCacheEvict.field(), invocation.getArgs()[0]);
+        return evict(batchCacheEvict, invocation, keys, List.of(invocation.getArgs()[0]));
+    }
 
+    private Object evictFromArray(BatchCacheEvict batchCacheEvict, Invocation invocation) throws Throwable
+    {
+        ArrayHelper arrayHelper = new ArrayHelper(keyPrefixes(batchCacheEvict), batchCacheEvict.field(), invocation);
+        return evict(batchCacheEvict, invocation, arrayHelper.getKeys(), arrayHelper.getIds());
+    }
+
+    private Object evict(BatchCacheEvict batchCacheEvict, Invocation invocation, Set<String> keys, Collection<?> idsOrValues) throws Throwable
+    {
+        boolean completed = false;
         try
         {
-            return joinPoint.proceed();
+            Object result = invocation.proceed();
+            completed = true;
+            return result;
         }
         finally
         {
-            ids.stream().map(id -> getKeySet(batchCacheEvict, id)).forEach(keys -> ((Set<String>) keys).forEach(cacheClient::delete));
+            delete(batchCacheEvict, invocation, withDependents(batchCacheEvict, keys, idsOrValues, completed));
         }
     }
 
-    private Object evictFromObject(BatchCacheEvict batchCacheEvict, ProceedingJoinPoint joinPoint) throws Throwable
+    /**
+     * Add the single keys depending on the evicted prefixes to the keys to delete.  Aggregates built from the
+     * prefixes are patched, or added to the keys to delete when they can't be: the method failed, or only the ids
+     * of entities that still exist are known.
+     */
+    private Collection<String> withDependents(BatchCacheEvict batchCacheEvict, Set<String> keys, Collection<?> idsOrValues, boolean completed)
     {
-        Set<String> keys = getKeySet(batchCacheEvict, joinPoint.getArgs()[0]);
+        KeyDependencies.Closure closure = dependencies.closure(batchCacheEvict.key());
+        List<String> whole = new ArrayList<>();
+        List<String> paged = new ArrayList<>();
+        for (String prefix : closure.getPrefixes())
+        {
+            if (!aggregates.hasAggregates(prefix))
+            {
+                continue;
+            }
 
-        try
+            boolean entities = idsOrValues.stream().allMatch(value -> value != null && KeyCodecs.encode(value) == null);
+            if (completed && batchCacheEvict.deletes())
+            {
+                aggregates.remove(prefix, idsOrValues);
+            }
+            else if (completed && entities)
+            {
+                aggregates.put(prefix, idsOrValues);
+            }
+            else
+            {
+                whole.addAll(aggregates.getKeys(prefix));
+                paged.addAll(aggregates.getPagedKeys(prefix));
+            }
+        }
+        closure.getKeys().stream().filter(key -> !isAggregate(closure, key)).forEach(key -> addKey(whole, paged, key, versionedPrefix(batchCacheEvict, closure, key)));
+
+        if (whole.isEmpty())
         {
-            return joinPoint.proceed();
+            return keys;
         }
-        finally
+        List<String> toDelete = new ArrayList<>(keys);
+        toDelete.addAll(withPageKeys(whole, paged));
+        return toDelete;
+    }
+
+    private void addKey(List<String> keys, List<String> paged, String name, String key)
+    {
+        keys.add(key);
+        if (aggregates.isPaged(name))
         {
-            keys.forEach(cacheClient::delete);
+            paged.add(key);
         }
     }
 
-    private Object evictFromArray(BatchCacheEvict batchCacheEvict, ProceedingJoinPoint joinPoint) throws Throwable
+    /**
+     * @return the keys, plus the pages of the paged results among them.  Paged results keep their values under page
+     * keys named by the manifest stored at the key, so only those manifests are read; other keys are just deleted.
+     */
+    private Collection<String> withPageKeys(Collection<String> keys, List<String> paged)
     {
-        ArrayHelper arrayHelper = new ArrayHelper(batchCacheEvict, joinPoint);
-        Set<String> keys = arrayHelper.getKeys();
+        return paged.isEmpty() ? keys : PageManifest.withPageKeys(keys, cacheClient.get(paged));
+    }
 
-        try
+    private boolean isAggregate(KeyDependencies.Closure closure, String key)
+    {
+        return closure.getPrefixes().stream().anyMatch(prefix -> aggregates.isAggregateOf(prefix, key));
+    }
+
+    private void delete(BatchCacheEvict batchCacheEvict, Invocation invocation, Collection<String> keys)
+    {
+        CacheEvents.Evict event = new CacheEvents.Evict();
+        event.begin();
+        if (!EvictionScope.defer(cacheClient, keys))
         {
-            return joinPoint.proceed();
+            cacheClient.delete(keys);
         }
-        finally
+        commit(event, batchCacheEvict, invocation, keys.size());
+    }
+
+    private static void commit(CacheEvents.Evict event, BatchCacheEvict batchCacheEvict, Invocation invocation, int keys)
+    {
+        if (event.shouldCommit())
         {
-            keys.forEach(cacheClient::delete);
+            event.key = batchCacheEvict.key();
+            event.method = invocation.getName();
+            event.keys = keys;
+            event.commit();
         }
     }
 
-    private static Set<String> getKeySet(BatchCacheEvict batchCacheEvict, Object object)
+    private List<String> keyPrefixes(BatchCacheEvict batchCacheEvict)
+    {
+        KeyDependencies.Closure closure = dependencies.closure(batchCacheEvict.key());
+        return closure.getPrefixes().stream()
+                .map(keyPrefix -> versionedPrefix(batchCacheEvict, closure, keyPrefix))
+                .collect(Collectors.toList());
+    }
+
+    private String versionedPrefix(BatchCacheEvict batchCacheEvict, KeyDependencies.Closure closure, String keyPrefix)
+    {
+        boolean generational = closure.isGenerational(keyPrefix, batchCacheEvict.generational());
+        return schemas.apply(keyPrefix, generational ? generations.currentPrefix(keyPrefix) : keyPrefix);
+    }
+
+    private static Set<String> getKeySet(List<String> prefixes, String field, Object object)
     {
-        return Arrays.stream(batchCacheEvict.key().replaceAll("\\s", "").split(","))
-                .map(keyPrefix -> BatchCacheAspect.getKey(keyPrefix, batchCacheEvict.field(), object))
+        return prefixes.stream()
+                .map(keyPrefix -> BatchCacheAspect.getKey(keyPrefix, field, object))
                 .collect(Collectors.toSet());
     }
 
     static private class ArrayHelper
     {
-        private final BatchCacheEvict batchCacheEvict;
-        private final ProceedingJoinPoint joinPoint;
+        private final List<String> prefixes;
+        private final String field;
+        private final Invocation invocation;
 
-        public ArrayHelper(BatchCacheEvict batchCacheEvict, ProceedingJoinPoint joinPoint)
+        public ArrayHelper(List<String> prefixes, String field, Invocation invocation)
         {
-            this.batchCacheEvict = batchCacheEvict;
-            this.joinPoint = joinPoint;
+            this.prefixes = prefixes;
+            this.field = field;
+            this.invocation = invocation;
         }
 
         public List<Object> getIds()
         {
-            if (joinPoint.getArgs()[0].getClass().getComponentType().isAssignableFrom(int.class))
+            if (invocation.getArgs()[0].getClass().getComponentType().isAssignableFrom(int.class))
             {
-                int[] ids = (int[]) joinPoint.getArgs()[0];
+                int[] ids = (int[]) invocation.getArgs()[0];
                 return Arrays.stream(ids).boxed().collect(Collectors.toList());
             }
-            else if (joinPoint.getArgs()[0].getClass().getComponentType().isAssignableFrom(Integer.class))
+            else if (invocation.getArgs()[0].getClass().getComponentType().isAssignableFrom(Integer.class))
             {
-                Integer[] ids = (Integer[]) joinPoint.getArgs()[0];
+                Integer[] ids = (Integer[]) invocation.getArgs()[0];
                 return Arrays.stream(ids).collect(Collectors.toList());
             }
-            else if (joinPoint.getArgs()[0].getClass().getComponentType().isAssignableFrom(long.class))
+            else if (invocation.getArgs()[0].getClass().getComponentType().isAssignableFrom(long.class))
             {
-                long[] ids = (long[]) joinPoint.getArgs()[0];
+                long[] ids = (long[]) invocation.getArgs()[0];
                 return Arrays.stream(ids).boxed().collect(Collectors.toList());
             }
-            else if (joinPoint.getArgs()[0].getClass().getComponentType().isAssignableFrom(Long.class))
+            else if (invocation.getArgs()[0].getClass().getComponentType().isAssignableFrom(Long.class))
+            {
+                Long[] ids = (Long[]) invocation.getArgs()[0];
+                return Arrays.stream(ids).collect(Collectors.toList());
+            }
+            else if (invocation.getArgs()[0].getClass().getComponentType().isAssignableFrom(String.class))
             {
-                Long[] ids = (Long[]) joinPoint.getArgs()[0];
+                String[] ids = (String[]) invocation.getArgs()[0];
                 return Arrays.stream(ids).collect(Collectors.toList());
             }
-            else if (joinPoint.getArgs()[0].getClass().getComponentType().isAssignableFrom(String.class))
+            else if (!invocation.getArgs()[0].getClass().getComponentType().isPrimitive())
             {
-                String[] ids = (String[]) joinPoint.getArgs()[0];
+                Object[] ids = (Object[]) invocation.getArgs()[0];
                 return Arrays.stream(ids).collect(Collectors.toList());
             }
 
-            throw new RuntimeException("Not able to get Keys from class type: " + joinPoint.getArgs()[0].getClass().getName());
+            throw new RuntimeException("Not able to get Keys from class type: " + invocation.getArgs()[0].getClass().getName());
         }
 
         public Set<String> getKeys()
         {
-            return getIds().stream().map(id -> getKeySet(batchCacheEvict, id)).flatMap(Set::stream).collect(Collectors.toSet());
+            return getIds().stream().map(id -> getKeySet(prefixes, field, id)).flatMap(Set::stream).collect(Collectors.toSet());
         }
     }
 }
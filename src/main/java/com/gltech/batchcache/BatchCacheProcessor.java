@@ -0,0 +1,535 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * BatchCacheProcessor generates, at compile time, a subclass of every class with BatchCache, BatchCacheEvict or
+ * BatchCachePut methods that runs those methods through a BatchCacheTemplate.  The generated class is named after the annotated class with a
+ * BatchCache suffix, takes the template as its first constructor argument, and fixes each method's strategy,
+ * id types, result container and value id accessor in code, so no proxy, reflection or MethodSignature lookup is
+ * left on the call path.
+ *
+ * <pre>
+ * TestDAO testDAO = new TestDAOImplBatchCache(new BatchCacheTemplate(cacheClient));
+ * </pre>
+ *
+ * <p>The processor is not registered as a service, so it only runs where it is asked for, for example with
+ * javac -processor com.gltech.batchcache.BatchCacheProcessor or the compiler plugin's annotationProcessors.
+ * BatchCache methods it can't generate, such as those taking arrays or returning a Stream, are reported as compiler
+ * notes and keep their plain behavior in the subclass; use BatchCacheAspect for those.  BatchCacheEvict and
+ * BatchCachePut methods are overridden to call the template's evict and put, so writes through the subclass keep its
+ * cached reads current; the few it can't override are reported as compiler warnings, since they would silently skip
+ * their eviction or write-through.
+ *
+ * <p>The processor also writes GraalVM native-image reflection and proxy configuration for every BatchCache,
+ * BatchCacheEvict and BatchCachePut method it sees, so native images can reach the annotated methods and the
+ * accessors that build their keys.  Generated subclasses need no proxies, so they are the simplest way to run
+ * cached classes in a native image.
+ *
+ * @author Matt Giacomini
+ * @see BatchCacheTemplate
+ */
+@SupportedAnnotationTypes({"com.gltech.batchcache.BatchCache", "com.gltech.batchcache.BatchCacheEvict", "com.gltech.batchcache.BatchCachePut"})
+public class BatchCacheProcessor extends AbstractProcessor
+{
+    static final String SUFFIX = "BatchCache";
+
+    private NativeImageConfig nativeImageConfig;
+
+    private enum Strategy
+    {
+        SINGLE, MAP, VALUES
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        if (nativeImageConfig == null)
+        {
+            nativeImageConfig = new NativeImageConfig(processingEnv);
+        }
+        if (roundEnv.processingOver())
+        {
+            if (!nativeImageConfig.isEmpty())
+            {
+                nativeImageConfig.write();
+            }
+            return false;
+        }
+
+        for (ExecutableElement method : ElementFilter.methodsIn(roundEnv.getElementsAnnotatedWith(BatchCache.class)))
+        {
+            nativeImageConfig.addMethod(method, method.getAnnotation(BatchCache.class).field());
+        }
+        for (ExecutableElement method : ElementFilter.methodsIn(roundEnv.getElementsAnnotatedWith(BatchCacheEvict.class)))
+        {
+            nativeImageConfig.addMethod(method, method.getAnnotation(BatchCacheEvict.class).field());
+        }
+        for (ExecutableElement method : ElementFilter.methodsIn(roundEnv.getElementsAnnotatedWith(BatchCachePut.class)))
+        {
+            nativeImageConfig.addMethod(method, method.getAnnotation(BatchCachePut.class).field());
+        }
+
+        Map<TypeElement, Set<ExecutableElement>> methodsByType = new LinkedHashMap<>();
+        for (Class<? extends java.lang.annotation.Annotation> annotation : List.of(BatchCache.class, BatchCacheEvict.class, BatchCachePut.class))
+        {
+            for (ExecutableElement method : ElementFilter.methodsIn(roundEnv.getElementsAnnotatedWith(annotation)))
+            {
+                methodsByType.computeIfAbsent((TypeElement) method.getEnclosingElement(), type -> new LinkedHashSet<>()).add(method);
+            }
+        }
+
+        methodsByType.forEach((type, methods) ->
+        {
+            if (canSubclass(type))
+            {
+                generate(type, methods);
+            }
+        });
+        return false;
+    }
+
+    private boolean canSubclass(TypeElement type)
+    {
+        String reason = null;
+        if (type.getKind() != ElementKind.CLASS)
+        {
+            reason = "only classes can be subclassed";
+        }
+        else if (type.getModifiers().contains(Modifier.FINAL) || type.getModifiers().contains(Modifier.ABSTRACT))
+        {
+            reason = "final and abstract classes can't be subclassed";
+        }
+        else if (type.getModifiers().contains(Modifier.PRIVATE) ||
+                (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) ||
+                type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS)
+        {
+            reason = "only top level and static nested classes that are not private can be subclassed";
+        }
+        else if (!type.getTypeParameters().isEmpty())
+        {
+            reason = "generic classes are not supported";
+        }
+
+        if (reason != null)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "No " + SUFFIX + " class generated: " + reason, type);
+            return false;
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type, Set<ExecutableElement> methods)
+    {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String className = generatedName(type);
+
+        Map<ExecutableElement, Strategy> strategies = new LinkedHashMap<>();
+        List<ExecutableElement> writes = new ArrayList<>();
+        for (ExecutableElement method : methods)
+        {
+            if (method.getAnnotation(BatchCache.class) != null)
+            {
+                Strategy strategy = strategy(method);
+                if (strategy != null)
+                {
+                    strategies.put(method, strategy);
+                }
+            }
+            else if (canOverrideWrite(method))
+            {
+                writes.add(method);
+            }
+        }
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? className : packageName + "." + className, type).openWriter()))
+        {
+            if (!packageName.isEmpty())
+            {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("@javax.annotation.processing.Generated(\"" + BatchCacheProcessor.class.getName() + "\")");
+            out.println("public class " + className + " extends " + type.getQualifiedName());
+            out.println("{");
+            out.println("    private final com.gltech.batchcache.BatchCacheTemplate template;");
+            for (int i = 0; i < strategies.size(); i++)
+            {
+                out.println("    private final com.gltech.batchcache.BatchCacheTemplate.Options options" + i + ";");
+            }
+            for (int i = 0; i < writes.size(); i++)
+            {
+                ExecutableElement write = writes.get(i);
+                String parameterTypes = write.getParameters().stream()
+                        .map(parameter -> ", " + processingEnv.getTypeUtils().erasure(parameter.asType()) + ".class").collect(Collectors.joining());
+                out.println("    private static final java.lang.reflect.Method write" + i + " = batchCacheMethod(\"" + write.getSimpleName() + "\"" + parameterTypes + ");");
+            }
+
+            for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements()))
+            {
+                if (!constructor.getModifiers().contains(Modifier.PRIVATE))
+                {
+                    writeConstructor(out, className, constructor, strategies);
+                }
+            }
+
+            int index = 0;
+            for (Map.Entry<ExecutableElement, Strategy> entry : strategies.entrySet())
+            {
+                writeMethod(out, entry.getKey(), entry.getValue(), index++);
+            }
+            for (int i = 0; i < writes.size(); i++)
+            {
+                writeWriteMethod(out, writes.get(i), i);
+            }
+            if (!writes.isEmpty())
+            {
+                out.println();
+                out.println("    private static java.lang.reflect.Method batchCacheMethod(String name, Class<?>... parameterTypes)");
+                out.println("    {");
+                out.println("        try");
+                out.println("        {");
+                out.println("            return " + type.getQualifiedName() + ".class.getDeclaredMethod(name, parameterTypes);");
+                out.println("        }");
+                out.println("        catch (NoSuchMethodException e)");
+                out.println("        {");
+                out.println("            throw new IllegalStateException(e);");
+                out.println("        }");
+                out.println("    }");
+            }
+            out.println("}");
+        }
+        catch (IOException e)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write " + className + ": " + e.getMessage(), type);
+        }
+    }
+
+    static String generatedName(TypeElement type)
+    {
+        String name = type.getSimpleName().toString();
+        for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement())
+        {
+            name = enclosing.getSimpleName() + "_" + name;
+        }
+        return name + SUFFIX;
+    }
+
+    /**
+     * Pick the template call for a method, or warn and return null if it has to be left to BatchCacheAspect.
+     */
+    private Strategy strategy(ExecutableElement method)
+    {
+        String reason = null;
+        Strategy strategy = null;
+        TypeMirror returnType = method.getReturnType();
+
+        if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.FINAL) || method.getModifiers().contains(Modifier.STATIC))
+        {
+            reason = "private, final and static methods can't be overridden";
+        }
+        else if (!method.getTypeParameters().isEmpty() || !method.getThrownTypes().isEmpty())
+        {
+            reason = "generic methods and methods that throw checked exceptions are not supported";
+        }
+        else if (method.getParameters().isEmpty())
+        {
+            reason = "methods without ids are not supported";
+        }
+        else if (returnType.getKind() != TypeKind.DECLARED)
+        {
+            reason = "methods returning primitives, arrays or void are not supported";
+        }
+        else
+        {
+            TypeMirror idType = method.getParameters().get(0).asType();
+            if (isA(idType, "java.util.Collection"))
+            {
+                if (idArgType(idType) == null || idArgType(returnType) == null || !isOneOf(idType, "java.util.Collection", "java.util.List", "java.util.Set"))
+                {
+                    reason = "ids must be a Collection, List or Set with a concrete type argument";
+                }
+                else if (isOneOf(returnType, "java.util.Map", "java.util.HashMap"))
+                {
+                    strategy = Strategy.MAP;
+                }
+                else if (isOneOf(returnType, "java.util.Collection", "java.util.List", "java.util.Set"))
+                {
+                    strategy = Strategy.VALUES;
+                }
+                else
+                {
+                    reason = "ids in a Collection must return a Map, HashMap, Collection, List or Set";
+                }
+            }
+            else if (idType.getKind() == TypeKind.ARRAY || isA(idType, "java.util.Iterator") || isA(idType, "java.util.stream.Stream") ||
+                    isA(returnType, "java.util.stream.Stream"))
+            {
+                reason = "array, Iterator and Stream methods are only supported by BatchCacheAspect";
+            }
+            else
+            {
+                strategy = Strategy.SINGLE;
+            }
+        }
+
+        if (reason != null)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Not cached by the generated " + SUFFIX + " class: " + reason, method);
+        }
+        return strategy;
+    }
+
+    /**
+     * Check a BatchCacheEvict or BatchCachePut method can be overridden, or warn that the generated class leaves it
+     * without eviction or write-through.
+     */
+    private boolean canOverrideWrite(ExecutableElement method)
+    {
+        String reason = null;
+        if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.FINAL) || method.getModifiers().contains(Modifier.STATIC))
+        {
+            reason = "private, final and static methods can't be overridden";
+        }
+        else if (!method.getTypeParameters().isEmpty() || !method.getThrownTypes().isEmpty())
+        {
+            reason = "generic methods and methods that throw checked exceptions are not supported";
+        }
+
+        if (reason != null)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Not evicted or written through by the generated " + SUFFIX + " class: " + reason, method);
+            return false;
+        }
+        return true;
+    }
+
+    private void writeConstructor(PrintWriter out, String className, ExecutableElement constructor, Map<ExecutableElement, Strategy> strategies)
+    {
+        List<String> parameters = new ArrayList<>();
+        parameters.add("com.gltech.batchcache.BatchCacheTemplate batchCacheTemplate");
+        parameters.addAll(constructor.getParameters().stream().map(parameter -> parameter.asType() + " " + parameter.getSimpleName()).collect(Collectors.toList()));
+
+        out.println();
+        out.println("    public " + className + "(" + String.join(", ", parameters) + ")" + throwsClause(constructor));
+        out.println("    {");
+        out.println("        super(" + constructor.getParameters().stream().map(parameter -> parameter.getSimpleName().toString()).collect(Collectors.joining(", ")) + ");");
+        out.println("        this.template = batchCacheTemplate;");
+
+        int index = 0;
+        for (Map.Entry<ExecutableElement, Strategy> entry : strategies.entrySet())
+        {
+            BatchCache batchCache = entry.getKey().getAnnotation(BatchCache.class);
+            String options = "options" + index++;
+            out.println("        this." + options + " = new com.gltech.batchcache.BatchCacheTemplate.Options(\"" + escape(batchCache.key()) + "\");");
+            out.println("        this." + options + ".setField(\"" + escape(batchCache.field()) + "\");");
+            if (batchCache.refreshAfterMillis() > 0)
+            {
+                out.println("        this." + options + ".setRefreshAfterMillis(" + batchCache.refreshAfterMillis() + "L);");
+            }
+            if (batchCache.generational())
+            {
+                out.println("        this." + options + ".setGenerational(true);");
+            }
+            if (entry.getValue() == Strategy.VALUES)
+            {
+                TypeMirror valueType = idArgType(entry.getKey().getReturnType());
+                String accessor = accessor(valueType, batchCache.field());
+                if (accessor != null)
+                {
+                    out.println("        this." + options + ".setValueId((" + valueType + " value) -> value." + accessor + "());");
+                }
+            }
+        }
+        out.println("    }");
+    }
+
+    private void writeMethod(PrintWriter out, ExecutableElement method, Strategy strategy, int index)
+    {
+        List<? extends VariableElement> parameters = method.getParameters();
+        TypeMirror idType = parameters.get(0).asType();
+        String ids = parameters.get(0).getSimpleName().toString();
+        String trailing = parameters.stream().skip(1).map(parameter -> ", " + parameter.getSimpleName()).collect(Collectors.joining());
+
+        // The loader's ids are cast back to the declared type so the same overload of the method is called.
+        String idsArg = isOneOf(idType, "java.util.Set") ? "new java.util.LinkedHashSet<>(batchCacheIds)" : "(" + idType + ") batchCacheIds";
+        String loader = "batchCacheIds -> super." + method.getSimpleName() + "(" + idsArg + trailing + ")";
+
+        String call;
+        if (strategy == Strategy.SINGLE)
+        {
+            call = "this.template.get(this.options" + index + ", " + ids + ", " + loader + ")";
+        }
+        else if (strategy == Strategy.MAP)
+        {
+            call = "this.template.getAll(this.options" + index + ", " + ids + ", " + loader + ")";
+            call = isOneOf(method.getReturnType(), "java.util.HashMap") ? "new java.util.HashMap<>(" + call + ")" : call;
+        }
+        else
+        {
+            call = "this.template.getAllValues(this.options" + index + ", " + ids + ", " + loader + ")";
+            call = isOneOf(method.getReturnType(), "java.util.Set") ? "new java.util.HashSet<>(" + call + ")" : call;
+        }
+
+        String modifiers = method.getModifiers().contains(Modifier.PUBLIC) ? "public " : method.getModifiers().contains(Modifier.PROTECTED) ? "protected " : "";
+        String parameterList = parameters.stream().map(parameter -> parameter.asType() + " " + parameter.getSimpleName()).collect(Collectors.joining(", "));
+
+        out.println();
+        out.println("    @Override");
+        out.println("    " + modifiers + method.getReturnType() + " " + method.getSimpleName() + "(" + parameterList + ")");
+        out.println("    {");
+        if (!idType.getKind().isPrimitive())
+        {
+            out.println("        if (" + ids + " == null)");
+            out.println("        {");
+            out.println("            return super." + method.getSimpleName() + "(" + parameters.stream().map(parameter -> parameter.getSimpleName().toString()).collect(Collectors.joining(", ")) + ");");
+            out.println("        }");
+        }
+        out.println("        return " + call + ";");
+        out.println("    }");
+    }
+
+    /**
+     * Override a BatchCacheEvict or BatchCachePut method with a call through the template, wrapping the put in the
+     * eviction when a method has both.
+     */
+    private void writeWriteMethod(PrintWriter out, ExecutableElement method, int index)
+    {
+        List<? extends VariableElement> parameters = method.getParameters();
+        String args = parameters.stream().map(parameter -> parameter.getSimpleName().toString()).collect(Collectors.joining(", "));
+        TypeMirror returnType = method.getReturnType();
+        boolean isVoid = returnType.getKind() == TypeKind.VOID;
+
+        String call = isVoid ? "() -> { super." + method.getSimpleName() + "(" + args + "); return null; }" : "() -> super." + method.getSimpleName() + "(" + args + ")";
+        if (method.getAnnotation(BatchCachePut.class) != null)
+        {
+            call = "this.template.put(write" + index + ", new Object[]{" + args + "}, " + call + ")";
+        }
+        if (method.getAnnotation(BatchCacheEvict.class) != null)
+        {
+            call = method.getAnnotation(BatchCachePut.class) != null ? "() -> " + call : call;
+            call = "this.template.evict(write" + index + ", new Object[]{" + args + "}, " + call + ")";
+        }
+
+        String modifiers = method.getModifiers().contains(Modifier.PUBLIC) ? "public " : method.getModifiers().contains(Modifier.PROTECTED) ? "protected " : "";
+        String parameterList = parameters.stream().map(parameter -> parameter.asType() + " " + parameter.getSimpleName()).collect(Collectors.joining(", "));
+        String resultType = returnType.getKind().isPrimitive() ? processingEnv.getTypeUtils().boxedClass((PrimitiveType) returnType).getQualifiedName().toString() : returnType.toString();
+
+        out.println();
+        out.println("    @Override");
+        if (!isVoid && !returnType.getKind().isPrimitive())
+        {
+            out.println("    @SuppressWarnings(\"unchecked\")");
+        }
+        out.println("    " + modifiers + returnType + " " + method.getSimpleName() + "(" + parameterList + ")");
+        out.println("    {");
+        out.println("        " + (isVoid ? "" : "return (" + resultType + ") ") + call + ";");
+        out.println("    }");
+    }
+
+    /**
+     * @return the no argument accessor that reads field from a value, getField() or a record's field(), or null.
+     */
+    private String accessor(TypeMirror valueType, String field)
+    {
+        if (valueType.getKind() != TypeKind.DECLARED || field == null || field.isEmpty())
+        {
+            return null;
+        }
+
+        TypeElement valueElement = (TypeElement) processingEnv.getTypeUtils().asElement(valueType);
+        String name = valueElement.getKind() == ElementKind.RECORD ? field : "get" + field.substring(0, 1).toUpperCase() + field.substring(1);
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(valueElement)))
+        {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().isEmpty() &&
+                    method.getModifiers().contains(Modifier.PUBLIC) && !method.getModifiers().contains(Modifier.STATIC))
+            {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the first type argument of a declared type, or null if it is raw or a wildcard.
+     */
+    private static TypeMirror idArgType(TypeMirror type)
+    {
+        if (type.getKind() != TypeKind.DECLARED || ((DeclaredType) type).getTypeArguments().isEmpty())
+        {
+            return null;
+        }
+        TypeMirror argument = ((DeclaredType) type).getTypeArguments().get(0);
+        return argument.getKind() == TypeKind.DECLARED ? argument : null;
+    }
+
+    private boolean isA(TypeMirror type, String className)
+    {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(className);
+        return element != null && processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type), processingEnv.getTypeUtils().erasure(element.asType()));
+    }
+
+    private boolean isOneOf(TypeMirror type, String... classNames)
+    {
+        String erased = processingEnv.getTypeUtils().erasure(type).toString();
+        return Arrays.asList(classNames).contains(erased);
+    }
+
+    private static String throwsClause(ExecutableElement executable)
+    {
+        if (executable.getThrownTypes().isEmpty())
+        {
+            return "";
+        }
+        return " throws " + executable.getThrownTypes().stream().map(TypeMirror::toString).collect(Collectors.joining(", "));
+    }
+
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
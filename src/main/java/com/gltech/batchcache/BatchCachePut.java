@@ -0,0 +1,84 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This interface defines the Annotation parameters allowed for BatchCachePutAspect
+ * It is designed and tested for Aspect Oriented Annotations in Spring.
+ *
+ * <a href="https://docs.spring.io/spring-framework/reference/core/aop.html">Aspect Oriented Programming with Spring</a>
+ *
+ * @author Matt Giacomini
+ * @see BatchCachePutAspect
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface BatchCachePut
+{
+    /**
+     * BatchCachePut annotation parameter that defines the prefix of the key.
+     *
+     * @return Key that we used in defining the annotation.  Can not be null.
+     */
+    String key();
+
+    /**
+     * BatchCachePut annotation parameter that defines the suffix of the key, if one is provided.
+
+     * @return field that we used in defining the annotation.
+     */
+    String field() default "id";
+
+    /**
+     * BatchCachePut annotation parameter that selects what is written to cache.  By default the first argument is
+     * written, set this to true to write the returned value instead.
+     *
+     * @return true to cache the returned value, false to cache the first argument.
+     */
+    boolean result() default false;
+
+    /**
+     * BatchCachePut annotation parameter that must match BatchCache.generational() of the methods reading the
+     * entries back.
+     *
+     * @return true if keys for this prefix are generation-versioned.
+     * @see NamespaceGenerations
+     */
+    boolean generational() default false;
+
+    /**
+     * BatchCachePut annotation parameter that should match BatchCache.refreshAfterMillis() of the methods reading
+     * the entries back.  Entries written with a write time are read by every method, but only refreshed by methods
+     * that use refresh-ahead.
+     *
+     * @return age in milliseconds after which a cached value is refreshed in the background.
+     */
+    long refreshAfterMillis() default 0;
+}
@@ -0,0 +1,249 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BatchCachePutAspect is a caching concern that writes objects straight into the cache after a save, instead of
+ * evicting them and reloading data that was already in memory on the next read.
+ *
+ * <p>It is designed and tested for Aspect Oriented Annotations in Spring.
+ *
+ * <p><a href="https://docs.spring.io/spring-framework/reference/core/aop.html">Aspect Oriented Programming with Spring</a>
+ *
+ * @author Matt Giacomini
+ * @see Aspect
+ */
+@Aspect
+public class BatchCachePutAspect
+{
+    private final CacheClient cacheClient;
+    private final NamespaceGenerations generations;
+    private final KeySchemas schemas;
+    private final AggregateEntries aggregates;
+    private final Map<String, MembershipFilter> membershipFilters = new ConcurrentHashMap<>();
+
+    /**
+     * Set your cache implementation based on CacheClient Interface
+     *
+     * @param cacheClient Implementation of CacheClient to support get/set/delete.
+     * @see CacheClient
+     */
+    public BatchCachePutAspect(CacheClient cacheClient)
+    {
+        this.cacheClient = cacheClient;
+        this.generations = NamespaceGenerations.forClient(cacheClient);
+        this.schemas = KeySchemas.forClient(cacheClient);
+        this.aggregates = AggregateEntries.forClient(cacheClient);
+    }
+
+    /**
+     * Add every id written under the filter's key prefix to the filter, so new rows are not ruled out by a
+     * filter that was built before they existed.
+     *
+     * @param membershipFilter filter for one key prefix.
+     * @see MembershipFilter
+     */
+    public void addMembershipFilter(MembershipFilter membershipFilter)
+    {
+        membershipFilters.put(membershipFilter.getPrefix(), membershipFilter);
+    }
+
+    /**
+     * Aspect method that runs "around" a method annotated with @BatchCachePut.  Once the method returns without an
+     * exception, the objects are written to cache under keys built with the same field rules as @BatchCache:
+     * <ul>
+     *     <li>A Collection or array is written with one bulk set, one entry per element.</li>
+     *     <li>A Map is written with one bulk set, keyed by the map keys like the Map strategies of @BatchCache.</li>
+     *     <li>Anything else is written as a single entry.</li>
+     * </ul>
+     *
+     * <p>Aggregates declared with aggregateOf on the key prefix are patched with the written objects.
+     *
+     * @param joinPoint     JoinPoint provided by the APO Framework.
+     * @param batchCachePut BatchCachePut annotation provided by the APO Framework.
+     * @return the results of the annotated method.
+     * @throws Throwable Generic throwable because joinPoint.proceed() could reference anything
+     * @see BatchCachePut
+     * @see Around
+     */
+    @Around(value = "@annotation(batchCachePut)")
+    public Object batchCachePut(ProceedingJoinPoint joinPoint, BatchCachePut batchCachePut) throws Throwable
+    {
+        return batchCachePut(batchCachePut, Invocation.of(joinPoint));
+    }
+
+    /**
+     * Run a @BatchCachePut method for BatchCacheTemplate, on behalf of a subclass generated by BatchCacheProcessor,
+     * exactly as the around advice would.
+     *
+     * @param method  the annotated method.
+     * @param args    arguments of the call.
+     * @param proceed calls the overridden method.
+     * @return the results of the annotated method.
+     * @see BatchCacheTemplate#put(Method, Object[], Callable)
+     */
+    Object put(Method method, Object[] args, Callable<?> proceed)
+    {
+        try
+        {
+            return batchCachePut(method.getAnnotation(BatchCachePut.class), Invocation.of(method, args, proceed));
+        }
+        catch (Throwable e)
+        {
+            throw Invocation.rethrow(e);
+        }
+    }
+
+    private Object batchCachePut(BatchCachePut batchCachePut, Invocation invocation) throws Throwable
+    {
+        if (batchCachePut.key() == null || batchCachePut.key().isEmpty())
+        {
+            throw new IllegalArgumentException("Valid key required for Caching");
+        }
+        aggregates.register(invocation.getTargetType());
+
+        Object result = invocation.proceed();
+
+        Object toPut = batchCachePut.result() ? result : (invocation.getArgs().length > 0 ? invocation.getArgs()[0] : null);
+        if (toPut != null)
+        {
+            CacheEvents.WriteBack event = new CacheEvents.WriteBack();
+            event.begin();
+            int entries = put(batchCachePut, toPut);
+            putAggregates(batchCachePut, toPut);
+            if (event.shouldCommit())
+            {
+                event.key = batchCachePut.key();
+                event.method = invocation.getName();
+                event.entries = entries;
+                event.commit();
+            }
+        }
+
+        return result;
+    }
+
+    private int put(BatchCachePut batchCachePut, Object toPut)
+    {
+        String prefix = schemas.apply(batchCachePut.key(), batchCachePut.generational() ? generations.currentPrefix(batchCachePut.key()) : batchCachePut.key());
+        Map<String, Object> objectMap = new HashMap<>();
+
+        if (toPut instanceof Map)
+        {
+            ((Map<?, ?>) toPut).entrySet().stream().filter(entry -> entry.getValue() != null)
+                    .forEach(entry -> {
+                        objectMap.put(BatchCacheAspect.getKey(prefix, batchCachePut.field(), entry.getKey()), wrap(batchCachePut, entry.getValue()));
+                        addMember(batchCachePut, entry.getKey());
+                    });
+        }
+        else if (toPut instanceof Collection)
+        {
+            ((Collection<?>) toPut).stream().filter(Objects::nonNull)
+                    .forEach(value -> {
+                        objectMap.put(BatchCacheAspect.getKey(prefix, batchCachePut.field(), value), wrap(batchCachePut, value));
+                        addMember(batchCachePut, value);
+                    });
+        }
+        else if (toPut.getClass().isArray())
+        {
+            for (int i = 0; i < Array.getLength(toPut); i++)
+            {
+                Object value = Array.get(toPut, i);
+                if (value != null)
+                {
+                    objectMap.put(BatchCacheAspect.getKey(prefix, batchCachePut.field(), value), wrap(batchCachePut, value));
+                    addMember(batchCachePut, value);
+                }
+            }
+        }
+        else
+        {
+            cacheClient.set(BatchCacheAspect.getKey(prefix, batchCachePut.field(), toPut), wrap(batchCachePut, toPut));
+            addMember(batchCachePut, toPut);
+            return 1;
+        }
+
+        if (!objectMap.isEmpty())
+        {
+            cacheClient.set(objectMap);
+        }
+        return objectMap.size();
+    }
+
+    private void putAggregates(BatchCachePut batchCachePut, Object toPut)
+    {
+        if (!aggregates.hasAggregates(batchCachePut.key()))
+        {
+            return;
+        }
+
+        List<Object> values = new ArrayList<>();
+        if (toPut instanceof Map)
+        {
+            values.addAll(((Map<?, ?>) toPut).values());
+        }
+        else if (toPut instanceof Collection)
+        {
+            values.addAll((Collection<?>) toPut);
+        }
+        else if (toPut.getClass().isArray())
+        {
+            for (int i = 0; i < Array.getLength(toPut); i++)
+            {
+                values.add(Array.get(toPut, i));
+            }
+        }
+        else
+        {
+            values.add(toPut);
+        }
+        values.removeIf(Objects::isNull);
+        aggregates.put(batchCachePut.key(), values);
+    }
+
+    private void addMember(BatchCachePut batchCachePut, Object idOrValue)
+    {
+        MembershipFilter filter = membershipFilters.get(batchCachePut.key());
+        if (filter != null)
+        {
+            filter.addKey(BatchCacheAspect.getKey(batchCachePut.key(), batchCachePut.field(), idOrValue));
+        }
+    }
+
+    private static Object wrap(BatchCachePut batchCachePut, Object value)
+    {
+        return batchCachePut.refreshAfterMillis() > 0 ? new CacheEntry(value, System.currentTimeMillis()) : value;
+    }
+}
@@ -0,0 +1,1050 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * BatchCacheTemplate is the batching engine behind BatchCacheAspect, usable directly from code that isn't woven or
+ * proxied.  A lookup gets every id from cache in one call, hands the missing ids to the loader in one call, and
+ * writes the loaded values back, with the same refresh-ahead, generational keys, membership filters, lookup bypass
+ * and write admission as the annotations.
+ *
+ * <pre>
+ * BatchCacheTemplate template = new BatchCacheTemplate(cacheClient);
+ * Map&lt;Long, Company&gt; companies = template.getAll("company", ids, missing -&gt; companyDAO.getCompanies(missing));
+ * </pre>
+ *
+ * <p>Keys are built exactly as they are for annotated methods, so a template and an aspect with the same key prefix
+ * share cache entries.  To share filters and settings as well, pass the template to the aspect's constructor.
+ *
+ * @author Matt Giacomini
+ * @see BatchCacheAspect
+ */
+public class BatchCacheTemplate
+{
+    private final CacheClient cacheClient;
+    private final NamespaceGenerations generations;
+    private final KeySchemas schemas;
+    private final BatchCacheEvictAspect evictAspect;
+    private final BatchCachePutAspect putAspect;
+    private final RefreshAheadLoader refreshAheadLoader = new RefreshAheadLoader();
+    private final Map<String, MembershipFilter> membershipFilters = new ConcurrentHashMap<>();
+    private final Map<Object, HitRatioTracker> hitRatios = new ConcurrentHashMap<>();
+    private volatile double bypassBelowHitRatio;
+    private volatile int bypassSampleEvery = 10;
+    private volatile CountMinSketch admissionSketch;
+    private volatile int admissionFrequency;
+    private final AtomicLong rejectedWrites = new AtomicLong();
+
+    /**
+     * @param cacheClient Implementation of CacheClient to support get/set/delete.
+     * @see CacheClient
+     */
+    public BatchCacheTemplate(CacheClient cacheClient)
+    {
+        this.cacheClient = cacheClient;
+        this.generations = NamespaceGenerations.forClient(cacheClient);
+        this.schemas = KeySchemas.forClient(cacheClient);
+        this.evictAspect = new BatchCacheEvictAspect(cacheClient);
+        this.putAspect = new BatchCachePutAspect(cacheClient);
+    }
+
+    /**
+     * @return the cache this template reads and writes.
+     */
+    public CacheClient getCacheClient()
+    {
+        return cacheClient;
+    }
+
+    /**
+     * Set the executor that reloads stale values for keys using refresh-ahead.  By default stale values are
+     * reloaded one batch at a time on a single background thread.
+     *
+     * @param executor Executor used for refresh-ahead loads, or null to use the background thread.
+     * @see Options#setRefreshAfterMillis(long)
+     */
+    public void setRefreshExecutor(Executor executor)
+    {
+        refreshAheadLoader.setExecutor(executor);
+    }
+
+    /**
+     * Skip the cache lookup for batch lookups whose hit ratio is below this value.  Hit ratios are kept per annotated
+     * method, or per key prefix for template lookups, and measured over windows of lookups; while one is below the
+     * threshold, its ids go straight to the loader and are still written back to cache.  One call in
+     * bypassSampleEvery keeps looking up the cache, and lookups resume when a window of those samples recovers.
+     * Zero, the default, never skips lookups.
+     *
+     * @param hitRatio hit ratio, between 0 and 1, below which lookups are skipped.
+     * @see #setBypassSampleEvery(int)
+     */
+    public void setBypassBelowHitRatio(double hitRatio)
+    {
+        if (hitRatio < 0 || hitRatio > 1)
+        {
+            throw new IllegalArgumentException("Hit ratio must be between 0 and 1: " + hitRatio);
+        }
+        this.bypassBelowHitRatio = hitRatio;
+    }
+
+    /**
+     * @param calls While a lookup is bypassed, one call in this many still looks up the cache.
+     * @see #setBypassBelowHitRatio(double)
+     */
+    public void setBypassSampleEvery(int calls)
+    {
+        if (calls <= 0)
+        {
+            throw new IllegalArgumentException("Sample rate must be positive: " + calls);
+        }
+        this.bypassSampleEvery = calls;
+    }
+
+    /**
+     * Only write a loaded value back to cache once its key has been looked up at least minFrequency times recently.
+     * Lookups are counted in a compact frequency sketch that halves itself over time, so one-off ids, such as those
+     * from bulk exports, are loaded without pushing hotter entries out of the cache.  Refresh-ahead reloads of
+     * entries already in cache are always written.  A minFrequency of 1 or less admits every write, the default.
+     *
+     * @param minFrequency recent lookups of a key before its loaded value is written back.
+     * @param expectedKeys number of distinct keys the sketch is sized for, roughly the number of cached entries.
+     * @see #getRejectedWrites()
+     */
+    public void setAdmissionFrequency(int minFrequency, int expectedKeys)
+    {
+        this.admissionFrequency = minFrequency;
+        this.admissionSketch = minFrequency > 1 ? new CountMinSketch(expectedKeys) : null;
+    }
+
+    /**
+     * @return number of loaded values not written back to cache because their keys were not seen often enough.
+     * @see #setAdmissionFrequency(int, int)
+     */
+    public long getRejectedWrites()
+    {
+        return rejectedWrites.get();
+    }
+
+    /**
+     * @return key prefixes whose template lookups are currently skipped, with the hit ratio of their last window.
+     * @see #setBypassBelowHitRatio(double)
+     */
+    public Map<String, Double> getBypassedKeys()
+    {
+        Map<String, Double> bypassed = new HashMap<>();
+        getBypassed().forEach((site, ratio) ->
+        {
+            if (site instanceof String)
+            {
+                bypassed.put((String) site, ratio);
+            }
+        });
+        return bypassed;
+    }
+
+    /**
+     * Guard the filter's key prefix against ids that don't exist.  Ids the filter rules out are dropped from the
+     * batch before the cache and the loader are called.
+     *
+     * @param membershipFilter filter for one key prefix.
+     * @see MembershipFilter
+     */
+    public void addMembershipFilter(MembershipFilter membershipFilter)
+    {
+        membershipFilters.put(membershipFilter.getPrefix(), membershipFilter);
+        putAspect.addMembershipFilter(membershipFilter);
+    }
+
+    /**
+     * Call a @BatchCacheEvict method and evict what its annotation names, as BatchCacheEvictAspect would.  This is
+     * how subclasses generated by BatchCacheProcessor evict without a proxy.
+     *
+     * @param method  the annotated method.
+     * @param args    arguments of the call.
+     * @param proceed calls the annotated method.
+     * @return the result of the method.
+     * @see BatchCacheEvict
+     */
+    public Object evict(Method method, Object[] args, Callable<?> proceed)
+    {
+        return evictAspect.evict(method, args, proceed);
+    }
+
+    /**
+     * Call a @BatchCachePut method and write what its annotation names, as BatchCachePutAspect would.  This is how
+     * subclasses generated by BatchCacheProcessor write through without a proxy.
+     *
+     * @param method  the annotated method.
+     * @param args    arguments of the call.
+     * @param proceed calls the annotated method.
+     * @return the result of the method.
+     * @see BatchCachePut
+     */
+    public Object put(Method method, Object[] args, Callable<?> proceed)
+    {
+        return putAspect.put(method, args, proceed);
+    }
+
+    /**
+     * Get one value, loading and caching it if it is missing.
+     *
+     * @param options key prefix and settings of the cached values.
+     * @param id      id of the value.
+     * @param loader  loads the value when it is not in cache.  A null result is not cached.
+     * @return the cached or loaded value, or null.
+     */
+    public <K, V> V get(Options options, K id, Function<K, V> loader)
+    {
+        if (id == null)
+        {
+            throw new IllegalArgumentException("Id required for key: " + options.getKey());
+        }
+
+        try
+        {
+            return (V) get(options.toCall(loader), id, ids -> loader.apply(id));
+        }
+        catch (Throwable e)
+        {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Get many values by id.  Ids found in cache are returned as they are, the rest are passed to the loader in
+     * a single call and the values it returns are written back to cache.
+     *
+     * @param key    prefix of the cache keys.
+     * @param ids    ids to look up.
+     * @param loader loads the ids missing from cache, returning their values by id.  Ids left out are not cached.
+     * @return values by id, for every id found in cache or returned by the loader.
+     * @see #getAll(Options, Collection, Function)
+     */
+    public <K, V> Map<K, V> getAll(String key, Collection<K> ids, Function<List<K>, Map<K, V>> loader)
+    {
+        return getAll(new Options(key), ids, loader);
+    }
+
+    /**
+     * Get many values by id.  Ids found in cache are returned as they are, the rest are passed to the loader in
+     * a single call and the values it returns are written back to cache.
+     *
+     * @param options key prefix and settings of the cached values.
+     * @param ids     ids to look up.
+     * @param loader  loads the ids missing from cache, returning their values by id.  Ids left out are not cached.
+     * @return values by id, for every id found in cache or returned by the loader.
+     */
+    public <K, V> Map<K, V> getAll(Options options, Collection<K> ids, Function<List<K>, Map<K, V>> loader)
+    {
+        Map<K, V> results = new LinkedHashMap<>();
+        try
+        {
+            getAll(options.toCall(loader), ids, missing -> loader.apply((List<K>) missing), true, (id, value) -> results.put((K) id, (V) value));
+        }
+        catch (Throwable e)
+        {
+            throw rethrow(e);
+        }
+        return results;
+    }
+
+    /**
+     * Get many values whose cache keys come from a field of the value, like an annotated method that returns a
+     * List.  Ids found in cache are returned first, followed by whatever the loader returns for the rest.
+     *
+     * @param options key prefix and settings of the cached values.  The field names the id of each value.
+     * @param ids     ids to look up.
+     * @param loader  loads the ids missing from cache.  Every value it returns is written back to cache.
+     * @return the cached and loaded values.
+     */
+    public <K, V> List<V> getAllValues(Options options, Collection<K> ids, Function<List<K>, ? extends Collection<V>> loader)
+    {
+        List<V> results = new ArrayList<>();
+        try
+        {
+            getAll(options.toCall(loader), ids, missing -> loader.apply((List<K>) missing), false, (id, value) -> results.add((V) value));
+        }
+        catch (Throwable e)
+        {
+            throw rethrow(e);
+        }
+        return results;
+    }
+
+    Map<Object, Double> getBypassed()
+    {
+        Map<Object, Double> bypassed = new HashMap<>();
+        hitRatios.forEach((site, tracker) ->
+        {
+            if (tracker.isBypassing())
+            {
+                bypassed.put(site, tracker.getLastRatio());
+            }
+        });
+        return bypassed;
+    }
+
+    /**
+     * Get one value, or the single value cached under the bare prefix when id is null.
+     */
+    Object get(Call call, Object id, Loader loader) throws Throwable
+    {
+        String key;
+        if (id == null)
+        {
+            key = keyPrefix(call);
+        }
+        else if (mayExist(call, List.of(id)).isEmpty())
+        {
+            return null;
+        }
+        else
+        {
+            key = BatchCacheAspect.getKey(keyPrefix(call), call.field, id);
+        }
+
+        countAccess(key);
+        CacheEvents.Lookup lookup = new CacheEvents.Lookup();
+        lookup.begin();
+        Object cachedValue = cacheClient.get(key);
+        commit(lookup, call, 1, cachedValue == null ? 0 : 1);
+
+        Object result;
+        if (cachedValue != null)
+        {
+            if (isStale(call, cachedValue))
+            {
+                refreshStale(call, Arrays.asList(call.group, key), Map.of(key, key),
+                        ids -> setObject(call, key, load(call, loader, List.of(key)), true));
+            }
+            result = unwrap(cachedValue);
+        }
+        else
+        {
+            result = setObject(call, key, load(call, loader, List.of(key)), false);
+        }
+
+        if (id != null && result != null)
+        {
+            addMember(call, id);
+        }
+        return result;
+    }
+
+    /**
+     * Get the values cached in pages under the bare prefix, reading every page with one bulk get.  The loader
+     * returns a Collection, Stream or Iterator of values; if the manifest or any page is missing, the whole result
+     * is loaded and written as new pages.
+     */
+    List<Object> getPages(Call call, int pageSize, Loader loader) throws Throwable
+    {
+        String key = keyPrefix(call);
+        PageManifest manifest = getManifest(call, key, pageSize, loader);
+        if (manifest != null)
+        {
+            List<String> pageKeys = manifest.getPageKeys();
+            CacheEvents.Lookup lookup = new CacheEvents.Lookup();
+            lookup.begin();
+            Map<String, Object> pages = cacheClient.get(pageKeys);
+            commit(lookup, call, pageKeys.size(), pages.size());
+
+            if (pages.size() == pageKeys.size())
+            {
+                List<Object> values = new ArrayList<>(manifest.getSize());
+                pageKeys.forEach(pageKey -> values.addAll((List) pages.get(pageKey)));
+                return values;
+            }
+        }
+        return setPages(call, key, pageSize, load(call, loader, List.of(key)), manifest, false);
+    }
+
+    /**
+     * Iterate over the values cached in pages under the bare prefix, reading each page only when the iterator
+     * reaches it.
+     *
+     * @see #getPages(Call, int, Loader)
+     */
+    Iterator<Object> iteratePages(Call call, int pageSize, Loader loader) throws Throwable
+    {
+        String key = keyPrefix(call);
+        PageManifest manifest = getManifest(call, key, pageSize, loader);
+        if (manifest == null)
+        {
+            return setPages(call, key, pageSize, load(call, loader, List.of(key)), null, false).iterator();
+        }
+        return new PageIterator(call, key, pageSize, loader, manifest);
+    }
+
+    private PageManifest getManifest(Call call, String key, int pageSize, Loader loader)
+    {
+        countAccess(key);
+        CacheEvents.Lookup lookup = new CacheEvents.Lookup();
+        lookup.begin();
+        Object cachedValue = cacheClient.get(key);
+        commit(lookup, call, 1, cachedValue == null ? 0 : 1);
+
+        if (!(unwrap(cachedValue) instanceof PageManifest))
+        {
+            return null;
+        }
+
+        PageManifest manifest = (PageManifest) unwrap(cachedValue);
+        if (isStale(call, cachedValue))
+        {
+            refreshStale(call, Arrays.asList(call.group, key), Map.of(key, key),
+                    ids -> setPages(call, key, pageSize, load(call, loader, List.of(key)), manifest, true));
+        }
+        return manifest;
+    }
+
+    private List<Object> setPages(Call call, String key, int pageSize, Object loaded, PageManifest replaced, boolean refresh)
+    {
+        List<Object> values = toList(loaded);
+        if (!refresh && !admit(key))
+        {
+            return values;
+        }
+
+        CacheEvents.WriteBack writeBack = new CacheEvents.WriteBack();
+        writeBack.begin();
+        // Each write gets its own page keys, so readers of the previous manifest never see a mix of both results.
+        PageManifest manifest = new PageManifest(PageManifest.newPagePrefix(key), (values.size() + pageSize - 1) / pageSize, values.size());
+        Map<String, Object> pages = new LinkedHashMap<>();
+        for (int page = 0; page < manifest.getPages(); page++)
+        {
+            int from = page * pageSize;
+            pages.put(manifest.getPageKey(page), new ArrayList<>(values.subList(from, Math.min(from + pageSize, values.size()))));
+        }
+
+        if (!pages.isEmpty())
+        {
+            cacheClient.set(pages);
+        }
+        cacheClient.set(key, wrap(call, manifest));
+        if (replaced != null)
+        {
+            cacheClient.delete(replaced.getPageKeys());
+        }
+        commit(writeBack, call, pages.size() + 1);
+
+        return values;
+    }
+
+    private static List<Object> toList(Object loaded)
+    {
+        if (loaded == null)
+        {
+            return new ArrayList<>();
+        }
+        else if (loaded instanceof Stream)
+        {
+            try (Stream stream = (Stream) loaded)
+            {
+                return (List<Object>) stream.collect(Collectors.toList());
+            }
+        }
+        else if (loaded instanceof Iterator)
+        {
+            List<Object> values = new ArrayList<>();
+            ((Iterator<Object>) loaded).forEachRemaining(values::add);
+            return values;
+        }
+        else if (loaded instanceof Collection)
+        {
+            return new ArrayList<>((Collection<Object>) loaded);
+        }
+        throw new IllegalStateException("Paged results must be a Collection, Stream or Iterator, not " + loaded.getClass().getName());
+    }
+
+    /**
+     * Get many values, handing each one to results as it is found: cached values first, in id order, then loaded
+     * values.  With byId the loader returns a Map of values by id, otherwise a Collection or Stream of values whose
+     * field holds their id, and results is given a null id for loaded values.
+     */
+    void getAll(Call call, Collection<?> ids, Loader loader, boolean byId, BiConsumer<Object, Object> results) throws Throwable
+    {
+        String prefix = keyPrefix(call);
+        ids = mayExist(call, ids);
+        List<String> keys = ids.stream().map(id -> BatchCacheAspect.getKey(prefix, call.field, id)).distinct().collect(Collectors.toList());
+        Set<String> staleKeys = new HashSet<>();
+        Map<String, Object> cachedValues = getCachedValues(call, keys, staleKeys);
+
+        List<Object> missing = new ArrayList<>();
+        Map<String, Object> staleIds = new HashMap<>();
+
+        for (Object id : ids)
+        {
+            String key = BatchCacheAspect.getKey(prefix, call.field, id);
+            if (cachedValues.containsKey(key))
+            {
+                if (cachedValues.get(key) != null)
+                {
+                    results.accept(id, cachedValues.get(key));
+                }
+                if (staleKeys.contains(key))
+                {
+                    staleIds.put(key, id);
+                }
+            }
+            else
+            {
+                missing.add(id);
+            }
+        }
+
+        if (missing.size() > 0)
+        {
+            if (byId)
+            {
+                loadMap(prefix, call, loader, missing, false).forEach(results);
+            }
+            else
+            {
+                loadCollection(prefix, call, loader, missing, false).forEach(value -> results.accept(null, value));
+            }
+        }
+
+        refreshStale(call, call.group, staleIds, stale ->
+        {
+            if (byId)
+            {
+                loadMap(prefix, call, loader, stale, true);
+            }
+            else
+            {
+                loadCollection(prefix, call, loader, stale, true);
+            }
+        });
+    }
+
+    private Object setObject(Call call, String key, Object toAdd, boolean refresh)
+    {
+        if (refresh || admit(key))
+        {
+            CacheEvents.WriteBack writeBack = new CacheEvents.WriteBack();
+            writeBack.begin();
+            // A null value is left unwrapped so it keeps reading back as a miss.
+            cacheClient.set(key, toAdd == null ? null : wrap(call, toAdd));
+            commit(writeBack, call, 1);
+        }
+        return toAdd;
+    }
+
+    private Collection loadCollection(String prefix, Call call, Loader loader, List<Object> missing, boolean refresh) throws Throwable
+    {
+        Object loaded = load(call, loader, missing);
+        Collection toAdd;
+        if (loaded instanceof Stream)
+        {
+            try (Stream stream = (Stream) loaded)
+            {
+                toAdd = (Collection) stream.collect(Collectors.toList());
+            }
+        }
+        else
+        {
+            toAdd = loaded == null ? Collections.emptyList() : (Collection) loaded;
+        }
+
+        CacheEvents.WriteBack writeBack = new CacheEvents.WriteBack();
+        writeBack.begin();
+        int written = 0;
+        for (Object add : toAdd)
+        {
+            String key = valueKey(prefix, call, add);
+            if (refresh || admit(key))
+            {
+                cacheClient.set(key, wrap(call, add));
+                written++;
+            }
+            addMemberKey(call, valueKey(call.key, call, add));
+        }
+        commit(writeBack, call, written);
+
+        return toAdd;
+    }
+
+    private Map<Object, Object> loadMap(String prefix, Call call, Loader loader, List<Object> missing, boolean refresh) throws Throwable
+    {
+        Map<Object, Object> toAdd = (Map<Object, Object>) load(call, loader, missing);
+        if (toAdd == null)
+        {
+            toAdd = Collections.emptyMap();
+        }
+
+        CacheEvents.WriteBack writeBack = new CacheEvents.WriteBack();
+        writeBack.begin();
+        int written = 0;
+        for (Object id : missing)
+        {
+            String key = BatchCacheAspect.getKey(prefix, call.field, id);
+            if (refresh || admit(key))
+            {
+                cacheClient.set(key, wrap(call, toAdd.get(id)));
+                written++;
+            }
+            if (toAdd.get(id) != null)
+            {
+                addMember(call, id);
+            }
+        }
+        commit(writeBack, call, written);
+
+        return toAdd;
+    }
+
+    private static Object load(Call call, Loader loader, List<Object> ids) throws Throwable
+    {
+        CacheEvents.Load event = new CacheEvents.Load();
+        event.begin();
+        try
+        {
+            return loader.load(ids);
+        }
+        finally
+        {
+            if (event.shouldCommit())
+            {
+                event.key = call.key;
+                event.method = call.method.get();
+                event.ids = ids.size();
+                event.commit();
+            }
+        }
+    }
+
+    private static void commit(CacheEvents.Lookup event, Call call, int keys, int hits)
+    {
+        if (event.shouldCommit())
+        {
+            event.key = call.key;
+            event.method = call.method.get();
+            event.keys = keys;
+            event.hits = hits;
+            event.commit();
+        }
+    }
+
+    private static void commit(CacheEvents.WriteBack event, Call call, int entries)
+    {
+        if (event.shouldCommit())
+        {
+            event.key = call.key;
+            event.method = call.method.get();
+            event.entries = entries;
+            event.commit();
+        }
+    }
+
+    private void countAccess(String key)
+    {
+        CountMinSketch sketch = admissionSketch;
+        if (sketch != null)
+        {
+            sketch.increment(key);
+        }
+    }
+
+    private boolean admit(String key)
+    {
+        CountMinSketch sketch = admissionSketch;
+        if (sketch == null || sketch.estimate(key) >= admissionFrequency)
+        {
+            return true;
+        }
+
+        rejectedWrites.incrementAndGet();
+        return false;
+    }
+
+    private Collection<?> mayExist(Call call, Collection<?> ids)
+    {
+        MembershipFilter filter = membershipFilters.get(call.key);
+        if (filter == null)
+        {
+            return ids;
+        }
+
+        List<Object> known = new ArrayList<>();
+        for (Object id : ids)
+        {
+            if (filter.mightContainKey(BatchCacheAspect.getKey(call.key, call.field, id)))
+            {
+                known.add(id);
+            }
+        }
+        return known;
+    }
+
+    private void addMember(Call call, Object id)
+    {
+        MembershipFilter filter = membershipFilters.get(call.key);
+        if (filter != null)
+        {
+            filter.addKey(BatchCacheAspect.getKey(call.key, call.field, id));
+        }
+    }
+
+    private void addMemberKey(Call call, String key)
+    {
+        MembershipFilter filter = membershipFilters.get(call.key);
+        if (filter != null)
+        {
+            filter.addKey(key);
+        }
+    }
+
+    private static String valueKey(String prefix, Call call, Object value)
+    {
+        return call.valueId == null ? BatchCacheAspect.getKey(prefix, call.field, value) : BatchCacheAspect.getKey(prefix, null, call.valueId.apply(value));
+    }
+
+    private Map<String, Object> getCachedValues(Call call, List<String> keys, Set<String> staleKeys)
+    {
+        if (keys.isEmpty())
+        {
+            return new HashMap<>();
+        }
+        keys.forEach(this::countAccess);
+
+        double threshold = bypassBelowHitRatio;
+        HitRatioTracker tracker = null;
+        if (threshold > 0)
+        {
+            tracker = hitRatios.computeIfAbsent(call.site, site -> new HitRatioTracker());
+            if (!tracker.shouldLookup(bypassSampleEvery))
+            {
+                return new HashMap<>();
+            }
+        }
+
+        CacheEvents.Lookup lookup = new CacheEvents.Lookup();
+        lookup.begin();
+        Map<String, Object> cachedValues = cacheClient.get(keys);
+        commit(lookup, call, keys.size(), cachedValues.size());
+        if (tracker != null)
+        {
+            tracker.record(keys.size(), cachedValues.size(), threshold);
+        }
+
+        // Entries are unwrapped even when refresh is off, since another method or a put on the same prefix may
+        // have written them with a write time.
+        Map<String, Object> values = new HashMap<>();
+        cachedValues.forEach((key, cachedValue) ->
+        {
+            if (isStale(call, cachedValue))
+            {
+                staleKeys.add(key);
+            }
+            values.put(key, unwrap(cachedValue));
+        });
+        return values;
+    }
+
+    private static Object wrap(Call call, Object value)
+    {
+        return call.refreshAfterMillis > 0 ? new CacheEntry(value, System.currentTimeMillis()) : value;
+    }
+
+    private static Object unwrap(Object cachedValue)
+    {
+        return cachedValue instanceof CacheEntry ? ((CacheEntry) cachedValue).getValue() : cachedValue;
+    }
+
+    private static boolean isStale(Call call, Object cachedValue)
+    {
+        if (call.refreshAfterMillis <= 0)
+        {
+            return false;
+        }
+
+        // Values written before refresh-ahead was turned on carry no write time, so they are refreshed right away.
+        return !(cachedValue instanceof CacheEntry) ||
+                ((CacheEntry) cachedValue).getWriteTime() < System.currentTimeMillis() - call.refreshAfterMillis;
+    }
+
+    private void refreshStale(Call call, Object group, Map<String, Object> staleIds, Refresh refresh)
+    {
+        if (staleIds.isEmpty())
+        {
+            return;
+        }
+
+        refreshAheadLoader.refresh(group, staleIds, ids ->
+        {
+            try
+            {
+                refresh.load(ids);
+            }
+            catch (Throwable e)
+            {
+                throw new IllegalStateException("Refresh-ahead failed for key " + call.key, e);
+            }
+        });
+    }
+
+    private String keyPrefix(Call call)
+    {
+        return schemas.apply(call.key, call.generational ? generations.currentPrefix(call.key) : call.key);
+    }
+
+    private static RuntimeException rethrow(Throwable e)
+    {
+        if (e instanceof Error)
+        {
+            throw (Error) e;
+        }
+        return e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e);
+    }
+
+    /**
+     * Reads the pages of a paged result one at a time.  If a page has gone missing part way through, the whole
+     * result is loaded and written as new pages, and iteration carries on from the same position in the loaded
+     * values.
+     */
+    private class PageIterator implements Iterator<Object>
+    {
+        private final Call call;
+        private final String key;
+        private final int pageSize;
+        private final Loader loader;
+        private final PageManifest manifest;
+        private Iterator<Object> current = Collections.emptyIterator();
+        private int page;
+        private int position;
+        private boolean reloaded;
+
+        PageIterator(Call call, String key, int pageSize, Loader loader, PageManifest manifest)
+        {
+            this.call = call;
+            this.key = key;
+            this.pageSize = pageSize;
+            this.loader = loader;
+            this.manifest = manifest;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (!current.hasNext())
+            {
+                if (reloaded || page >= manifest.getPages())
+                {
+                    return false;
+                }
+                nextPage();
+            }
+            return true;
+        }
+
+        @Override
+        public Object next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            position++;
+            return current.next();
+        }
+
+        private void nextPage()
+        {
+            CacheEvents.Lookup lookup = new CacheEvents.Lookup();
+            lookup.begin();
+            Object values = cacheClient.get(manifest.getPageKey(page++));
+            commit(lookup, call, 1, values == null ? 0 : 1);
+
+            if (values != null)
+            {
+                current = ((List<Object>) values).iterator();
+                return;
+            }
+
+            try
+            {
+                List<Object> loaded = setPages(call, key, pageSize, load(call, loader, List.of(key)), manifest, false);
+                current = loaded.subList(Math.min(position, loaded.size()), loaded.size()).iterator();
+                reloaded = true;
+            }
+            catch (Throwable e)
+            {
+                throw rethrow(e);
+            }
+        }
+    }
+
+    /**
+     * Loads ids missing from cache.  The result is a single value, a Collection or Stream of values, or a Map of
+     * values by id, depending on the lookup.
+     */
+    interface Loader
+    {
+        Object load(List<Object> ids) throws Throwable;
+    }
+
+    private interface Refresh
+    {
+        void load(List<Object> ids) throws Throwable;
+    }
+
+    /**
+     * Settings of one lookup, taken from a BatchCache annotation or from Options.
+     */
+    static final class Call
+    {
+        private final String key;
+        private final String field;
+        private final long refreshAfterMillis;
+        private final boolean generational;
+        private final Object site;
+        private final Supplier<String> method;
+        private final Object group;
+        private final Function<Object, Object> valueId;
+
+        /**
+         * @param site    Identifies lookups that share a hit ratio.
+         * @param method  Names the caller in flight recorder events.
+         * @param group   Identifies lookups whose refresh-ahead loads can share a batch.
+         * @param valueId Reads the id of a loaded value, or null to read the field by reflection.
+         */
+        Call(String key, String field, long refreshAfterMillis, boolean generational, Object site, Supplier<String> method, Object group, Function<Object, Object> valueId)
+        {
+            this.key = key;
+            this.field = field;
+            this.refreshAfterMillis = refreshAfterMillis;
+            this.generational = generational;
+            this.site = site;
+            this.method = method;
+            this.group = group;
+            this.valueId = valueId;
+        }
+    }
+
+    /**
+     * Options holds the key prefix of template lookups and the settings a BatchCache annotation would otherwise
+     * carry.
+     *
+     * @see BatchCache
+     */
+    public static class Options
+    {
+        private final String key;
+        private String field = "id";
+        private long refreshAfterMillis;
+        private boolean generational;
+        private Function<Object, Object> valueId;
+
+        /**
+         * @param key prefix of the cache keys.  Can not be null.
+         * @see BatchCache#key()
+         */
+        public Options(String key)
+        {
+            if (key == null || key.isEmpty())
+            {
+                throw new IllegalArgumentException("Valid key required for Caching");
+            }
+            this.key = key;
+        }
+
+        public String getKey()
+        {
+            return key;
+        }
+
+        public String getField()
+        {
+            return field;
+        }
+
+        /**
+         * @param field field of an id or value that holds its id, "id" by default.
+         * @see BatchCache#field()
+         */
+        public void setField(String field)
+        {
+            this.field = field;
+        }
+
+        public long getRefreshAfterMillis()
+        {
+            return refreshAfterMillis;
+        }
+
+        /**
+         * @param refreshAfterMillis age in milliseconds after which a cached value is refreshed in the background.
+         * @see BatchCache#refreshAfterMillis()
+         */
+        public void setRefreshAfterMillis(long refreshAfterMillis)
+        {
+            this.refreshAfterMillis = refreshAfterMillis;
+        }
+
+        public boolean isGenerational()
+        {
+            return generational;
+        }
+
+        /**
+         * @param generational true if keys for this prefix are generation-versioned.
+         * @see BatchCache#generational()
+         */
+        public void setGenerational(boolean generational)
+        {
+            this.generational = generational;
+        }
+
+        /**
+         * Read the id of loaded values with this function instead of looking up the field by reflection.  Used
+         * by classes generated by BatchCacheProcessor.
+         *
+         * @param valueId returns the id of a value returned by a getAllValues loader.
+         * @see #getAllValues(Options, Collection, Function)
+         */
+        public <V> void setValueId(Function<V, ?> valueId)
+        {
+            this.valueId = (Function<Object, Object>) valueId;
+        }
+
+        private Call toCall(Object loader)
+        {
+            // Refreshes are only batched with lookups that use the same loader, since the loader does the reload.
+            return new Call(key, field, refreshAfterMillis, generational, key, () -> loader.getClass().getName(), Arrays.asList(key, loader), valueId);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * BatchCacheValidation holds the checks the aspects run when asked to validate annotated classes at startup.
+ * They catch the configurations that would otherwise only fail on the first call, and resolve key accessors so
+ * the first call doesn't pay for the reflection.
+ *
+ * @author Matt Giacomini
+ * @see BatchCacheAspect#validate(Class[])
+ * @see BatchCacheEvictAspect#validate(Class[])
+ */
+final class BatchCacheValidation
+{
+    private BatchCacheValidation()
+    {
+    }
+
+    /**
+     * @return methods declared on type or its superclasses that carry the annotation.
+     */
+    static List<Method> annotatedMethods(Class<?> type, Class<? extends Annotation> annotation)
+    {
+        List<Method> methods = new ArrayList<>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass())
+        {
+            for (Method method : current.getDeclaredMethods())
+            {
+                if (!method.isBridge() && !method.isSynthetic() && method.isAnnotationPresent(annotation))
+                {
+                    methods.add(method);
+                }
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * @return methods with the same signature as method on the interfaces of type.  Proxies report these in place
+     * of the annotated method.
+     */
+    static List<Method> interfaceMethods(Class<?> type, Method method)
+    {
+        List<Method> methods = new ArrayList<>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass())
+        {
+            for (Class<?> anInterface : current.getInterfaces())
+            {
+                try
+                {
+                    methods.add(anInterface.getMethod(method.getName(), method.getParameterTypes()));
+                }
+                catch (NoSuchMethodException e)
+                {
+                    // Not part of this interface
+                }
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * Check that ids or values of the given type can be turned into cache keys, and resolve their accessor.
+     *
+     * @return a description of the problem, or null if the type is fine or can't be known until run time.
+     */
+    static String checkKeyType(Type type, String field)
+    {
+        Class<?> keyType = rawType(type);
+        if (keyType == null || keyType == Object.class || keyType.isInterface() || Modifier.isAbstract(keyType.getModifiers()) || KeyCodecs.supports(keyType))
+        {
+            return null;
+        }
+        if (keyType.isPrimitive() || keyType.isArray())
+        {
+            return "no key encoding for type " + keyType.getName();
+        }
+        if (field == null || field.isEmpty())
+        {
+            return "type " + keyType.getName() + " has no KeyCodec and no field is set";
+        }
+
+        try
+        {
+            Class<?> fieldType = BatchCacheAspect.accessor(keyType, field).getReturnType();
+            if (fieldType.isPrimitive() ? fieldType != int.class && fieldType != long.class : checkKeyType(fieldType, null) != null)
+            {
+                return "field '" + field + "' of " + keyType.getName() + " is a " + fieldType.getName() + ", which has no key encoding";
+            }
+            return null;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return "type " + keyType.getName() + " has no KeyCodec and no accessor for field '" + field + "'";
+        }
+    }
+
+    /**
+     * @return the element type of an array, or the first type argument of a parameterized type, or null.
+     */
+    static Type elementType(Type type)
+    {
+        if (type instanceof Class && ((Class<?>) type).isArray())
+        {
+            return ((Class<?>) type).getComponentType();
+        }
+        if (type instanceof GenericArrayType)
+        {
+            return ((GenericArrayType) type).getGenericComponentType();
+        }
+        if (type instanceof ParameterizedType)
+        {
+            return ((ParameterizedType) type).getActualTypeArguments()[0];
+        }
+        return null;
+    }
+
+    static void failOnProblems(List<String> problems)
+    {
+        if (!problems.isEmpty())
+        {
+            throw new IllegalStateException("Invalid cache annotations:\n  " + String.join("\n  ", problems));
+        }
+    }
+
+    private static Class<?> rawType(Type type)
+    {
+        if (type instanceof Class)
+        {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType)
+        {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        return null;
+    }
+}
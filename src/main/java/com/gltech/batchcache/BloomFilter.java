@@ -0,0 +1,192 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * BloomFilter is a thread safe, scalable Bloom filter over String keys.
+ *
+ * <p>It starts with one layer sized for the expected number of keys.  When a layer is full a new layer is added
+ * with twice the capacity and half the false positive rate, so the overall false positive rate stays below twice
+ * the requested rate no matter how many keys are added.
+ *
+ * @author Matt Giacomini
+ * @see MembershipFilter
+ */
+class BloomFilter
+{
+    private final List<Layer> layers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param expectedKeys      Number of keys the first layer is sized for.
+     * @param falsePositiveRate Target false positive rate of the first layer.
+     */
+    BloomFilter(long expectedKeys, double falsePositiveRate)
+    {
+        if (expectedKeys <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1)
+        {
+            throw new IllegalArgumentException("Expected keys must be positive and false positive rate between 0 and 1");
+        }
+
+        layers.add(new Layer(expectedKeys, falsePositiveRate));
+    }
+
+    /**
+     * @param key key to test.
+     * @return false if the key was definitely never added, true if it probably was.
+     */
+    boolean mightContain(String key)
+    {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        return mightContain(hash1, hash2);
+    }
+
+    /**
+     * Add a key.  A key that already tests as present is skipped, so that keys added over and over don't use up the
+     * capacity of the last layer and grow the filter.
+     *
+     * @param key key to add.
+     */
+    void put(String key)
+    {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        if (mightContain(hash1, hash2))
+        {
+            return;
+        }
+
+        Layer layer = layers.get(layers.size() - 1);
+        if (layer.count.get() >= layer.capacity)
+        {
+            synchronized (layers)
+            {
+                layer = layers.get(layers.size() - 1);
+                if (layer.count.get() >= layer.capacity)
+                {
+                    layer = new Layer(layer.capacity * 2, layer.falsePositiveRate / 2);
+                    layers.add(layer);
+                }
+            }
+        }
+
+        layer.put(hash1, hash2);
+    }
+
+    /**
+     * @return number of layers the filter has grown to.
+     */
+    int getLayerCount()
+    {
+        return layers.size();
+    }
+
+    private boolean mightContain(long hash1, long hash2)
+    {
+        for (Layer layer : layers)
+        {
+            if (layer.mightContain(hash1, hash2))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static long hash(String key)
+    {
+        // FNV-1a over the chars, finished with a mixer so the low bits are well distributed
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++)
+        {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    static long mix(long value)
+    {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    static private class Layer
+    {
+        private final long capacity;
+        private final double falsePositiveRate;
+        private final long bitCount;
+        private final int hashCount;
+        private final AtomicLongArray bits;
+        private final AtomicLong count = new AtomicLong();
+
+        Layer(long capacity, double falsePositiveRate)
+        {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+
+            long optimalBits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, (Math.max(64, optimalBits) + 63) / 64));
+            this.bitCount = (long) bits.length() * 64;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+        }
+
+        boolean mightContain(long hash1, long hash2)
+        {
+            for (int i = 0; i < hashCount; i++)
+            {
+                long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(long hash1, long hash2)
+        {
+            for (int i = 0; i < hashCount; i++)
+            {
+                long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+
+                long current = bits.get(index);
+                while ((current & mask) == 0 && !bits.compareAndSet(index, current, current | mask))
+                {
+                    current = bits.get(index);
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+}
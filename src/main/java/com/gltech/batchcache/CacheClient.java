@@ -24,6 +24,7 @@
 
 package com.gltech.batchcache;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -32,6 +33,9 @@ import java.util.Map;
  * In practical terms you will need to create a small class that acts as the bridge
  * between BatchCache and your favorite cache provider.
  *
+ * <p>Values are opaque to the client.  Some features, such as refresh-ahead, store a CacheEntry
+ * envelope instead of the bare value, so a client must return exactly what it was given.
+ *
  * @author Matt Giacomini
  */
 public interface CacheClient
@@ -69,10 +73,38 @@ public interface CacheClient
      */
     Map<String, Object> get(List<String> keys);
 
+    /**
+     * Replace a value only if the key still holds the value read earlier, as a compare-and-set.  BatchCache uses
+     * this to patch entries in place; when it returns false the entry is deleted instead, so a concurrent change is
+     * never overwritten.  Override it for caches with check-and-set, such as memcached's cas or a Redis WATCH
+     * transaction.  The default replaces nothing, so patched entries are always deleted.
+     *
+     * @param key      key of the value.
+     * @param expected value returned by an earlier get of the key.
+     * @param value    new value.
+     * @return true if the value was replaced, false if it changed or was removed since expected was read.
+     */
+    default boolean replace(String key, Object expected, Object value)
+    {
+        return false;
+    }
+
     /**
      * Remove a value from cache
      *
      * @param key key of object to be removed from cache.
      */
     void delete(String key);
+
+    /**
+     * Remove multiple values from cache.
+     * For performance sake, try to use a cache provider that allows
+     * bulk deletes.
+     *
+     * @param keys keys of objects to be removed from cache.
+     */
+    default void delete(Collection<String> keys)
+    {
+        keys.forEach(this::delete);
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.io.Serializable;
+
+/**
+ * CacheEntry is the envelope BatchCacheAspect stores in place of a bare value when a feature needs to know more
+ * about the value than the value itself, such as when it was written for refresh-ahead.
+ *
+ * <p>CacheClient implementations do not need to know about CacheEntry, they only need to store and return it like
+ * any other value.
+ *
+ * @author Matt Giacomini
+ * @see BatchCache#refreshAfterMillis()
+ */
+public class CacheEntry implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final Object value;
+    private final long writeTime;
+
+    public CacheEntry()
+    {
+        this.value = null;
+        this.writeTime = 0;
+    }
+
+    /**
+     * @param value     the cached value.
+     * @param writeTime time the value was loaded, in milliseconds since the epoch.
+     */
+    public CacheEntry(Object value, long writeTime)
+    {
+        this.value = value;
+        this.writeTime = writeTime;
+    }
+
+    /**
+     * @return the cached value.
+     */
+    public Object getValue()
+    {
+        return value;
+    }
+
+    /**
+     * @return time the value was loaded, in milliseconds since the epoch.
+     */
+    public long getWriteTime()
+    {
+        return writeTime;
+    }
+}
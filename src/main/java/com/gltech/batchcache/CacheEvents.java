@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import jdk.jfr.*;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+
+/**
+ * CacheEvents holds the Java Flight Recorder events emitted by the aspects.  Every event is disabled by default,
+ * so an idle event costs one enabled check.  Turn them on in a JFR settings file or on the command line:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording:com.gltech.batchcache.Lookup#enabled=true,com.gltech.batchcache.Load#enabled=true ...
+ * </pre>
+ *
+ * <p>Each event carries the annotation key and the annotated method, and its duration covers the work it names.
+ *
+ * @author Matt Giacomini
+ */
+final class CacheEvents
+{
+    private CacheEvents()
+    {
+    }
+
+    static String method(ProceedingJoinPoint joinPoint)
+    {
+        java.lang.reflect.Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return method.getDeclaringClass().getName() + "." + method.getName();
+    }
+
+    @Name("com.gltech.batchcache.Lookup")
+    @Label("Cache Lookup")
+    @Category("BatchCache")
+    @Description("Cache get for one call, single or bulk")
+    @Enabled(false)
+    static class Lookup extends Event
+    {
+        @Label("Key")
+        String key;
+
+        @Label("Method")
+        String method;
+
+        @Label("Keys")
+        int keys;
+
+        @Label("Hits")
+        int hits;
+    }
+
+    @Name("com.gltech.batchcache.Load")
+    @Label("Cache Load")
+    @Category("BatchCache")
+    @Description("Call to the annotated method for ids missing from cache")
+    @Enabled(false)
+    static class Load extends Event
+    {
+        @Label("Key")
+        String key;
+
+        @Label("Method")
+        String method;
+
+        @Label("Ids Requested")
+        int ids;
+    }
+
+    @Name("com.gltech.batchcache.WriteBack")
+    @Label("Cache Write-Back")
+    @Category("BatchCache")
+    @Description("Loaded or put values written to cache")
+    @Enabled(false)
+    static class WriteBack extends Event
+    {
+        @Label("Key")
+        String key;
+
+        @Label("Method")
+        String method;
+
+        @Label("Entries")
+        int entries;
+    }
+
+    @Name("com.gltech.batchcache.Evict")
+    @Label("Cache Evict")
+    @Category("BatchCache")
+    @Description("Keys deleted from cache, or namespaces bumped to a new generation")
+    @Enabled(false)
+    static class Evict extends Event
+    {
+        @Label("Key")
+        String key;
+
+        @Label("Method")
+        String method;
+
+        @Label("Keys")
+        int keys;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+/**
+ * This interface defines how cache clients that store raw bytes turn values into bytes and back again.
+ * In practical terms you will need to create a small class that acts as the bridge between a
+ * byte oriented CacheClient, such as MappedFileCacheClient, and your favorite serialization library.
+ *
+ * @author Matt Giacomini
+ * @see MappedFileCacheClient
+ */
+public interface CacheSerializer
+{
+    /**
+     * Turn a value into bytes so it can be stored.
+     *
+     * @param value Object to be serialized.  May be null.
+     * @return the serialized form of the value.
+     */
+    byte[] serialize(Object value);
+
+    /**
+     * Turn previously serialized bytes back into a value.
+     *
+     * @param bytes bytes produced by serialize.
+     * @return the deserialized value.
+     */
+    Object deserialize(byte[] bytes);
+}
@@ -0,0 +1,272 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * CacheWarmer fills the cache before traffic arrives by calling a @BatchCache annotated batch method with chunks of
+ * ids.  Because the calls go through the normal BatchCacheAspect miss path, ids are loaded and cached exactly the
+ * way they would be for a regular caller, and ids that are already cached cost nothing more than a lookup.
+ *
+ * <p>The batch method is provided as a Consumer so any signature can be adapted, for example:
+ * <pre>
+ * new CacheWarmer&lt;Long&gt;(ids -&gt; companyDAO.getCompanies(ids.stream().mapToLong(Long::longValue).toArray()), 500, 5000)
+ * </pre>
+ *
+ * <p>Chunks are issued one at a time and paced so that no more than maxIdsPerSecond ids are requested per second.
+ * Progress and throughput can be read while warming is in progress, so a readiness probe can wait for a target
+ * fill ratio with awaitFillRatio.
+ *
+ * @param <T> Type of the ids passed to the batch method.
+ * @author Matt Giacomini
+ * @see BatchCacheAspect
+ */
+public class CacheWarmer<T>
+{
+    private final Consumer<List<T>> batchMethod;
+    private final int chunkSize;
+    private final double maxIdsPerSecond;
+    private final AtomicLong processed = new AtomicLong();
+    private final Object monitor = new Object();
+    private volatile long total;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile boolean running;
+    private volatile boolean complete;
+
+    /**
+     * Create a warmer for a batch method.
+     *
+     * @param batchMethod     Calls the proxied @BatchCache method with a chunk of ids.
+     * @param chunkSize       Number of ids passed to each call of the batch method.
+     * @param maxIdsPerSecond Upper bound on the rate ids are requested at.  Zero or less means no limit.
+     */
+    public CacheWarmer(Consumer<List<T>> batchMethod, int chunkSize, double maxIdsPerSecond)
+    {
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Chunk size must be greater than zero");
+        }
+
+        this.batchMethod = batchMethod;
+        this.chunkSize = chunkSize;
+        this.maxIdsPerSecond = maxIdsPerSecond;
+    }
+
+    /**
+     * Warm the cache with every id in the collection, blocking until all chunks have been loaded.
+     *
+     * @param ids ids to be loaded into cache.
+     */
+    public void warm(Collection<T> ids)
+    {
+        warm(ids.iterator(), ids.size());
+    }
+
+    /**
+     * Warm the cache with every id from the iterator, blocking until all chunks have been loaded.
+     *
+     * @param ids      ids to be loaded into cache.
+     * @param expected Number of ids the iterator is expected to return, used to report the fill ratio.
+     */
+    public void warm(Iterator<T> ids, long expected)
+    {
+        start(expected);
+
+        try
+        {
+            List<T> chunk = new ArrayList<>(chunkSize);
+            while (ids.hasNext())
+            {
+                chunk.add(ids.next());
+                if (chunk.size() == chunkSize || !ids.hasNext())
+                {
+                    batchMethod.accept(chunk);
+                    processed.addAndGet(chunk.size());
+                    chunk = new ArrayList<>(chunkSize);
+                    pace();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            finish();
+        }
+    }
+
+    /**
+     * Warm the cache in the background.
+     *
+     * @param ids      ids to be loaded into cache.
+     * @param executor Executor that runs the warm up.
+     * @return a future that completes when all chunks have been loaded, or exceptionally if a chunk failed.
+     */
+    public CompletableFuture<Void> warmAsync(Collection<T> ids, Executor executor)
+    {
+        return CompletableFuture.runAsync(() -> warm(ids), executor);
+    }
+
+    /**
+     * Wait until the given share of the expected ids has been loaded, or warming has finished.
+     *
+     * @param fillRatio Share of the expected ids (0 to 1) to wait for.
+     * @param timeout   Maximum time to wait.
+     * @param unit      Unit of the timeout.
+     * @return true if the fill ratio was reached, false if the timeout expired or warming finished short of it.
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    public boolean awaitFillRatio(double fillRatio, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        synchronized (monitor)
+        {
+            while (getFillRatio() < fillRatio)
+            {
+                long remaining = deadline - System.nanoTime();
+                if (complete || remaining <= 0)
+                {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(monitor, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return number of ids that have been passed to the batch method so far.
+     */
+    public long getProcessed()
+    {
+        return processed.get();
+    }
+
+    /**
+     * @return number of ids expected for the current (or last) warm up.
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * @return share of the expected ids loaded so far, 1 if no ids were expected.
+     */
+    public double getFillRatio()
+    {
+        return total <= 0 ? (complete ? 1 : 0) : Math.min(1, (double) processed.get() / total);
+    }
+
+    /**
+     * @return ids loaded per second since warming started.
+     */
+    public double getThroughput()
+    {
+        if (startNanos == 0)
+        {
+            return 0;
+        }
+
+        long elapsed = (running ? System.nanoTime() : endNanos) - startNanos;
+        return elapsed <= 0 ? 0 : processed.get() / (elapsed / 1_000_000_000d);
+    }
+
+    /**
+     * @return true while a warm up is in progress.
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * @return true once a warm up has finished, whether or not every chunk succeeded.
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    private void start(long expected)
+    {
+        synchronized (monitor)
+        {
+            if (running)
+            {
+                throw new IllegalStateException("Cache warm up is already running");
+            }
+
+            processed.set(0);
+            total = expected;
+            startNanos = System.nanoTime();
+            endNanos = 0;
+            complete = false;
+            running = true;
+        }
+    }
+
+    private void pace() throws InterruptedException
+    {
+        synchronized (monitor)
+        {
+            monitor.notifyAll();
+        }
+
+        if (maxIdsPerSecond > 0)
+        {
+            long due = startNanos + (long) (processed.get() / maxIdsPerSecond * 1_000_000_000d);
+            long wait = due - System.nanoTime();
+            if (wait > 0)
+            {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    private void finish()
+    {
+        synchronized (monitor)
+        {
+            endNanos = System.nanoTime();
+            running = false;
+            complete = true;
+            monitor.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CountMinSketch is a thread safe, fixed size frequency estimator over String keys.
+ *
+ * <p>Each key increments one counter in each of four rows and its frequency is estimated as the smallest of those
+ * counters, so estimates can run high but never low.  After a sample of increments ten times the width, every
+ * counter is halved so the estimates follow recent traffic instead of all traffic ever seen.
+ *
+ * @author Matt Giacomini
+ * @see HotKeyCacheClient
+ * @see BatchCacheAspect#setAdmissionFrequency(int, int)
+ */
+class CountMinSketch
+{
+    private static final int DEPTH = 4;
+
+    private final int width;
+    private final long sampleSize;
+    private final AtomicIntegerArray counters;
+    private final AtomicLong additions = new AtomicLong();
+
+    /**
+     * @param width Counters per row, rounded up to a power of two.
+     */
+    CountMinSketch(int width)
+    {
+        if (width <= 0)
+        {
+            throw new IllegalArgumentException("Width must be positive");
+        }
+
+        this.width = Integer.highestOneBit(Math.min(width, 1 << 28) * 2 - 1);
+        this.sampleSize = 10L * this.width;
+        this.counters = new AtomicIntegerArray(DEPTH * this.width);
+    }
+
+    /**
+     * Count one more occurrence of the key.
+     *
+     * @param key key that was seen.
+     * @return estimated frequency of the key, including this occurrence.
+     */
+    int increment(String key)
+    {
+        long hash1 = BloomFilter.hash(key);
+        long hash2 = BloomFilter.mix(hash1 ^ 0x9E3779B97F4A7C15L);
+
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++)
+        {
+            int index = index(row, hash1, hash2);
+            int count = counters.get(index);
+            while (count < Integer.MAX_VALUE && !counters.compareAndSet(index, count, count + 1))
+            {
+                count = counters.get(index);
+            }
+            estimate = Math.min(estimate, count < Integer.MAX_VALUE ? count + 1 : count);
+        }
+
+        if (additions.incrementAndGet() >= sampleSize)
+        {
+            age();
+        }
+        return estimate;
+    }
+
+    /**
+     * @param key key to look up.
+     * @return estimated frequency of the key.
+     */
+    int estimate(String key)
+    {
+        long hash1 = BloomFilter.hash(key);
+        long hash2 = BloomFilter.mix(hash1 ^ 0x9E3779B97F4A7C15L);
+
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++)
+        {
+            estimate = Math.min(estimate, counters.get(index(row, hash1, hash2)));
+        }
+        return estimate;
+    }
+
+    private int index(int row, long hash1, long hash2)
+    {
+        return row * width + (int) ((hash1 + row * hash2) & (width - 1));
+    }
+
+    private synchronized void age()
+    {
+        if (additions.get() < sampleSize)
+        {
+            return;
+        }
+
+        for (int i = 0; i < counters.length(); i++)
+        {
+            int count = counters.get(i);
+            while (!counters.compareAndSet(i, count, count >>> 1))
+            {
+                count = counters.get(i);
+            }
+        }
+        additions.set(0);
+    }
+}
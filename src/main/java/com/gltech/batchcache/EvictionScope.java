@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.*;
+
+/**
+ * EvictionScope defers the deletes issued by BatchCacheEvictAspect on the current thread until the scope is closed,
+ * and then sends every distinct key in a single bulk delete per CacheClient.  This turns thousands of single deletes
+ * from a batch job, many of them for the same key, into one round trip.
+ *
+ * <p>Scopes are meant to be used with try-with-resources, so the buffered keys are flushed even if the unit of work
+ * fails:
+ * <pre>
+ * try (EvictionScope scope = EvictionScope.open())
+ * {
+ *     ids.forEach(companyDAO::delete);
+ * }
+ * </pre>
+ *
+ * <p>A scope can also be tied to a transaction by opening it when the transaction begins and closing it from a
+ * transaction synchronization's afterCompletion callback, which runs on the same thread.
+ *
+ * <p>Opening a scope while one is already open on the thread joins the outer scope; only closing the outermost
+ * scope flushes.  Keys are not deleted until the scope closes, so reads inside the scope can still see entries that
+ * were evicted earlier in it.  Generation bumps of generational namespaces are never deferred.
+ *
+ * @author Matt Giacomini
+ * @see BatchCacheEvictAspect
+ */
+public class EvictionScope implements AutoCloseable
+{
+    private static final ThreadLocal<EvictionScope> CURRENT = new ThreadLocal<>();
+
+    private final EvictionScope outer;
+    private final Map<CacheClient, Set<String>> keys;
+    private boolean closed;
+
+    private EvictionScope(EvictionScope outer)
+    {
+        this.outer = outer;
+        this.keys = outer == null ? new LinkedHashMap<>() : outer.keys;
+    }
+
+    /**
+     * Open a scope on the current thread, or join the scope that is already open.
+     *
+     * @return the scope, to be closed when the unit of work ends.
+     */
+    public static EvictionScope open()
+    {
+        EvictionScope scope = new EvictionScope(CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * @return true if a scope is open on the current thread.
+     */
+    public static boolean isActive()
+    {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * Buffer keys in the scope open on the current thread, if there is one.
+     *
+     * @param cacheClient CacheClient the keys are to be deleted from.
+     * @param toDelete    keys to be deleted.
+     * @return true if the keys were buffered, false if no scope is open and the caller must delete them itself.
+     */
+    static boolean defer(CacheClient cacheClient, Collection<String> toDelete)
+    {
+        EvictionScope scope = CURRENT.get();
+        if (scope == null)
+        {
+            return false;
+        }
+
+        scope.keys.computeIfAbsent(cacheClient, client -> new LinkedHashSet<>()).addAll(toDelete);
+        return true;
+    }
+
+    /**
+     * Close the scope.  Closing the outermost scope sends one bulk delete per CacheClient for all buffered keys.
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+
+        if (outer != null)
+        {
+            CURRENT.set(outer);
+            return;
+        }
+
+        CURRENT.remove();
+
+        RuntimeException failure = null;
+        for (Map.Entry<CacheClient, Set<String>> entry : keys.entrySet())
+        {
+            try
+            {
+                entry.getKey().delete(entry.getValue());
+            }
+            catch (RuntimeException e)
+            {
+                if (failure == null)
+                {
+                    failure = e;
+                }
+                else
+                {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        keys.clear();
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+}
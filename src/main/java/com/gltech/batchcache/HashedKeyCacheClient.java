@@ -0,0 +1,239 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * HashedKeyCacheClient is a CacheClient decorator that shortens long keys to a fixed length before they reach the
+ * wrapped client.
+ *
+ * <p>Keys longer than minLength are replaced by a 128 bit Murmur3 hash written as 22 characters of URL safe base64.
+ * In ID mode only the part after the first '-' is hashed, so keys keep their readable prefix; in KEY mode the whole
+ * key is hashed.  Shorter keys are passed through unchanged.
+ *
+ * <p>A 128 bit hash makes collisions very unlikely, not impossible.  With verify on, each value is stored together
+ * with its original key and a read whose stored key doesn't match is treated as a miss.  This costs the original key
+ * in value space, so it trades some of the savings for certainty.
+ *
+ * <pre>
+ * CacheClient cacheClient = new HashedKeyCacheClient(new MyCacheClient(), HashedKeyCacheClient.Mode.ID, 40, true);
+ * BatchCacheAspect batchCacheAspect = new BatchCacheAspect(cacheClient);
+ * </pre>
+ *
+ * @author Matt Giacomini
+ * @see CacheClient
+ */
+public class HashedKeyCacheClient implements CacheClient
+{
+    /**
+     * Which part of a key is replaced by its hash.
+     */
+    public enum Mode
+    {
+        /**
+         * Hash the part of the key after the first '-', keeping the prefix.
+         */
+        ID,
+        /**
+         * Hash the whole key.
+         */
+        KEY
+    }
+
+    private final CacheClient cacheClient;
+    private final Mode mode;
+    private final int minLength;
+    private final boolean verify;
+
+    /**
+     * @param cacheClient CacheClient to wrap.
+     * @param mode        Which part of a key is hashed.
+     * @param minLength   Keys this long or shorter are passed through unchanged.
+     * @param verify      Store the original key with each value and check it on read.
+     */
+    public HashedKeyCacheClient(CacheClient cacheClient, Mode mode, int minLength, boolean verify)
+    {
+        if (minLength < 0)
+        {
+            throw new IllegalArgumentException("Min length can not be negative");
+        }
+
+        this.cacheClient = cacheClient;
+        this.mode = Objects.requireNonNull(mode);
+        this.minLength = minLength;
+        this.verify = verify;
+    }
+
+    @Override
+    public void set(String key, Object value)
+    {
+        cacheClient.set(hashKey(key), wrap(key, value));
+    }
+
+    @Override
+    public void set(Map<String, Object> objectMap)
+    {
+        Map<String, Object> hashedMap = new HashMap<>();
+        objectMap.forEach((key, value) -> hashedMap.put(hashKey(key), wrap(key, value)));
+        cacheClient.set(hashedMap);
+    }
+
+    @Override
+    public Object get(String key)
+    {
+        return unwrap(key, cacheClient.get(hashKey(key)));
+    }
+
+    @Override
+    public Map<String, Object> get(List<String> keys)
+    {
+        Map<String, String> originalKeys = new HashMap<>();
+        for (String key : keys)
+        {
+            originalKeys.put(hashKey(key), key);
+        }
+
+        Map<String, Object> results = new HashMap<>();
+        cacheClient.get(new ArrayList<>(originalKeys.keySet())).forEach((hashedKey, value) ->
+        {
+            String key = originalKeys.get(hashedKey);
+            Object unwrapped = unwrap(key, value);
+            if (unwrapped != null || value == null)
+            {
+                results.put(key, unwrapped);
+            }
+        });
+        return results;
+    }
+
+    @Override
+    public boolean replace(String key, Object expected, Object value)
+    {
+        return cacheClient.replace(hashKey(key), wrap(key, expected), wrap(key, value));
+    }
+
+    @Override
+    public void delete(String key)
+    {
+        cacheClient.delete(hashKey(key));
+    }
+
+    @Override
+    public void delete(Collection<String> keys)
+    {
+        List<String> hashedKeys = new ArrayList<>(keys.size());
+        keys.forEach(key -> hashedKeys.add(hashKey(key)));
+        cacheClient.delete(hashedKeys);
+    }
+
+    /**
+     * @param key key as built by the aspects.
+     * @return the key sent to the wrapped client.
+     */
+    public String hashKey(String key)
+    {
+        if (key.length() <= minLength)
+        {
+            return key;
+        }
+
+        int separator = key.indexOf('-');
+        if (mode == Mode.ID && separator >= 0)
+        {
+            return key.substring(0, separator + 1) + hash(key.substring(separator + 1));
+        }
+        return hash(key);
+    }
+
+    private static String hash(String value)
+    {
+        long[] hash = Murmur3.hash128(value.getBytes(StandardCharsets.UTF_8), 0);
+        byte[] bytes = ByteBuffer.allocate(16).putLong(hash[0]).putLong(hash[1]).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private Object wrap(String key, Object value)
+    {
+        return verify && value != null ? new KeyedValue(key, value) : value;
+    }
+
+    private Object unwrap(String key, Object value)
+    {
+        if (!verify || !(value instanceof KeyedValue))
+        {
+            return value;
+        }
+
+        KeyedValue keyedValue = (KeyedValue) value;
+        return key.equals(keyedValue.getKey()) ? keyedValue.getValue() : null;
+    }
+
+    /**
+     * Envelope holding a value together with the key it was written under, used when verify is on.
+     */
+    public static class KeyedValue implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final Object value;
+
+        public KeyedValue()
+        {
+            this.key = null;
+            this.value = null;
+        }
+
+        /**
+         * @param key   original, unhashed key.
+         * @param value the cached value.
+         */
+        public KeyedValue(String key, Object value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * @return original, unhashed key.
+         */
+        public String getKey()
+        {
+            return key;
+        }
+
+        /**
+         * @return the cached value.
+         */
+        public Object getValue()
+        {
+            return value;
+        }
+    }
+}
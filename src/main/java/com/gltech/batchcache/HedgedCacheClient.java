@@ -0,0 +1,308 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * HedgedCacheClient is a CacheClient decorator that cuts tail latency on reads by sending a second, hedged read
+ * when the first one is slow.
+ *
+ * <p>Gets are sent to the primary client.  If the answer hasn't arrived after the hedge delay, the same get is sent
+ * to the hedge client, which can be a replica or the primary again, and whichever answers first is returned.  The
+ * hedge delay follows the given percentile of recent primary latencies and never drops below minDelayMillis.
+ *
+ * <p>Hedges are capped at maxHedgeRatio of requests with a token bucket, so a slow cache is not hit with twice the
+ * load.  Sets, replaces and deletes only go to the primary client.
+ *
+ * <pre>
+ * CacheClient cacheClient = new HedgedCacheClient(primary, replica, 0.95, 2, 0.05);
+ * BatchCacheAspect batchCacheAspect = new BatchCacheAspect(cacheClient);
+ * </pre>
+ *
+ * @author Matt Giacomini
+ * @see CacheClient
+ */
+public class HedgedCacheClient implements CacheClient
+{
+    static final int SAMPLES = 1024;
+    private static final int RECOMPUTE_EVERY = 128;
+    private static final double MAX_TOKENS = 10;
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable ->
+    {
+        Thread thread = new Thread(runnable, "batchcache-hedged");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CacheClient primary;
+    private final CacheClient hedge;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final double maxHedgeRatio;
+    private volatile ExecutorService executor = DEFAULT_EXECUTOR;
+
+    private final long[] latencies = new long[SAMPLES];
+    private long sampleCount;
+    private volatile long delayNanos;
+    private double tokens = MAX_TOKENS;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * @param primary        CacheClient that gets, sets and deletes are sent to.
+     * @param hedge          CacheClient hedged gets are sent to.  May be the primary.
+     * @param percentile     Percentile of recent primary get latency after which a get is hedged, such as 0.95.
+     * @param minDelayMillis Shortest hedge delay, also used until enough latencies are recorded.
+     * @param maxHedgeRatio  Largest share of gets that are hedged, such as 0.05.
+     */
+    public HedgedCacheClient(CacheClient primary, CacheClient hedge, double percentile, long minDelayMillis, double maxHedgeRatio)
+    {
+        if (percentile <= 0 || percentile >= 1 || maxHedgeRatio <= 0 || maxHedgeRatio > 1 || minDelayMillis < 0)
+        {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1, max hedge ratio between 0 and 1 and min delay not negative");
+        }
+
+        this.primary = primary;
+        this.hedge = hedge;
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.delayNanos = minDelayNanos;
+    }
+
+    /**
+     * @param executor Runs the primary and hedged gets.  Defaults to a shared pool of daemon threads.
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void set(String key, Object value)
+    {
+        primary.set(key, value);
+    }
+
+    @Override
+    public void set(Map<String, Object> objectMap)
+    {
+        primary.set(objectMap);
+    }
+
+    @Override
+    public Object get(String key)
+    {
+        return hedged(() -> primary.get(key), () -> hedge.get(key));
+    }
+
+    @Override
+    public Map<String, Object> get(List<String> keys)
+    {
+        return hedged(() -> primary.get(keys), () -> hedge.get(keys));
+    }
+
+    @Override
+    public boolean replace(String key, Object expected, Object value)
+    {
+        return primary.replace(key, expected, value);
+    }
+
+    @Override
+    public void delete(String key)
+    {
+        primary.delete(key);
+    }
+
+    @Override
+    public void delete(Collection<String> keys)
+    {
+        primary.delete(keys);
+    }
+
+    /**
+     * @return number of gets.
+     */
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    /**
+     * @return number of gets that sent a hedged read.
+     */
+    public long getHedges()
+    {
+        return hedges.get();
+    }
+
+    /**
+     * @return number of hedged reads that answered before the primary.
+     */
+    public long getHedgeWins()
+    {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return current hedge delay in milliseconds.
+     */
+    public double getHedgeDelayMillis()
+    {
+        return delayNanos / 1_000_000.0;
+    }
+
+    private <T> T hedged(Supplier<T> primaryCall, Supplier<T> hedgeCall)
+    {
+        requests.incrementAndGet();
+        addToken();
+
+        long start = System.nanoTime();
+        CompletableFuture<T> primaryFuture = CompletableFuture.supplyAsync(primaryCall, executor);
+        primaryFuture.whenComplete((result, e) ->
+        {
+            if (e == null)
+            {
+                record(System.nanoTime() - start);
+            }
+        });
+
+        try
+        {
+            return primaryFuture.get(delayNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            if (!takeToken())
+            {
+                return join(primaryFuture);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for cache", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw unwrap(e.getCause());
+        }
+
+        hedges.incrementAndGet();
+        CompletableFuture<T> hedgeFuture = CompletableFuture.supplyAsync(hedgeCall, executor);
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicBoolean answered = new AtomicBoolean();
+
+        primaryFuture.whenComplete((result, e) -> complete(first, answered, result, e, hedgeFuture, false));
+        hedgeFuture.whenComplete((result, e) -> complete(first, answered, result, e, primaryFuture, true));
+
+        return join(first);
+    }
+
+    private <T> void complete(CompletableFuture<T> first, AtomicBoolean answered, T result, Throwable e, CompletableFuture<T> other, boolean isHedge)
+    {
+        if (e == null)
+        {
+            if (answered.compareAndSet(false, true))
+            {
+                if (isHedge)
+                {
+                    hedgeWins.incrementAndGet();
+                }
+                first.complete(result);
+            }
+        }
+        else if (other.isCompletedExceptionally())
+        {
+            // Only fail once both reads have failed
+            first.completeExceptionally(e);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause)
+    {
+        if (cause instanceof CompletionException && cause.getCause() != null)
+        {
+            cause = cause.getCause();
+        }
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException("Cache get failed", cause);
+    }
+
+    private synchronized void addToken()
+    {
+        tokens = Math.min(MAX_TOKENS, tokens + maxHedgeRatio);
+    }
+
+    private synchronized boolean takeToken()
+    {
+        if (tokens >= 1)
+        {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    private void record(long nanos)
+    {
+        long[] snapshot = null;
+        synchronized (latencies)
+        {
+            latencies[(int) (sampleCount % SAMPLES)] = nanos;
+            sampleCount++;
+            if (sampleCount >= RECOMPUTE_EVERY && sampleCount % RECOMPUTE_EVERY == 0)
+            {
+                snapshot = Arrays.copyOf(latencies, (int) Math.min(sampleCount, SAMPLES));
+            }
+        }
+
+        if (snapshot != null)
+        {
+            Arrays.sort(snapshot);
+            long percentileNanos = snapshot[Math.min(snapshot.length - 1, (int) (snapshot.length * percentile))];
+            delayNanos = Math.max(minDelayNanos, percentileNanos);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HitRatioTracker keeps the cache hit ratio of one batch method over windows of lookups, and decides when the
+ * method's cache lookups are skipped.
+ *
+ * <p>Once a full window ends below the threshold, lookups are skipped except for one call in sampleEvery, which
+ * keeps measuring the ratio.  When a window of sampled lookups ends at or above the threshold, lookups resume.
+ *
+ * @author Matt Giacomini
+ * @see BatchCacheAspect#setBypassBelowHitRatio(double)
+ */
+class HitRatioTracker
+{
+    static final int WINDOW_KEYS = 1000;
+
+    private final AtomicLong calls = new AtomicLong();
+    private long windowKeys;
+    private long windowHits;
+    private volatile boolean bypassing;
+    private volatile double lastRatio = 1;
+
+    /**
+     * @param sampleEvery While bypassing, one call in this many still looks up the cache.
+     * @return true if this call should look up the cache.
+     */
+    boolean shouldLookup(int sampleEvery)
+    {
+        return !bypassing || calls.incrementAndGet() % sampleEvery == 0;
+    }
+
+    /**
+     * Record the outcome of one lookup, and re-evaluate bypassing at the end of each window.
+     *
+     * @param keys      keys looked up.
+     * @param hits      keys found.
+     * @param threshold hit ratio below which lookups are skipped.
+     */
+    synchronized void record(int keys, int hits, double threshold)
+    {
+        windowKeys += keys;
+        windowHits += hits;
+
+        if (windowKeys >= WINDOW_KEYS)
+        {
+            lastRatio = (double) windowHits / windowKeys;
+            bypassing = lastRatio < threshold;
+            windowKeys = 0;
+            windowHits = 0;
+        }
+    }
+
+    /**
+     * @return true while lookups are being skipped.
+     */
+    boolean isBypassing()
+    {
+        return bypassing;
+    }
+
+    /**
+     * @return hit ratio of the last full window.
+     */
+    double getLastRatio()
+    {
+        return lastRatio;
+    }
+}
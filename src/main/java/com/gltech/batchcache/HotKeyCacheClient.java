@@ -0,0 +1,324 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+/**
+ * HotKeyCacheClient is a CacheClient decorator that keeps the most requested keys in process.
+ *
+ * <p>Every key read through it is counted in a compact frequency sketch.  Once a key has been read at least
+ * hotThreshold times within the sketch's recent window, its value is pinned in a small local map for pinMillis.
+ * Reads of a pinned key are answered from that map without calling the wrapped client, so they skip the remote
+ * round trip and the deserialization.  Sets and deletes made through this client update or drop the pin right
+ * away, and a read that overlaps one of them is not pinned; changes made by other processes are seen once the pin
+ * expires.
+ *
+ * <p>Pinned values are shared between callers, so they must not be modified.
+ *
+ * <pre>
+ * CacheClient cacheClient = new HotKeyCacheClient(new MyCacheClient(), 100, 1000, 50);
+ * BatchCacheAspect batchCacheAspect = new BatchCacheAspect(cacheClient);
+ * </pre>
+ *
+ * @author Matt Giacomini
+ * @see CacheClient
+ */
+public class HotKeyCacheClient implements CacheClient
+{
+    private static final int EPOCH_STRIPES = 1024;
+
+    private final CacheClient cacheClient;
+    private final int maxPinned;
+    private final long pinMillis;
+    private final int hotThreshold;
+    private final CountMinSketch sketch;
+    private final Map<String, Pin> pinned = new ConcurrentHashMap<>();
+    // Bumped by every write of a key, by stripe, so a read that overlaps a write doesn't pin the value it replaced.
+    private final AtomicLongArray epochs = new AtomicLongArray(EPOCH_STRIPES);
+    private final AtomicLong pinnedHits = new AtomicLong();
+
+    /**
+     * @param cacheClient  CacheClient to wrap.
+     * @param maxPinned    Most keys pinned in process at any time.
+     * @param pinMillis    How long a pinned value is served before it is read from cacheClient again.
+     * @param hotThreshold Recent reads after which a key is pinned.
+     */
+    public HotKeyCacheClient(CacheClient cacheClient, int maxPinned, long pinMillis, int hotThreshold)
+    {
+        if (maxPinned <= 0 || pinMillis <= 0 || hotThreshold <= 0)
+        {
+            throw new IllegalArgumentException("Max pinned, pin millis and hot threshold must be positive");
+        }
+
+        this.cacheClient = cacheClient;
+        this.maxPinned = maxPinned;
+        this.pinMillis = pinMillis;
+        this.hotThreshold = hotThreshold;
+        this.sketch = new CountMinSketch(Math.max(1024, maxPinned * 64));
+    }
+
+    @Override
+    public void set(String key, Object value)
+    {
+        cacheClient.set(key, value);
+        bump(key);
+        repin(key, value);
+    }
+
+    @Override
+    public void set(Map<String, Object> objectMap)
+    {
+        cacheClient.set(objectMap);
+        objectMap.keySet().forEach(this::bump);
+        objectMap.forEach(this::repin);
+    }
+
+    @Override
+    public boolean replace(String key, Object expected, Object value)
+    {
+        boolean replaced = cacheClient.replace(key, expected, value);
+        bump(key);
+        if (replaced)
+        {
+            repin(key, value);
+        }
+        else
+        {
+            pinned.remove(key);
+        }
+        return replaced;
+    }
+
+    @Override
+    public Object get(String key)
+    {
+        int frequency = sketch.increment(key);
+
+        Object value = getPinned(key);
+        if (value != null)
+        {
+            return value;
+        }
+
+        long epoch = epoch(key);
+        value = cacheClient.get(key);
+        pin(key, value, frequency, epoch);
+        return value;
+    }
+
+    @Override
+    public Map<String, Object> get(List<String> keys)
+    {
+        Map<String, Object> results = new HashMap<>();
+        Map<String, Integer> frequencies = new HashMap<>();
+        Map<String, Long> keyEpochs = new HashMap<>();
+        List<String> remoteKeys = new ArrayList<>();
+
+        for (String key : keys)
+        {
+            int frequency = sketch.increment(key);
+
+            Object value = getPinned(key);
+            if (value != null)
+            {
+                results.put(key, value);
+            }
+            else
+            {
+                frequencies.put(key, frequency);
+                keyEpochs.put(key, epoch(key));
+                remoteKeys.add(key);
+            }
+        }
+
+        if (!remoteKeys.isEmpty())
+        {
+            Map<String, Object> remote = cacheClient.get(remoteKeys);
+            remote.forEach((key, value) -> pin(key, value, frequencies.get(key), keyEpochs.get(key)));
+            results.putAll(remote);
+        }
+
+        return results;
+    }
+
+    @Override
+    public void delete(String key)
+    {
+        pinned.remove(key);
+        cacheClient.delete(key);
+        unpin(key);
+    }
+
+    @Override
+    public void delete(Collection<String> keys)
+    {
+        keys.forEach(pinned::remove);
+        cacheClient.delete(keys);
+        keys.forEach(this::unpin);
+    }
+
+    /**
+     * @return keys currently pinned in process, hottest first, with their estimated recent read counts.
+     */
+    public Map<String, Integer> getHotKeys()
+    {
+        long now = System.currentTimeMillis();
+        return pinned.entrySet().stream()
+                .filter(entry -> entry.getValue().expiresAt > now)
+                .map(entry -> Map.entry(entry.getKey(), sketch.estimate(entry.getKey())))
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    /**
+     * @return number of reads answered from pinned values without calling the wrapped client.
+     */
+    public long getPinnedHits()
+    {
+        return pinnedHits.get();
+    }
+
+    private Object getPinned(String key)
+    {
+        Pin pin = pinned.get(key);
+        if (pin == null)
+        {
+            return null;
+        }
+
+        if (pin.expiresAt <= System.currentTimeMillis())
+        {
+            pinned.remove(key, pin);
+            return null;
+        }
+
+        pinnedHits.incrementAndGet();
+        return pin.value;
+    }
+
+    /**
+     * Pin a value read from the wrapped client, unless the key was written since the read began.
+     */
+    private void pin(String key, Object value, int frequency, long epoch)
+    {
+        if (value == null || frequency < hotThreshold || epoch(key) != epoch)
+        {
+            return;
+        }
+
+        if (pinned.size() >= maxPinned && !pinned.containsKey(key) && !makeRoom(frequency))
+        {
+            return;
+        }
+
+        Pin pin = new Pin(value, System.currentTimeMillis() + pinMillis);
+        pinned.put(key, pin);
+        // A write between the check and the put has already unpinned the key, so take this pin back out.
+        if (epoch(key) != epoch)
+        {
+            pinned.remove(key, pin);
+        }
+    }
+
+    private void unpin(String key)
+    {
+        bump(key);
+        pinned.remove(key);
+    }
+
+    private long epoch(String key)
+    {
+        return epochs.get(stripe(key));
+    }
+
+    private void bump(String key)
+    {
+        epochs.incrementAndGet(stripe(key));
+    }
+
+    private static int stripe(String key)
+    {
+        return (key.hashCode() & Integer.MAX_VALUE) % EPOCH_STRIPES;
+    }
+
+    private void repin(String key, Object value)
+    {
+        if (value == null)
+        {
+            pinned.remove(key);
+        }
+        else
+        {
+            pinned.computeIfPresent(key, (k, pin) -> new Pin(value, pin.expiresAt));
+        }
+    }
+
+    private synchronized boolean makeRoom(int frequency)
+    {
+        // Drop expired pins first, then the coldest pin if the new key is hotter than it
+        long now = System.currentTimeMillis();
+        pinned.entrySet().removeIf(entry -> entry.getValue().expiresAt <= now);
+        if (pinned.size() < maxPinned)
+        {
+            return true;
+        }
+
+        String coldest = null;
+        int coldestFrequency = Integer.MAX_VALUE;
+        for (String key : pinned.keySet())
+        {
+            int estimate = sketch.estimate(key);
+            if (estimate < coldestFrequency)
+            {
+                coldest = key;
+                coldestFrequency = estimate;
+            }
+        }
+
+        if (coldest != null && coldestFrequency < frequency)
+        {
+            pinned.remove(coldest);
+            return true;
+        }
+        return false;
+    }
+
+    static private class Pin
+    {
+        private final Object value;
+        private final long expiresAt;
+
+        Pin(Object value, long expiresAt)
+        {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+
+/**
+ * One call of an annotated write method, made either through an AspectJ join point or by a subclass generated by
+ * BatchCacheProcessor, so the evict and put aspects run the same code for both.
+ *
+ * @author Matt Giacomini
+ * @see BatchCacheEvictAspect
+ * @see BatchCachePutAspect
+ */
+final class Invocation
+{
+    private final Method method;
+    private final Class<?> targetType;
+    private final Object[] args;
+    private final Proceed proceed;
+
+    private interface Proceed
+    {
+        Object proceed() throws Throwable;
+    }
+
+    private Invocation(Method method, Class<?> targetType, Object[] args, Proceed proceed)
+    {
+        this.method = method;
+        this.targetType = targetType;
+        this.args = args;
+        this.proceed = proceed;
+    }
+
+    static Invocation of(ProceedingJoinPoint joinPoint)
+    {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Class<?> targetType = joinPoint.getTarget() != null ? joinPoint.getTarget().getClass() : method.getDeclaringClass();
+        return new Invocation(method, targetType, joinPoint.getArgs(), joinPoint::proceed);
+    }
+
+    static Invocation of(Method method, Object[] args, Callable<?> proceed)
+    {
+        return new Invocation(method, method.getDeclaringClass(), args, proceed::call);
+    }
+
+    Object proceed() throws Throwable
+    {
+        return proceed.proceed();
+    }
+
+    Object[] getArgs()
+    {
+        return args;
+    }
+
+    Method getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * @return the class of the object the method was called on, which may be a subclass of the method's class.
+     */
+    Class<?> getTargetType()
+    {
+        return targetType;
+    }
+
+    /**
+     * @return the method's class and name, for cache events.
+     */
+    String getName()
+    {
+        return method.getDeclaringClass().getName() + "." + method.getName();
+    }
+
+    /**
+     * Rethrow what a method threw from a generated subclass, which can't declare checked exceptions.
+     */
+    static RuntimeException rethrow(Throwable e)
+    {
+        if (e instanceof Error)
+        {
+            throw (Error) e;
+        }
+        return e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+/**
+ * KeyCodec turns an id of one type into the id part of a cache key.  Register codecs with KeyCodecs so that
+ * BatchCache, BatchCacheEvict and BatchCachePut accept ids, and id fields, of that type.
+ *
+ * <p>Encodings should be compact, since every key is stored and sent over the network, and must be stable across
+ * restarts and across every process sharing the cache.
+ *
+ * @param <T> type of id encoded.
+ * @author Matt Giacomini
+ * @see KeyCodecs
+ */
+@FunctionalInterface
+public interface KeyCodec<T>
+{
+    /**
+     * @param id id to encode, never null.
+     * @return the id part of the cache key.
+     */
+    String encode(T id);
+}
@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * KeyCodecs is the registry of KeyCodec implementations used to build cache keys, along with the built-in codecs.
+ *
+ * <p>Integer, Long, String and Date ids are always encoded as before.  UUID ids are encoded as 22 character URL safe
+ * base64 and enum ids by name, unless other codecs are registered for them.  Codecs are found by the id's class,
+ * then its superclasses, then its interfaces.
+ *
+ * <pre>
+ * KeyCodecs.register(Status.class, KeyCodecs.enumOrdinal());
+ * KeyCodecs.register(OrderLineId.class, KeyCodecs.composite());
+ * </pre>
+ *
+ * @author Matt Giacomini
+ * @see KeyCodec
+ */
+public final class KeyCodecs
+{
+    private static final Map<Class<?>, KeyCodec<?>> codecs = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Optional<KeyCodec<?>>> resolved = new ConcurrentHashMap<>();
+
+    static
+    {
+        codecs.put(UUID.class, uuidBase64());
+        codecs.put(Enum.class, enumName());
+    }
+
+    private KeyCodecs()
+    {
+    }
+
+    /**
+     * Encode ids of the given type, and its subtypes, with the codec.  Replaces any codec already registered for
+     * the type.  Register codecs at startup, before keys are built, since changing a codec changes the keys.
+     *
+     * @param type  type of id.
+     * @param codec codec for the type.
+     * @param <T>   type of id.
+     */
+    public static <T> void register(Class<T> type, KeyCodec<? super T> codec)
+    {
+        codecs.put(Objects.requireNonNull(type), Objects.requireNonNull(codec));
+        resolved.clear();
+    }
+
+    /**
+     * @param type type of id to stop encoding with a registered codec.
+     */
+    public static void unregister(Class<?> type)
+    {
+        codecs.remove(type);
+        resolved.clear();
+    }
+
+    /**
+     * @return codec writing a UUID as 22 characters of URL safe base64 without padding.
+     */
+    public static KeyCodec<UUID> uuidBase64()
+    {
+        return id -> Base64.getUrlEncoder().withoutPadding().encodeToString(uuidBytes(id));
+    }
+
+    /**
+     * @return codec writing a UUID as its 16 raw bytes, one ISO-8859-1 character per byte.  Only use it with a
+     * cache whose keys are binary safe and encoded as ISO-8859-1.
+     */
+    public static KeyCodec<UUID> uuidRaw()
+    {
+        return id -> new String(uuidBytes(id), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return codec writing an enum constant by name.  Names survive reordering the constants.
+     */
+    public static KeyCodec<Enum<?>> enumName()
+    {
+        return Enum::name;
+    }
+
+    /**
+     * @return codec writing an enum constant by ordinal.  Shorter than the name, but keys change if the constants
+     * are reordered.
+     */
+    public static KeyCodec<Enum<?>> enumOrdinal()
+    {
+        return id -> Integer.toString(id.ordinal());
+    }
+
+    /**
+     * @return codec writing a record as its components in order, each encoded like an id and separated by ':'.
+     * Every component must be an id type with an encoding.  '\' and ':' inside a component are escaped with '\',
+     * and a null component is written as "\0", so distinct records never share a key.
+     */
+    public static KeyCodec<Record> composite()
+    {
+        return id ->
+        {
+            StringJoiner joiner = new StringJoiner(":");
+            for (var component : id.getClass().getRecordComponents())
+            {
+                try
+                {
+                    Object value = component.getAccessor().invoke(id);
+                    if (value == null)
+                    {
+                        joiner.add("\\0");
+                        continue;
+                    }
+                    String encoded = encode(value);
+                    if (encoded == null)
+                    {
+                        throw new IllegalStateException("No key encoding for component " + component.getName() + " of type " + value.getClass().getName());
+                    }
+                    joiner.add(encoded.replace("\\", "\\\\").replace(":", "\\:"));
+                }
+                catch (ReflectiveOperationException e)
+                {
+                    throw new IllegalStateException("Could not read component " + component.getName() + " of " + id.getClass().getName(), e);
+                }
+            }
+            return joiner.toString();
+        };
+    }
+
+    /**
+     * @param id id to encode.
+     * @return the id part of the cache key, or null if the id's type has no encoding.
+     */
+    @SuppressWarnings("unchecked")
+    static String encode(Object id)
+    {
+        if (id instanceof Integer || id instanceof Long || id instanceof String)
+        {
+            return id.toString();
+        }
+        if (id instanceof Date)
+        {
+            return Long.toString(((Date) id).getTime());
+        }
+
+        Optional<KeyCodec<?>> codec = resolved.computeIfAbsent(id.getClass(), KeyCodecs::find);
+        return codec.map(keyCodec -> ((KeyCodec<Object>) keyCodec).encode(id)).orElse(null);
+    }
+
+    /**
+     * @return true if ids of this type are encoded by a built in encoding or a registered KeyCodec.
+     */
+    static boolean supports(Class<?> type)
+    {
+        if (type == int.class || type == long.class || type == Integer.class || type == Long.class || type == String.class || Date.class.isAssignableFrom(type))
+        {
+            return true;
+        }
+        return resolved.computeIfAbsent(type, KeyCodecs::find).isPresent();
+    }
+
+    private static Optional<KeyCodec<?>> find(Class<?> type)
+    {
+        for (Class<?> current = type; current != null; current = current.getSuperclass())
+        {
+            if (codecs.containsKey(current))
+            {
+                return Optional.of(codecs.get(current));
+            }
+        }
+
+        for (Class<?> current = type; current != null; current = current.getSuperclass())
+        {
+            for (Class<?> anInterface : current.getInterfaces())
+            {
+                if (codecs.containsKey(anInterface))
+                {
+                    return Optional.of(codecs.get(anInterface));
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    private static byte[] uuidBytes(UUID id)
+    {
+        return ByteBuffer.allocate(16).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).array();
+    }
+}
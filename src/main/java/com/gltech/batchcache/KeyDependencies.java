@@ -0,0 +1,230 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * KeyDependencies is the registry of entries derived from other entries, so an eviction of one key prefix also
+ * evicts everything built from it, without every BatchCacheEvict having to list the derived prefixes by hand.
+ *
+ * <p>A dependent ending in "-{id}" is keyed by the same id as the prefix it depends on; any other dependent is a
+ * single key, such as the result of a method with no arguments.  Dependencies are followed transitively.
+ *
+ * <pre>
+ * KeyDependencies dependencies = KeyDependencies.forClient(cacheClient);
+ * dependencies.register("company", "company-summary-{id}", "all-companies");
+ * dependencies.register("company-summary", "dashboard");
+ * dependencies.setGenerational("company-summary", true);
+ * </pre>
+ *
+ * <p>With these, an eviction of "company" id 42 deletes company-42, company-summary-42, all-companies and dashboard
+ * in one bulk delete.  Each eviction works out the closure of its key once and reuses it, so register dependencies
+ * at startup, before the first eviction.  The prefixes named in an eviction are keyed with its generational setting;
+ * dependents are keyed with their own, which is off unless set here to match their BatchCache annotations.  A single
+ * key that is an aggregateOf an evicted prefix is patched or evicted by the aggregate rules instead.
+ *
+ * <p>Like NamespaceGenerations, the evict aspects share one instance per CacheClient, so different caches can
+ * declare different dependencies.
+ *
+ * @author Matt Giacomini
+ * @see BatchCacheEvict#key()
+ * @see BatchCache#aggregateOf()
+ */
+public final class KeyDependencies
+{
+    static final String ID_SUFFIX = "-{id}";
+
+    private static final Map<CacheClient, KeyDependencies> INSTANCES = new WeakHashMap<>();
+
+    private final Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+    private final Set<String> generational = ConcurrentHashMap.newKeySet();
+    private final Map<String, Closure> resolved = new ConcurrentHashMap<>();
+
+    private KeyDependencies()
+    {
+    }
+
+    /**
+     * Get the dependencies shared by everything that uses the provided CacheClient.
+     *
+     * @param cacheClient CacheClient the dependent entries are stored in.
+     * @return the shared KeyDependencies for the client.
+     */
+    public static KeyDependencies forClient(CacheClient cacheClient)
+    {
+        synchronized (INSTANCES)
+        {
+            return INSTANCES.computeIfAbsent(cacheClient, client -> new KeyDependencies());
+        }
+    }
+
+    /**
+     * Declare entries that are derived from the entries under a key prefix.  Adds to any dependents already
+     * registered for the prefix.
+     *
+     * @param prefix     key prefix, as used in the annotations.
+     * @param dependents key prefixes ending in "-{id}" for entries keyed by the same id, or single keys.
+     */
+    public void register(String prefix, String... dependents)
+    {
+        if (prefix == null || prefix.isEmpty())
+        {
+            throw new IllegalArgumentException("Valid key prefix required for dependencies");
+        }
+        for (String dependent : dependents)
+        {
+            if (dependent == null || dependent.isEmpty() || dependent.equals(ID_SUFFIX))
+            {
+                throw new IllegalArgumentException("Invalid dependent of " + prefix + ": " + dependent);
+            }
+        }
+
+        this.dependents.computeIfAbsent(prefix, key -> ConcurrentHashMap.newKeySet()).addAll(Arrays.asList(dependents));
+        resolved.clear();
+    }
+
+    /**
+     * @param prefix key prefix whose dependents are forgotten.
+     */
+    public void unregister(String prefix)
+    {
+        dependents.remove(prefix);
+        resolved.clear();
+    }
+
+    /**
+     * Key a dependent prefix, or single key, in its generation-versioned namespace when it is evicted as a
+     * dependent.  Use the same setting as the BatchCache annotations that read it.
+     *
+     * @param prefix       key prefix or single key, without "-{id}".
+     * @param generational true if its keys are generation-versioned.
+     * @see NamespaceGenerations
+     */
+    public void setGenerational(String prefix, boolean generational)
+    {
+        if (generational)
+        {
+            this.generational.add(prefix);
+        }
+        else
+        {
+            this.generational.remove(prefix);
+        }
+        resolved.clear();
+    }
+
+    /**
+     * @param key key attribute of an annotation, one or more comma separated prefixes.
+     * @return the prefixes of the key and every entry that depends on them, worked out once per key.
+     */
+    Closure closure(String key)
+    {
+        return resolved.computeIfAbsent(key, this::resolve);
+    }
+
+    private Closure resolve(String key)
+    {
+        List<String> named = Arrays.asList(key.replaceAll("\\s", "").split(","));
+        Set<String> prefixes = new LinkedHashSet<>();
+        Set<String> keys = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>(named);
+        while (!pending.isEmpty())
+        {
+            String prefix = pending.poll();
+            if (!prefixes.add(prefix))
+            {
+                continue;
+            }
+
+            for (String dependent : dependents.getOrDefault(prefix, Set.of()))
+            {
+                if (dependent.endsWith(ID_SUFFIX))
+                {
+                    pending.add(dependent.substring(0, dependent.length() - ID_SUFFIX.length()));
+                }
+                else
+                {
+                    addKey(dependent, keys);
+                }
+            }
+        }
+
+        Set<String> generationalDependents = new HashSet<>();
+        prefixes.stream().filter(prefix -> !named.contains(prefix) && generational.contains(prefix)).forEach(generationalDependents::add);
+        keys.stream().filter(generational::contains).forEach(generationalDependents::add);
+        return new Closure(Set.copyOf(named), List.copyOf(prefixes), List.copyOf(keys), generationalDependents);
+    }
+
+    private void addKey(String key, Set<String> keys)
+    {
+        // A single key has no id to pass on, so only its single key dependents follow it.
+        if (keys.add(key))
+        {
+            dependents.getOrDefault(key, Set.of()).stream().filter(next -> !next.endsWith(ID_SUFFIX)).forEach(next -> addKey(next, keys));
+        }
+    }
+
+    /**
+     * The prefixes evicted by id, starting with those named in the annotation, and the single keys evicted whole.
+     */
+    static final class Closure
+    {
+        private final Set<String> named;
+        private final List<String> prefixes;
+        private final List<String> keys;
+        private final Set<String> generational;
+
+        Closure(Set<String> named, List<String> prefixes, List<String> keys, Set<String> generational)
+        {
+            this.named = named;
+            this.prefixes = prefixes;
+            this.keys = keys;
+            this.generational = generational;
+        }
+
+        List<String> getPrefixes()
+        {
+            return prefixes;
+        }
+
+        List<String> getKeys()
+        {
+            return keys;
+        }
+
+        /**
+         * @param prefix               prefix or single key of the closure.
+         * @param evictionGenerational generational setting of the eviction.
+         * @return true if keys of the prefix are generation-versioned: the eviction's setting for the prefixes it
+         * names, the registered setting for dependents.
+         */
+        boolean isGenerational(String prefix, boolean evictionGenerational)
+        {
+            return named.contains(prefix) ? evictionGenerational : generational.contains(prefix);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * KeySchemas folds a schema version into the keys of a key prefix, so a change to the shape of the cached class
+ * moves its entries to new keys instead of reading back entries written by the old class.  After a deploy each
+ * entry misses once and is loaded and written under the new version, so there is no need to flush the cache;
+ * entries under the old version are never read again and age out of the cache.
+ *
+ * <pre>
+ * KeySchemas schemas = KeySchemas.forClient(cacheClient);
+ * schemas.register("company", Company.class);   // keys like company~3k9x0f2c1ab-42
+ * schemas.register("order", "7");                // keys like order~7-1001
+ * </pre>
+ *
+ * <p>A class fingerprint covers the names and types of its serializable fields, its superclasses' fields and those
+ * of the application classes they refer to, and the constants of enums.  It changes when a field is added,
+ * removed, renamed or retyped, but not when only methods change.  Register schemas at startup, before keys are
+ * built, and use the key prefix exactly as it appears in the annotations.  Gets, puts and evictions of the prefix all
+ * use the versioned keys.
+ *
+ * <p>Like NamespaceGenerations, the aspects share one instance per CacheClient, so different caches can version
+ * the same prefix differently.
+ *
+ * @author Matt Giacomini
+ * @see BatchCache#key()
+ */
+public final class KeySchemas
+{
+    static final char SEPARATOR = '~';
+
+    private static final Map<CacheClient, KeySchemas> INSTANCES = new WeakHashMap<>();
+
+    private final Map<String, String> versions = new ConcurrentHashMap<>();
+
+    private KeySchemas()
+    {
+    }
+
+    /**
+     * Get the schemas shared by everything that uses the provided CacheClient.
+     *
+     * @param cacheClient CacheClient the versioned entries are stored in.
+     * @return the shared KeySchemas for the client.
+     */
+    public static KeySchemas forClient(CacheClient cacheClient)
+    {
+        synchronized (INSTANCES)
+        {
+            return INSTANCES.computeIfAbsent(cacheClient, client -> new KeySchemas());
+        }
+    }
+
+    /**
+     * Version the keys of a prefix with the fingerprint of the class cached under it.
+     *
+     * @param prefix key prefix, as used in the annotations.
+     * @param type   class of the values cached under the prefix.
+     * @see #fingerprint(Class)
+     */
+    public void register(String prefix, Class<?> type)
+    {
+        register(prefix, fingerprint(type));
+    }
+
+    /**
+     * Version the keys of a prefix with an explicit version, to be changed by hand when the cached class changes
+     * in a way its serializer can't read.
+     *
+     * @param prefix  key prefix, as used in the annotations.
+     * @param version version folded into the keys.
+     */
+    public void register(String prefix, String version)
+    {
+        if (prefix == null || prefix.isEmpty() || version == null || version.isEmpty())
+        {
+            throw new IllegalArgumentException("Prefix and version required: " + prefix + ", " + version);
+        }
+        versions.put(prefix, version);
+    }
+
+    /**
+     * Stop versioning the keys of a prefix.
+     *
+     * @param prefix key prefix, as used in the annotations.
+     */
+    public void unregister(String prefix)
+    {
+        versions.remove(prefix);
+    }
+
+    /**
+     * @param prefix key prefix, as used in the annotations.
+     * @return the version folded into keys of the prefix, or null if it isn't versioned.
+     */
+    public String getVersion(String prefix)
+    {
+        return versions.get(prefix);
+    }
+
+    /**
+     * @param type class of cached values.
+     * @return a short hash of the class's serializable fields, stable across JVMs and builds.
+     */
+    public static String fingerprint(Class<?> type)
+    {
+        StringBuilder schema = new StringBuilder();
+        describe(type, schema, new HashSet<>());
+        long[] hash = Murmur3.hash128(schema.toString().getBytes(StandardCharsets.UTF_8), 0);
+        return Long.toUnsignedString(hash[0], 36);
+    }
+
+    /**
+     * @param key    key prefix from the annotation.
+     * @param prefix prefix the keys are built from, which may already carry a generation.
+     * @return prefix with the key's schema version folded in, if it has one.
+     */
+    String apply(String key, String prefix)
+    {
+        String version = versions.get(key);
+        return version == null ? prefix : prefix + SEPARATOR + version;
+    }
+
+    private static void describe(Type type, StringBuilder schema, Set<Class<?>> seen)
+    {
+        if (type instanceof ParameterizedType)
+        {
+            describe(((ParameterizedType) type).getRawType(), schema, seen);
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments())
+            {
+                describe(argument, schema, seen);
+            }
+            return;
+        }
+        if (!(type instanceof Class))
+        {
+            schema.append(type.getTypeName()).append(';');
+            return;
+        }
+
+        Class<?> clazz = (Class<?>) type;
+        if (clazz.isArray())
+        {
+            describe(clazz.getComponentType(), schema, seen);
+            schema.append("[];");
+            return;
+        }
+
+        schema.append(clazz.getName());
+        if (clazz.isPrimitive() || clazz.getName().startsWith("java.") || !seen.add(clazz))
+        {
+            schema.append(';');
+            return;
+        }
+
+        schema.append('{');
+        if (clazz.isEnum())
+        {
+            Arrays.stream(clazz.getEnumConstants()).forEach(constant -> schema.append(((Enum<?>) constant).name()).append(','));
+        }
+        else
+        {
+            for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass())
+            {
+                Field[] fields = current.getDeclaredFields();
+                Arrays.sort(fields, Comparator.comparing(Field::getName));
+                for (Field field : fields)
+                {
+                    if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers()))
+                    {
+                        schema.append(field.getName()).append(':');
+                        describe(field.getGenericType(), schema, seen);
+                    }
+                }
+            }
+        }
+        schema.append('}');
+    }
+}
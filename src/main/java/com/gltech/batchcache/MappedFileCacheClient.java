@@ -0,0 +1,649 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * MappedFileCacheClient is a CacheClient that keeps its values in memory-mapped segment files on local disk, so that
+ * a restarted node can reopen its cache in seconds instead of refilling it from the DAO.
+ *
+ * <p>Writes are append-only.  Every set or delete is written as a record at the end of the active segment and the
+ * in-memory index is pointed at it.  Overwritten and deleted records stay on disk until the next compaction, which
+ * runs automatically when the share of dead bytes passes the compaction ratio, or can be run by calling compact().
+ *
+ * <p>When the client is opened the index is rebuilt by replaying every segment in order.  Each record carries a
+ * checksum and replay of a segment stops at the first record that does not match, so a torn write at the end of
+ * the last segment is simply overwritten by the next append.
+ *
+ * <p>A directory can only be open in one client at a time.  The client holds a lock on a file in the directory until
+ * it is closed, and opening a directory that is locked by another client, in this process or another, fails.
+ *
+ * <p>Records are written through the mapping, so they survive a crash of the process.  They are only guaranteed
+ * to survive a crash of the operating system after flush() or close() has been called.
+ *
+ * @author Matt Giacomini
+ * @see CacheClient
+ * @see CacheSerializer
+ */
+public class MappedFileCacheClient implements CacheClient, Closeable
+{
+    /**
+     * Size of each segment file when none is provided, 64MB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Share of dead bytes that triggers a compaction when none is provided.
+     */
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String LOCK_FILE = "cache.lock";
+
+    // Record layout: key length, value length, crc, key bytes, value bytes.  A value length of -1 marks a delete.
+    private static final int HEADER_SIZE = 12;
+    private static final int TOMBSTONE = -1;
+
+    private final Path directory;
+    private final CacheSerializer serializer;
+    private final int segmentSize;
+    private final double compactionRatio;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Location> index = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private FileChannel lockChannel;
+    private Segment active;
+    private long totalBytes;
+    private long deadBytes;
+
+    /**
+     * Open (or create) a cache in the provided directory using the default segment size and compaction ratio.
+     *
+     * @param directory  Directory that holds the segment files.  Created if it does not exist.
+     * @param serializer Used to turn values into bytes and back.
+     */
+    public MappedFileCacheClient(Path directory, CacheSerializer serializer)
+    {
+        this(directory, serializer, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_RATIO);
+    }
+
+    /**
+     * Open (or create) a cache in the provided directory.
+     *
+     * @param directory       Directory that holds the segment files.  Created if it does not exist.
+     * @param serializer      Used to turn values into bytes and back.
+     * @param segmentSize     Size in bytes of each segment file.  A single record can not be larger than this.
+     * @param compactionRatio Share of dead bytes (0 to 1) that triggers a compaction when a segment fills up.
+     */
+    public MappedFileCacheClient(Path directory, CacheSerializer serializer, int segmentSize, double compactionRatio)
+    {
+        if (segmentSize <= HEADER_SIZE)
+        {
+            throw new IllegalArgumentException("Segment size must be larger than " + HEADER_SIZE + " bytes");
+        }
+
+        this.directory = directory;
+        this.serializer = serializer;
+        this.segmentSize = segmentSize;
+        this.compactionRatio = compactionRatio;
+
+        try
+        {
+            Files.createDirectories(directory);
+            lock();
+
+            List<Path> paths;
+            try (Stream<Path> files = Files.list(directory))
+            {
+                paths = files.filter(MappedFileCacheClient::isSegment).collect(Collectors.toList());
+            }
+
+            for (Path path : paths)
+            {
+                Segment segment = Segment.open(path, segmentId(path), segmentSize);
+                segments.put(segment.id, segment);
+            }
+        }
+        catch (IOException e)
+        {
+            closeQuietly();
+            throw new IllegalStateException("Could not open cache directory " + directory, e);
+        }
+
+        segments.values().forEach(this::replay);
+
+        if (segments.isEmpty())
+        {
+            roll();
+        }
+        else
+        {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    public void set(String key, Object value)
+    {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = serializer.serialize(value);
+
+        lock.writeLock().lock();
+        try
+        {
+            append(key, keyBytes, valueBytes);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void set(Map<String, Object> objectMap)
+    {
+        Map<String, byte[]> bytesMap = new HashMap<>();
+        objectMap.forEach((key, value) -> bytesMap.put(key, serializer.serialize(value)));
+
+        lock.writeLock().lock();
+        try
+        {
+            bytesMap.forEach((key, valueBytes) -> append(key, key.getBytes(StandardCharsets.UTF_8), valueBytes));
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the value under the write lock when its serialized bytes still match the serialized expected value.
+     */
+    @Override
+    public boolean replace(String key, Object expected, Object value)
+    {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] expectedBytes = serializer.serialize(expected);
+        byte[] valueBytes = serializer.serialize(value);
+
+        lock.writeLock().lock();
+        try
+        {
+            Location location = index.get(key);
+            if (location == null || !Arrays.equals(location.read(), expectedBytes))
+            {
+                return false;
+            }
+            append(key, keyBytes, valueBytes);
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Object get(String key)
+    {
+        byte[] bytes;
+
+        lock.readLock().lock();
+        try
+        {
+            Location location = index.get(key);
+            if (location == null)
+            {
+                return null;
+            }
+            bytes = location.read();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        return serializer.deserialize(bytes);
+    }
+
+    public Map<String, Object> get(List<String> keys)
+    {
+        Map<String, byte[]> bytesMap = new HashMap<>();
+
+        lock.readLock().lock();
+        try
+        {
+            for (String key : keys)
+            {
+                Location location = index.get(key);
+                if (location != null)
+                {
+                    bytesMap.put(key, location.read());
+                }
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        Map<String, Object> objectsMap = new HashMap<>();
+        bytesMap.forEach((key, bytes) -> objectsMap.put(key, serializer.deserialize(bytes)));
+        return objectsMap;
+    }
+
+    public void delete(String key)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if (index.containsKey(key))
+            {
+                append(key, key.getBytes(StandardCharsets.UTF_8), null);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void delete(Collection<String> keys)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            for (String key : keys)
+            {
+                if (index.containsKey(key))
+                {
+                    append(key, key.getBytes(StandardCharsets.UTF_8), null);
+                }
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of live entries in the cache.
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return index.size();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copy every live entry into fresh segments and remove the old segment files.
+     */
+    public void compact()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            compactLocked();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Force all written records to disk.
+     */
+    public void flush()
+    {
+        lock.readLock().lock();
+        try
+        {
+            segments.values().forEach(segment -> segment.buffer.force());
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Force all written records to disk and release the segment files.  The client can not be used afterwards.
+     */
+    @Override
+    public void close()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            for (Segment segment : segments.values())
+            {
+                segment.buffer.force();
+                segment.close();
+            }
+            if (lockChannel != null)
+            {
+                // Closing the channel releases the lock.
+                lockChannel.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Could not close cache directory " + directory, e);
+        }
+        finally
+        {
+            segments.clear();
+            index.clear();
+            active = null;
+            lockChannel = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void lock() throws IOException
+    {
+        Path path = directory.resolve(LOCK_FILE);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        FileLock fileLock;
+        try
+        {
+            fileLock = channel.tryLock();
+        }
+        catch (OverlappingFileLockException e)
+        {
+            // Held by another client in this process.
+            fileLock = null;
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        if (fileLock == null)
+        {
+            channel.close();
+            throw new IllegalStateException("Cache directory " + directory + " is already open in another client");
+        }
+        lockChannel = channel;
+    }
+
+    private void closeQuietly()
+    {
+        try
+        {
+            for (Segment segment : segments.values())
+            {
+                segment.close();
+            }
+            if (lockChannel != null)
+            {
+                lockChannel.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // Already failing to open, keep the original error
+        }
+    }
+
+    private void append(String key, byte[] keyBytes, byte[] valueBytes)
+    {
+        int recordLength = HEADER_SIZE + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+        if (recordLength > segmentSize)
+        {
+            throw new IllegalArgumentException("Record for key " + key + " is " + recordLength + " bytes, larger than the segment size of " + segmentSize);
+        }
+
+        if (active.remaining() < recordLength)
+        {
+            roll();
+            if (segments.size() > 1 && deadBytes > totalBytes * compactionRatio)
+            {
+                compactLocked();
+            }
+        }
+
+        write(key, keyBytes, valueBytes);
+    }
+
+    private void write(String key, byte[] keyBytes, byte[] valueBytes)
+    {
+        int recordLength = HEADER_SIZE + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+        if (active.remaining() < recordLength)
+        {
+            roll();
+        }
+
+        MappedByteBuffer buffer = active.buffer;
+        int offset = active.position;
+        buffer.putInt(offset, keyBytes.length);
+        buffer.putInt(offset + 4, valueBytes == null ? TOMBSTONE : valueBytes.length);
+        buffer.put(offset + HEADER_SIZE, keyBytes);
+        if (valueBytes != null)
+        {
+            buffer.put(offset + HEADER_SIZE + keyBytes.length, valueBytes);
+        }
+        buffer.putInt(offset + 8, checksum(buffer, offset, recordLength));
+        active.position += recordLength;
+
+        apply(key, valueBytes == null ? null : new Location(active, offset, recordLength, keyBytes.length, valueBytes.length), recordLength);
+    }
+
+    private void apply(String key, Location location, int recordLength)
+    {
+        totalBytes += recordLength;
+
+        Location previous = location == null ? index.remove(key) : index.put(key, location);
+        if (previous != null)
+        {
+            deadBytes += previous.recordLength;
+        }
+        if (location == null)
+        {
+            deadBytes += recordLength;
+        }
+    }
+
+    private void replay(Segment segment)
+    {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+
+        while (position + HEADER_SIZE <= buffer.capacity())
+        {
+            int keyLength = buffer.getInt(position);
+            int valueLength = buffer.getInt(position + 4);
+            if (keyLength <= 0 || valueLength < TOMBSTONE)
+            {
+                break;
+            }
+
+            int recordLength = HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+            if (recordLength <= 0 || position + recordLength > buffer.capacity() || checksum(buffer, position, recordLength) != buffer.getInt(position + 8))
+            {
+                break;
+            }
+
+            byte[] keyBytes = new byte[keyLength];
+            buffer.get(position + HEADER_SIZE, keyBytes);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+
+            apply(key, valueLength == TOMBSTONE ? null : new Location(segment, position, recordLength, keyLength, valueLength), recordLength);
+            position += recordLength;
+        }
+
+        segment.position = position;
+    }
+
+    private void roll()
+    {
+        int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        Path path = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+
+        try
+        {
+            active = Segment.open(path, id, segmentSize);
+            segments.put(id, active);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Could not create cache segment " + path, e);
+        }
+    }
+
+    private void compactLocked()
+    {
+        List<Segment> oldSegments = new ArrayList<>(segments.values());
+        Map<String, Location> live = new HashMap<>(index);
+
+        index.clear();
+        totalBytes = 0;
+        deadBytes = 0;
+        roll();
+        int firstNew = active.id;
+
+        live.forEach((key, location) -> write(key, key.getBytes(StandardCharsets.UTF_8), location.read()));
+        segments.tailMap(firstNew).values().forEach(segment -> segment.buffer.force());
+
+        // Oldest first, so a failed delete can never leave a value behind without the newer delete record for it
+        for (Segment segment : oldSegments)
+        {
+            try
+            {
+                segment.close();
+                Files.deleteIfExists(segment.path);
+                segments.remove(segment.id);
+            }
+            catch (IOException e)
+            {
+                break;
+            }
+        }
+    }
+
+    private static int checksum(MappedByteBuffer buffer, int offset, int recordLength)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + 4, 4));
+        crc.update(buffer.slice(offset + HEADER_SIZE, recordLength - HEADER_SIZE));
+        return (int) crc.getValue();
+    }
+
+    private static boolean isSegment(Path path)
+    {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static int segmentId(Path path)
+    {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static private class Segment
+    {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int position;
+
+        private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer)
+        {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, int id, int segmentSize) throws IOException
+        {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size() > 0 ? channel.size() : segmentSize;
+            return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        int remaining()
+        {
+            return buffer.capacity() - position;
+        }
+
+        void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    static private class Location
+    {
+        private final Segment segment;
+        private final int offset;
+        private final int recordLength;
+        private final int keyLength;
+        private final int valueLength;
+
+        Location(Segment segment, int offset, int recordLength, int keyLength, int valueLength)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.recordLength = recordLength;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+        }
+
+        byte[] read()
+        {
+            byte[] bytes = new byte[valueLength];
+            segment.buffer.get(offset + HEADER_SIZE + keyLength, bytes);
+            return bytes;
+        }
+    }
+}
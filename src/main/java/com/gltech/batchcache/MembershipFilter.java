@@ -0,0 +1,242 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * MembershipFilter guards a key prefix against lookups for ids that don't exist.  BatchCacheAspect checks the filter
+ * before both the cache and the loader, and ids the filter rules out are dropped from the batch straight away, so a
+ * scraper walking through made-up ids never reaches the database.
+ *
+ * <p>The filter is a scalable Bloom filter built from an id source, usually a query for every id of the entity.
+ * Until the first build has finished the filter lets every id through.  Ids of values loaded through
+ * BatchCacheAspect or written through BatchCachePutAspect are added as they are seen, and the filter can be
+ * rebuilt in the background to pick up ids created elsewhere and to drop deleted ones.
+ *
+ * <p>An id created by another application is ruled out until the next rebuild, so register filters only for
+ * prefixes where new ids are written through @BatchCachePut, or where that delay is acceptable.
+ *
+ * <pre>
+ * MembershipFilter filter = new MembershipFilter("company", companyDAO::getAllCompanyIds, 1_000_000, 0.01);
+ * filter.rebuildEvery(10, TimeUnit.MINUTES);
+ * batchCacheAspect.addMembershipFilter(filter);
+ * batchCachePutAspect.addMembershipFilter(filter);
+ * </pre>
+ *
+ * @author Matt Giacomini
+ * @see BatchCacheAspect#addMembershipFilter(MembershipFilter)
+ */
+public class MembershipFilter
+{
+    private final String prefix;
+    private final Supplier<? extends Iterable<?>> idSource;
+    private final long expectedIds;
+    private final double falsePositiveRate;
+    private final AtomicLong rejected = new AtomicLong();
+    private final Object rebuildLock = new Object();
+    private volatile BloomFilter current;
+    // Keys added while a rebuild runs, replayed into the new filter once it is swapped in.
+    private volatile Queue<String> added;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param prefix            Key prefix the filter guards, the key() of the @BatchCache annotations.
+     * @param idSource          Supplies every id that exists, as int, long, String or Date values.
+     * @param expectedIds       Number of ids the filter is sized for.  It grows past this if needed.
+     * @param falsePositiveRate Share of missing ids that are let through anyway, for example 0.01.
+     */
+    public MembershipFilter(String prefix, Supplier<? extends Iterable<?>> idSource, long expectedIds, double falsePositiveRate)
+    {
+        this.prefix = prefix;
+        this.idSource = idSource;
+        this.expectedIds = expectedIds;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * @return the key prefix the filter guards.
+     */
+    public String getPrefix()
+    {
+        return prefix;
+    }
+
+    /**
+     * @return true once the filter has been built and rules out ids.
+     */
+    public boolean isReady()
+    {
+        return current != null;
+    }
+
+    /**
+     * @return number of ids ruled out since the filter was created.
+     */
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    /**
+     * @param id id to test.
+     * @return false if the id definitely does not exist, true if it might.
+     */
+    public boolean mightContain(Object id)
+    {
+        return mightContainKey(BatchCacheAspect.getKey(prefix, null, id));
+    }
+
+    /**
+     * Record that an id exists.
+     *
+     * @param id id that exists.
+     */
+    public void add(Object id)
+    {
+        addKey(BatchCacheAspect.getKey(prefix, null, id));
+    }
+
+    /**
+     * Build a new filter from the id source and swap it in.  Ids added while the build runs are kept.  Only one
+     * rebuild runs at a time.
+     */
+    public void rebuild()
+    {
+        synchronized (rebuildLock)
+        {
+            Queue<String> log = new ConcurrentLinkedQueue<>();
+            added = log;
+
+            BloomFilter next = new BloomFilter(expectedIds, falsePositiveRate);
+            try
+            {
+                for (Object id : idSource.get())
+                {
+                    next.put(BatchCacheAspect.getKey(prefix, null, id));
+                }
+                current = next;
+                replay(log, next);
+            }
+            finally
+            {
+                added = null;
+            }
+            // Adds that reached the log while it was cleared; adds that find it cleared put their key in next themselves.
+            replay(log, next);
+        }
+    }
+
+    private static void replay(Queue<String> log, BloomFilter filter)
+    {
+        for (String key = log.poll(); key != null; key = log.poll())
+        {
+            filter.put(key);
+        }
+    }
+
+    /**
+     * Rebuild the filter in the background.
+     *
+     * @param executor Executor that runs the build.
+     * @return a future that completes when the new filter is in place.
+     */
+    public CompletableFuture<Void> rebuildAsync(Executor executor)
+    {
+        return CompletableFuture.runAsync(this::rebuild, executor);
+    }
+
+    /**
+     * Build the filter now on a background thread, then rebuild it on that thread at a fixed delay.  A failed
+     * rebuild keeps the previous filter in place.  Rebuilds can only be scheduled once per filter.
+     *
+     * @param delay time between the end of one build and the start of the next.
+     * @param unit  unit of the delay.
+     */
+    public synchronized void rebuildEvery(long delay, TimeUnit unit)
+    {
+        if (scheduler != null)
+        {
+            throw new IllegalStateException("Rebuilds of the " + prefix + " membership filter are already scheduled");
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "batchcache-membership-" + prefix);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(() ->
+        {
+            try
+            {
+                rebuild();
+            }
+            catch (RuntimeException e)
+            {
+                // Keep the previous filter and try again at the next run
+            }
+        }, 0, delay, unit);
+    }
+
+    boolean mightContainKey(String key)
+    {
+        BloomFilter filter = current;
+        if (filter == null || filter.mightContain(key))
+        {
+            return true;
+        }
+
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    void addKey(String key)
+    {
+        // The log is read before the filter, so an add either reaches the log of a rebuild, or the filter it swapped in.
+        Queue<String> log = added;
+        if (log != null)
+        {
+            log.add(key);
+        }
+
+        BloomFilter filter = current;
+        if (filter != null)
+        {
+            filter.put(key);
+        }
+
+        // The rebuild finished while the key was added, so it may have missed the log; add it to the new filter.
+        BloomFilter next = current;
+        if (log != null && added != log && next != null)
+        {
+            next.put(key);
+        }
+    }
+}
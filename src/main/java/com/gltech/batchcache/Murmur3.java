@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+/**
+ * Murmur3 is the x64 128 bit variant of MurmurHash3, a fast non-cryptographic hash.
+ *
+ * @author Matt Giacomini
+ * @see HashedKeyCacheClient
+ */
+final class Murmur3
+{
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    private Murmur3()
+    {
+    }
+
+    /**
+     * @param data bytes to hash.
+     * @param seed hash seed.
+     * @return the 128 bit hash as two longs, low half first.
+     */
+    static long[] hash128(byte[] data, long seed)
+    {
+        int length = data.length;
+        int blocks = length / 16;
+        long h1 = seed;
+        long h2 = seed;
+
+        for (int i = 0; i < blocks; i++)
+        {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52DCE729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495AB5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks * 16;
+        switch (length & 15)
+        {
+            case 15: k2 ^= (long) (data[tail + 14] & 0xFF) << 48;
+            case 14: k2 ^= (long) (data[tail + 13] & 0xFF) << 40;
+            case 13: k2 ^= (long) (data[tail + 12] & 0xFF) << 32;
+            case 12: k2 ^= (long) (data[tail + 11] & 0xFF) << 24;
+            case 11: k2 ^= (long) (data[tail + 10] & 0xFF) << 16;
+            case 10: k2 ^= (long) (data[tail + 9] & 0xFF) << 8;
+            case 9: k2 ^= data[tail + 8] & 0xFF;
+                h2 ^= mixK2(k2);
+            case 8: k1 ^= (long) (data[tail + 7] & 0xFF) << 56;
+            case 7: k1 ^= (long) (data[tail + 6] & 0xFF) << 48;
+            case 6: k1 ^= (long) (data[tail + 5] & 0xFF) << 40;
+            case 5: k1 ^= (long) (data[tail + 4] & 0xFF) << 32;
+            case 4: k1 ^= (long) (data[tail + 3] & 0xFF) << 24;
+            case 3: k1 ^= (long) (data[tail + 2] & 0xFF) << 16;
+            case 2: k1 ^= (long) (data[tail + 1] & 0xFF) << 8;
+            case 1: k1 ^= data[tail] & 0xFF;
+                h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+
+        return new long[]{h1, h2};
+    }
+
+    private static long getLong(byte[] data, int offset)
+    {
+        long value = 0;
+        for (int i = 7; i >= 0; i--)
+        {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long mixK1(long k1)
+    {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2)
+    {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(long k)
+    {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * NamespaceGenerations keeps a generation number for each key prefix that is declared generational, so that every
+ * entry under a prefix can be dropped at once by bumping its generation instead of deleting entries one by one.
+ *
+ * <p>The generation is stored in the cache under "prefix@generation" and folded into every key built for the
+ * prefix, for example "company@kx2h3m1-42".  A bump makes all keys of the old generation unreachable; they are left
+ * for the cache provider to expire.  A new generation starts at the current time rather than zero, so a generation
+ * that was lost from the cache can never bring back entries from an earlier one.
+ *
+ * <p>Each node keeps the generations it has seen locally and only reads them from the cache again once they are
+ * older than the check interval, so lookups don't cost an extra round trip.  A bump on another node is therefore
+ * seen within one check interval.
+ *
+ * <p>BatchCacheAspect and BatchCacheEvictAspect share one instance per CacheClient, so a bump is seen right away by
+ * the node that made it.
+ *
+ * @author Matt Giacomini
+ * @see BatchCache#generational()
+ * @see BatchCacheEvict#generational()
+ */
+public class NamespaceGenerations
+{
+    /**
+     * How long a locally known generation is trusted when no interval is set, one second.
+     */
+    public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+
+    private static final String GENERATION_SUFFIX = "@generation";
+    private static final Map<CacheClient, NamespaceGenerations> INSTANCES = new WeakHashMap<>();
+
+    // Held weakly, since INSTANCES is keyed weakly by the client and a strong reference here would keep it reachable.
+    private final WeakReference<CacheClient> cacheClient;
+    private final Map<String, Generation> generations = new ConcurrentHashMap<>();
+    private volatile long checkIntervalMillis = DEFAULT_CHECK_INTERVAL_MILLIS;
+
+    private NamespaceGenerations(CacheClient cacheClient)
+    {
+        this.cacheClient = new WeakReference<>(cacheClient);
+    }
+
+    /**
+     * Get the generations shared by everything that uses the provided CacheClient.
+     *
+     * @param cacheClient CacheClient the generations are stored in.
+     * @return the shared NamespaceGenerations for the client.
+     */
+    public static NamespaceGenerations forClient(CacheClient cacheClient)
+    {
+        synchronized (INSTANCES)
+        {
+            return INSTANCES.computeIfAbsent(cacheClient, NamespaceGenerations::new);
+        }
+    }
+
+    /**
+     * Set how long a locally known generation is trusted before it is read from the cache again.
+     *
+     * @param checkIntervalMillis interval in milliseconds.
+     */
+    public void setCheckIntervalMillis(long checkIntervalMillis)
+    {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Get the prefix to build keys with for the current generation of a namespace.
+     *
+     * @param prefix key prefix of the namespace.
+     * @return the prefix with the current generation folded in.
+     */
+    public String currentPrefix(String prefix)
+    {
+        return prefix + "@" + Long.toString(current(prefix), Character.MAX_RADIX);
+    }
+
+    /**
+     * Get the current generation of a namespace.
+     *
+     * @param prefix key prefix of the namespace.
+     * @return the current generation.
+     */
+    public long current(String prefix)
+    {
+        Generation generation = generations.get(prefix);
+        long now = System.currentTimeMillis();
+
+        if (generation == null || generation.checkedAt < now - checkIntervalMillis)
+        {
+            generation = new Generation(load(prefix, now), now);
+            generations.put(prefix, generation);
+        }
+
+        return generation.value;
+    }
+
+    /**
+     * Move a namespace to a new generation, which drops every entry stored under the old one.
+     *
+     * @param prefix key prefix of the namespace.
+     * @return the new generation.
+     */
+    public long bump(String prefix)
+    {
+        long now = System.currentTimeMillis();
+        long next = load(prefix, now) + 1;
+
+        cacheClient.get().set(prefix + GENERATION_SUFFIX, next);
+        generations.put(prefix, new Generation(next, now));
+        return next;
+    }
+
+    private long load(String prefix, long now)
+    {
+        Object stored = cacheClient.get().get(prefix + GENERATION_SUFFIX);
+        if (stored instanceof Long)
+        {
+            return (Long) stored;
+        }
+
+        cacheClient.get().set(prefix + GENERATION_SUFFIX, now);
+        return now;
+    }
+
+    static private class Generation
+    {
+        private final long value;
+        private final long checkedAt;
+
+        Generation(long value, long checkedAt)
+        {
+            this.value = value;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * NativeImageConfig collects what a GraalVM native image needs to reach by reflection for the annotated methods
+ * of one compilation, and writes it as reflect-config.json and proxy-config.json under META-INF/native-image, where
+ * native-image picks it up from the classpath.
+ *
+ * <p>Annotated methods are registered so the aspects can read their annotations, the accessors that build cache
+ * keys from ids and values are registered so getKey can call them, and the interfaces of annotated classes are
+ * registered for Spring's JDK proxies.
+ *
+ * @author Matt Giacomini
+ * @see BatchCacheProcessor
+ */
+class NativeImageConfig
+{
+    static final String PATH = "META-INF/native-image/com.gltech/batchcache-generated/";
+
+    private static final List<String> SPRING_PROXY_INTERFACES = List.of(
+            "org.springframework.aop.SpringProxy", "org.springframework.aop.framework.Advised", "org.springframework.core.DecoratingProxy");
+
+    private final ProcessingEnvironment processingEnv;
+    private final Map<String, Set<String>> methods = new TreeMap<>();
+    private final Set<String> records = new TreeSet<>();
+    private final Set<String> proxyInterfaces = new TreeSet<>();
+
+    NativeImageConfig(ProcessingEnvironment processingEnv)
+    {
+        this.processingEnv = processingEnv;
+    }
+
+    /**
+     * Register an annotated method, the accessor of its key field on its id and value types, and the interfaces of
+     * its class.
+     */
+    void addMethod(ExecutableElement method, String field)
+    {
+        TypeElement type = (TypeElement) method.getEnclosingElement();
+        String parameterTypes = method.getParameters().stream().map(parameter -> "\"" + typeName(parameter.asType()) + "\"").collect(Collectors.joining(", "));
+        methods.computeIfAbsent(binaryName(type), name -> new TreeSet<>()).add("{ \"name\": \"" + method.getSimpleName() + "\", \"parameterTypes\": [" + parameterTypes + "] }");
+
+        if (!method.getParameters().isEmpty())
+        {
+            addKeyType(elementType(method.getParameters().get(0).asType()), field);
+        }
+        addKeyType(elementType(method.getReturnType()), field);
+
+        for (TypeMirror anInterface : type.getInterfaces())
+        {
+            proxyInterfaces.add(binaryName((TypeElement) processingEnv.getTypeUtils().asElement(anInterface)));
+        }
+    }
+
+    boolean isEmpty()
+    {
+        return methods.isEmpty() && records.isEmpty();
+    }
+
+    void write()
+    {
+        try
+        {
+            try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", PATH + "reflect-config.json").openWriter()))
+            {
+                List<String> entries = new ArrayList<>();
+                for (String name : records)
+                {
+                    entries.add("  { \"name\": \"" + name + "\", \"allPublicMethods\": true, \"allDeclaredFields\": true }");
+                }
+                methods.forEach((name, typeMethods) ->
+                {
+                    if (!records.contains(name))
+                    {
+                        entries.add("  {\n    \"name\": \"" + name + "\",\n    \"queryAllDeclaredMethods\": true,\n    \"methods\": [\n      " + String.join(",\n      ", typeMethods) + "\n    ]\n  }");
+                    }
+                });
+                out.println("[\n" + String.join(",\n", entries) + "\n]");
+            }
+
+            try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", PATH + "proxy-config.json").openWriter()))
+            {
+                List<String> entries = new ArrayList<>();
+                for (String name : proxyInterfaces)
+                {
+                    List<String> interfaces = new ArrayList<>();
+                    interfaces.add(name);
+                    interfaces.addAll(SPRING_PROXY_INTERFACES);
+                    entries.add("  { \"interfaces\": [" + interfaces.stream().map(anInterface -> "\"" + anInterface + "\"").collect(Collectors.joining(", ")) + "] }");
+                }
+                out.println("[\n" + String.join(",\n", entries) + "\n]");
+            }
+        }
+        catch (IOException e)
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write native image configuration: " + e.getMessage());
+        }
+    }
+
+    private void addKeyType(TypeMirror type, String field)
+    {
+        if (type == null || type.getKind() != TypeKind.DECLARED || field == null || field.isEmpty())
+        {
+            return;
+        }
+
+        TypeElement element = (TypeElement) processingEnv.getTypeUtils().asElement(type);
+        if (element.getQualifiedName().toString().startsWith("java.") || element.getKind() == ElementKind.ENUM)
+        {
+            return;
+        }
+        if (element.getKind() == ElementKind.RECORD)
+        {
+            // Records may also be encoded component by component with KeyCodecs.composite()
+            records.add(binaryName(element));
+            return;
+        }
+
+        String accessor = "get" + field.substring(0, 1).toUpperCase() + field.substring(1);
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(element)))
+        {
+            if (method.getSimpleName().contentEquals(accessor) && method.getParameters().isEmpty() && method.getModifiers().contains(Modifier.PUBLIC))
+            {
+                methods.computeIfAbsent(binaryName(element), name -> new TreeSet<>()).add("{ \"name\": \"" + accessor + "\", \"parameterTypes\": [] }");
+            }
+        }
+    }
+
+    /**
+     * @return the element type of an array or the first type argument of a generic type, else the type itself.
+     */
+    private static TypeMirror elementType(TypeMirror type)
+    {
+        if (type.getKind() == TypeKind.ARRAY)
+        {
+            return ((ArrayType) type).getComponentType();
+        }
+        if (type.getKind() == TypeKind.DECLARED && !((DeclaredType) type).getTypeArguments().isEmpty())
+        {
+            // The values of a Map are not keyed, its keys are the ids
+            List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+            return arguments.get(0);
+        }
+        return type;
+    }
+
+    private String typeName(TypeMirror type)
+    {
+        if (type.getKind() == TypeKind.ARRAY)
+        {
+            return typeName(((ArrayType) type).getComponentType()) + "[]";
+        }
+        if (type.getKind() == TypeKind.DECLARED)
+        {
+            return binaryName((TypeElement) processingEnv.getTypeUtils().asElement(type));
+        }
+        if (type.getKind() == TypeKind.TYPEVAR)
+        {
+            return typeName(processingEnv.getTypeUtils().erasure(type));
+        }
+        return type.toString();
+    }
+
+    private String binaryName(TypeElement type)
+    {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+}
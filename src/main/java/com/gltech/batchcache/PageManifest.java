@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * PageManifest is stored under the key of a paged BatchCache method in place of its whole result.  The values are
+ * stored in order as fixed-size pages, each a List under its own key, and the manifest records where the pages are
+ * and how many there are.
+ *
+ * <p>Every write of a result uses new page keys, so a reader holding an older manifest never mixes pages from two
+ * results; pages it can no longer find are treated as a miss.  Patches of aggregates write new pages too.
+ *
+ * @author Matt Giacomini
+ * @see BatchCache#pageSize()
+ * @see BatchCache#aggregateOf()
+ */
+public class PageManifest implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String pagePrefix;
+    private final int pages;
+    private final int size;
+
+    public PageManifest()
+    {
+        this.pagePrefix = null;
+        this.pages = 0;
+        this.size = 0;
+    }
+
+    /**
+     * @param pagePrefix prefix of the page keys, unique to one write of the result.
+     * @param pages      number of pages.
+     * @param size       number of values across all pages.
+     */
+    public PageManifest(String pagePrefix, int pages, int size)
+    {
+        this.pagePrefix = pagePrefix;
+        this.pages = pages;
+        this.size = size;
+    }
+
+    /**
+     * @param key key the manifest is stored under.
+     * @return a page prefix no other write of the result uses.
+     */
+    static String newPagePrefix(String key)
+    {
+        return key + "#" + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+    }
+
+    /**
+     * @return number of pages.
+     */
+    public int getPages()
+    {
+        return pages;
+    }
+
+    /**
+     * @return number of values across all pages.
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @param page page number, starting at 0.
+     * @return key the page is stored under.
+     */
+    public String getPageKey(int page)
+    {
+        return pagePrefix + "-" + page;
+    }
+
+    /**
+     * @return keys of every page, in order.
+     */
+    public List<String> getPageKeys()
+    {
+        List<String> keys = new ArrayList<>(pages);
+        for (int page = 0; page < pages; page++)
+        {
+            keys.add(getPageKey(page));
+        }
+        return keys;
+    }
+
+    /**
+     * @param keys   keys about to be deleted.
+     * @param cached values currently cached under those keys.
+     * @return the keys, plus the page keys of any paged results among them.
+     */
+    static Collection<String> withPageKeys(Collection<String> keys, Map<String, Object> cached)
+    {
+        List<String> all = new ArrayList<>(keys);
+        for (Object value : cached.values())
+        {
+            if (value instanceof CacheEntry)
+            {
+                value = ((CacheEntry) value).getValue();
+            }
+            if (value instanceof PageManifest)
+            {
+                all.addAll(((PageManifest) value).getPageKeys());
+            }
+        }
+        return all;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * RefreshAheadLoader reloads stale entries in the background for BatchCacheAspect.
+ *
+ * <p>Stale ids are collected per group (the same annotated method, target and trailing arguments) for a short
+ * window, then handed to the group's loader as a single batch.  Keys that are already waiting or being refreshed
+ * are not queued again.  A refresh that fails, or that the executor rejects, is logged and leaves the stale values
+ * in place, so the next read of them queues them again.
+ *
+ * @author Matt Giacomini
+ * @see BatchCache#refreshAfterMillis()
+ */
+class RefreshAheadLoader
+{
+    static final long BATCH_WINDOW_MILLIS = 10;
+
+    private static final System.Logger LOGGER = System.getLogger(RefreshAheadLoader.class.getName());
+
+    private final Map<Object, Batch> pending = new HashMap<>();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile Executor executor;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param executor Executor that runs the loads.  Null runs them on the internal scheduling thread.
+     */
+    void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Queue stale ids to be reloaded.
+     *
+     * @param group    Identifies calls that can share a batch.
+     * @param staleIds Stale ids by cache key.
+     * @param loader   Loads the ids and writes them back to cache.  Used if this call starts a new batch.
+     */
+    synchronized void refresh(Object group, Map<String, Object> staleIds, Consumer<List<Object>> loader)
+    {
+        Batch batch = pending.get(group);
+        if (batch == null)
+        {
+            batch = new Batch(loader);
+            pending.put(group, batch);
+            scheduler().schedule(() -> execute(group), BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        for (Map.Entry<String, Object> entry : staleIds.entrySet())
+        {
+            if (inFlight.add(entry.getKey()))
+            {
+                batch.ids.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void execute(Object group)
+    {
+        Batch batch;
+        synchronized (this)
+        {
+            batch = pending.remove(group);
+        }
+
+        Runnable load = () ->
+        {
+            try
+            {
+                if (!batch.ids.isEmpty())
+                {
+                    batch.loader.accept(new ArrayList<>(batch.ids.values()));
+                }
+            }
+            catch (RuntimeException e)
+            {
+                LOGGER.log(System.Logger.Level.WARNING, "Refresh-ahead of " + batch.ids.size() + " stale entries failed", e);
+            }
+            finally
+            {
+                // A failed refresh leaves the stale value in place, so the next caller queues it again.
+                inFlight.removeAll(batch.ids.keySet());
+            }
+        };
+
+        Executor current = executor;
+        if (current == null)
+        {
+            load.run();
+            return;
+        }
+
+        try
+        {
+            current.execute(load);
+        }
+        catch (RejectedExecutionException e)
+        {
+            LOGGER.log(System.Logger.Level.WARNING, "Refresh-ahead of " + batch.ids.size() + " stale entries was rejected by its executor", e);
+            inFlight.removeAll(batch.ids.keySet());
+        }
+    }
+
+    private synchronized ScheduledExecutorService scheduler()
+    {
+        if (scheduler == null)
+        {
+            ScheduledThreadPoolExecutor threadPool = new ScheduledThreadPoolExecutor(1, runnable ->
+            {
+                Thread thread = new Thread(runnable, "batchcache-refresh-ahead");
+                thread.setDaemon(true);
+                return thread;
+            });
+            threadPool.setRemoveOnCancelPolicy(true);
+            scheduler = threadPool;
+        }
+        return scheduler;
+    }
+
+    static private class Batch
+    {
+        private final Consumer<List<Object>> loader;
+        private final Map<String, Object> ids = new LinkedHashMap<>();
+
+        Batch(Consumer<List<Object>> loader)
+        {
+            this.loader = loader;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 Matt Giacomini
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.gltech.batchcache;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * ResilientCacheClient is a CacheClient decorator that keeps a slow or failing cache from slowing down or failing
+ * the callers of annotated methods.
+ *
+ * <p>Every call to the wrapped client runs with a timeout.  A get that times out or throws is answered as a miss,
+ * so the aspect loads from the annotated method instead, and a set that times out or throws is dropped.  Deletes
+ * also run with the timeout, but their failures are rethrown, since a lost eviction would leave stale data behind.
+ * A replace runs like a set and reports a timeout or failure as not replaced.
+ *
+ * <p>Consecutive failures trip a circuit breaker.  While it is open gets are answered as misses and sets are
+ * skipped without calling the wrapped client.  After the open period one trial call is let through; its success
+ * closes the breaker and its failure opens it again.
+ *
+ * <pre>
+ * CacheClient cacheClient = new ResilientCacheClient(new MyCacheClient(), 50, 100);
+ * BatchCacheAspect batchCacheAspect = new BatchCacheAspect(cacheClient);
+ * </pre>
+ *
+ * @author Matt Giacomini
+ * @see CacheClient
+ */
+public class ResilientCacheClient implements CacheClient
+{
+    /**
+     * State of the circuit breaker.
+     */
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable ->
+    {
+        Thread thread = new Thread(runnable, "batchcache-resilient");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CacheClient cacheClient;
+    private final long getTimeoutMillis;
+    private final long setTimeoutMillis;
+    private volatile ExecutorService executor = DEFAULT_EXECUTOR;
+    private volatile int failureThreshold = 5;
+    private volatile long openMillis = 10_000;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile State state = State.CLOSED;
+
+    /**
+     * @param cacheClient      CacheClient to wrap.
+     * @param getTimeoutMillis Longest wait for a get before it is answered as a miss.
+     * @param setTimeoutMillis Longest wait for a set or delete.
+     */
+    public ResilientCacheClient(CacheClient cacheClient, long getTimeoutMillis, long setTimeoutMillis)
+    {
+        if (getTimeoutMillis <= 0 || setTimeoutMillis <= 0)
+        {
+            throw new IllegalArgumentException("Timeouts must be positive");
+        }
+
+        this.cacheClient = cacheClient;
+        this.getTimeoutMillis = getTimeoutMillis;
+        this.setTimeoutMillis = setTimeoutMillis;
+    }
+
+    /**
+     * @param failureThreshold Consecutive failures that open the circuit breaker.  Defaults to 5.
+     * @param openMillis       How long the breaker stays open before a trial call.  Defaults to 10 seconds.
+     */
+    public void setCircuitBreaker(int failureThreshold, long openMillis)
+    {
+        if (failureThreshold <= 0 || openMillis <= 0)
+        {
+            throw new IllegalArgumentException("Failure threshold and open millis must be positive");
+        }
+
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @param executor Runs the calls to the wrapped client.  Defaults to a shared pool of daemon threads.
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void set(String key, Object value)
+    {
+        call(() ->
+        {
+            cacheClient.set(key, value);
+            return null;
+        }, setTimeoutMillis, null);
+    }
+
+    @Override
+    public void set(Map<String, Object> objectMap)
+    {
+        call(() ->
+        {
+            cacheClient.set(objectMap);
+            return null;
+        }, setTimeoutMillis, null);
+    }
+
+    @Override
+    public Object get(String key)
+    {
+        return call(() -> cacheClient.get(key), getTimeoutMillis, null);
+    }
+
+    @Override
+    public Map<String, Object> get(List<String> keys)
+    {
+        return call(() -> cacheClient.get(keys), getTimeoutMillis, new HashMap<>());
+    }
+
+    @Override
+    public boolean replace(String key, Object expected, Object value)
+    {
+        // A replace that times out or fails counts as a conflict, so the caller deletes the entry instead.
+        return call(() -> cacheClient.replace(key, expected, value), setTimeoutMillis, false);
+    }
+
+    @Override
+    public void delete(String key)
+    {
+        callOrThrow(() ->
+        {
+            cacheClient.delete(key);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(Collection<String> keys)
+    {
+        callOrThrow(() ->
+        {
+            cacheClient.delete(keys);
+            return null;
+        });
+    }
+
+    /**
+     * @return current state of the circuit breaker.
+     */
+    public State getState()
+    {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt.get() >= openMillis)
+        {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * @return number of calls to the wrapped client that timed out or failed.
+     */
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    private <T> T call(Supplier<T> operation, long timeoutMillis, T fallback)
+    {
+        if (!allowCall())
+        {
+            return fallback;
+        }
+
+        try
+        {
+            T result = execute(operation, timeoutMillis);
+            recordSuccess();
+            return result;
+        }
+        catch (Exception e)
+        {
+            recordFailure();
+            return fallback;
+        }
+    }
+
+    private <T> T callOrThrow(Supplier<T> operation)
+    {
+        try
+        {
+            T result = execute(operation, setTimeoutMillis);
+            recordSuccess();
+            return result;
+        }
+        catch (ExecutionException e)
+        {
+            recordFailure();
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException("Cache delete failed", e.getCause());
+        }
+        catch (Exception e)
+        {
+            recordFailure();
+            throw new IllegalStateException("Cache delete failed", e);
+        }
+    }
+
+    private <T> T execute(Supplier<T> operation, long timeoutMillis) throws Exception
+    {
+        Future<T> future = executor.submit(operation::get);
+        try
+        {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException | InterruptedException e)
+        {
+            future.cancel(true);
+            if (e instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
+            }
+            throw e;
+        }
+    }
+
+    private boolean allowCall()
+    {
+        State current = state;
+        if (current == State.CLOSED)
+        {
+            return true;
+        }
+        if (current == State.HALF_OPEN || System.currentTimeMillis() - openedAt.get() < openMillis)
+        {
+            return false;
+        }
+
+        // Once the open period is over, let exactly one trial call through
+        synchronized (this)
+        {
+            if (state != State.OPEN)
+            {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            return true;
+        }
+    }
+
+    private void recordSuccess()
+    {
+        consecutiveFailures.set(0);
+        if (state != State.CLOSED)
+        {
+            state = State.CLOSED;
+        }
+    }
+
+    private void recordFailure()
+    {
+        failures.incrementAndGet();
+        if (state == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold)
+        {
+            openedAt.set(System.currentTimeMillis());
+            state = State.OPEN;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class AggregateEntriesTests
+{
+    private CacheClientImpl cacheClient;
+    private AggregateDAOImpl aggregateDAOImpl;
+    private AggregateDAO aggregateDAO;
+
+    public interface AggregateDAO
+    {
+        List<TestCompany> getCompanies();
+
+        List<TestCompany> getPagedCompanies();
+
+        void save(TestCompany company);
+
+        void update(TestCompany company);
+
+        void delete(long id);
+
+        void refresh(long id);
+
+        void clearCompanies();
+    }
+
+    static public class AggregateDAOImpl implements AggregateDAO
+    {
+        final Map<Long, TestCompany> rows = new TreeMap<>();
+        int loads;
+        int pagedLoads;
+
+        AggregateDAOImpl()
+        {
+            for (long id = 1; id <= 3; id++)
+            {
+                rows.put(id, new TestCompany(id, "tc" + id));
+            }
+        }
+
+        @Override
+        @BatchCache(key = "aggregate-companies", aggregateOf = "aggregate-company")
+        public List<TestCompany> getCompanies()
+        {
+            loads++;
+            return new ArrayList<>(rows.values());
+        }
+
+        @Override
+        @BatchCache(key = "aggregate-paged-companies", aggregateOf = "aggregate-company", pageSize = 2)
+        public List<TestCompany> getPagedCompanies()
+        {
+            pagedLoads++;
+            return new ArrayList<>(rows.values());
+        }
+
+        @Override
+        @BatchCachePut(key = "aggregate-company")
+        public void save(TestCompany company)
+        {
+            rows.put(company.getId(), company);
+        }
+
+        @Override
+        @BatchCacheEvict(key = "aggregate-company")
+        public void update(TestCompany company)
+        {
+            rows.put(company.getId(), company);
+        }
+
+        @Override
+        @BatchCacheEvict(key = "aggregate-company", deletes = true)
+        public void delete(long id)
+        {
+            rows.remove(id);
+        }
+
+        @Override
+        @BatchCacheEvict(key = "aggregate-company")
+        public void refresh(long id)
+        {
+        }
+
+        @Override
+        @BatchCacheEvict(key = "aggregate-company")
+        public void clearCompanies()
+        {
+        }
+    }
+
+    static public class InvalidAggregateDAO
+    {
+        @BatchCache(key = "aggregate-company", aggregateOf = "company")
+        public TestCompany getCompany(long id)
+        {
+            return null;
+        }
+    }
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+
+        aggregateDAOImpl = new AggregateDAOImpl();
+        aggregateDAO = proxy(aggregateDAOImpl, cacheClient);
+    }
+
+    private static AggregateDAO proxy(AggregateDAOImpl aggregateDAOImpl, CacheClient cacheClient)
+    {
+        AspectJProxyFactory factory = new AspectJProxyFactory(aggregateDAOImpl);
+        factory.addAspect(new BatchCacheAspect(cacheClient));
+        factory.addAspect(new BatchCachePutAspect(cacheClient));
+        factory.addAspect(new BatchCacheEvictAspect(cacheClient));
+        return factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void putPatchesAggregate()
+    {
+        aggregateDAO.getCompanies();
+        aggregateDAO.save(new TestCompany(2, "renamed"));
+        aggregateDAO.save(new TestCompany(9, "tc9"));
+
+        assertEquals(List.of("tc1", "renamed", "tc3", "tc9"), names(aggregateDAO.getCompanies()));
+        assertEquals(1, aggregateDAOImpl.loads);
+    }
+
+    @Test
+    public void evictWithEntityPatchesAggregate()
+    {
+        aggregateDAO.getCompanies();
+        aggregateDAO.update(new TestCompany(1, "updated"));
+
+        assertEquals(List.of("updated", "tc2", "tc3"), names(aggregateDAO.getCompanies()));
+        assertEquals(1, aggregateDAOImpl.loads);
+    }
+
+    @Test
+    public void deleteRemovesFromAggregate()
+    {
+        aggregateDAO.getCompanies();
+        aggregateDAO.delete(2);
+
+        assertEquals(List.of("tc1", "tc3"), names(aggregateDAO.getCompanies()));
+        assertEquals(1, aggregateDAOImpl.loads);
+    }
+
+    @Test
+    public void evictByIdEvictsAggregate()
+    {
+        aggregateDAO.getCompanies();
+        aggregateDAO.refresh(2);
+
+        assertNull(cacheClient.get("aggregate-companies"));
+        assertEquals(3, aggregateDAO.getCompanies().size());
+        assertEquals(2, aggregateDAOImpl.loads);
+    }
+
+    @Test
+    public void evictAllEvictsAggregate()
+    {
+        aggregateDAO.getCompanies();
+        aggregateDAO.clearCompanies();
+
+        assertNull(cacheClient.get("aggregate-companies"));
+    }
+
+    @Test
+    public void unpatchableAggregateIsEvictedWithScope()
+    {
+        // Cached by another node in a shape that can't be patched.
+        cacheClient.set("aggregate-companies", "companies");
+
+        try (EvictionScope scope = EvictionScope.open())
+        {
+            aggregateDAO.save(new TestCompany(2, "renamed"));
+            assertEquals("companies", cacheClient.get("aggregate-companies"));
+        }
+
+        assertNull(cacheClient.get("aggregate-companies"));
+    }
+
+    @Test
+    public void pagedAggregatePatchesPages()
+    {
+        aggregateDAO.getPagedCompanies();
+        PageManifest original = (PageManifest) cacheClient.get("aggregate-paged-companies");
+        aggregateDAO.save(new TestCompany(9, "tc9"));
+        aggregateDAO.save(new TestCompany(10, "tc10"));
+        aggregateDAO.delete(1);
+        aggregateDAO.save(new TestCompany(3, "renamed"));
+
+        PageManifest manifest = (PageManifest) cacheClient.get("aggregate-paged-companies");
+        assertEquals(2, manifest.getPages());
+        assertEquals(4, manifest.getSize());
+
+        // Patches write new pages, and remove the ones they replace.
+        assertNotEquals(original.getPageKey(0), manifest.getPageKey(0));
+        assertNull(cacheClient.get(original.getPageKey(0)));
+
+        assertEquals(List.of("tc2", "renamed", "tc9", "tc10"), names(aggregateDAO.getPagedCompanies()));
+        assertEquals(1, aggregateDAOImpl.pagedLoads);
+    }
+
+    @Test
+    public void validateRegistersAggregates()
+    {
+        new BatchCacheAspect(cacheClient).validate(AggregateDAOImpl.class);
+
+        // Cached by another node, never read through this one.
+        cacheClient.set("aggregate-companies", new ArrayList<>(List.of(new TestCompany(1, "tc1"))));
+        aggregateDAO.save(new TestCompany(2, "tc2"));
+
+        assertEquals(List.of("tc1", "tc2"), names(aggregateDAO.getCompanies()));
+        assertEquals(0, aggregateDAOImpl.loads);
+    }
+
+    @Test
+    public void pagedKeysArePerClient()
+    {
+        aggregateDAO.getPagedCompanies();
+
+        assertTrue(AggregateEntries.forClient(cacheClient).isPaged("aggregate-paged-companies"));
+        assertFalse(AggregateEntries.forClient(cacheClient).isPaged("aggregate-companies"));
+        assertFalse(AggregateEntries.forClient(new CacheClientImpl()).isPaged("aggregate-paged-companies"));
+    }
+
+    @Test
+    public void writesRegisterAggregatesOfTheirClass()
+    {
+        // Cached by another node; this one has only written.
+        cacheClient.set("aggregate-companies", new ArrayList<>(List.of(new TestCompany(1, "tc1"))));
+        aggregateDAO.update(new TestCompany(2, "tc2"));
+
+        assertEquals(List.of("tc1", "tc2"), names(aggregateDAO.getCompanies()));
+        assertEquals(0, aggregateDAOImpl.loads);
+    }
+
+    @Test
+    public void concurrentChangeEvictsAggregate()
+    {
+        CacheClientImpl racingClient = new CacheClientImpl()
+        {
+            @Override
+            public boolean replace(String key, Object expected, Object value)
+            {
+                // Another node patches the aggregate between the read and the write.
+                set(key, new ArrayList<>(List.of(new TestCompany(7, "tc7"))));
+                return super.replace(key, expected, value);
+            }
+        };
+        AggregateDAOImpl racingDAOImpl = new AggregateDAOImpl();
+        AggregateDAO racingDAO = proxy(racingDAOImpl, racingClient);
+
+        racingDAO.getCompanies();
+        racingDAO.save(new TestCompany(2, "renamed"));
+
+        assertNull(racingClient.get("aggregate-companies"));
+        assertEquals(List.of("tc1", "renamed", "tc3"), names(racingDAO.getCompanies()));
+        assertEquals(2, racingDAOImpl.loads);
+    }
+
+    @Test
+    public void decoratedClientPatchesAggregate()
+    {
+        CacheClient decorated = new HotKeyCacheClient(new ResilientCacheClient(new HashedKeyCacheClient(cacheClient, HashedKeyCacheClient.Mode.KEY, 0, true), 1000, 1000), 100, 1000, 1);
+        AggregateDAOImpl decoratedDAOImpl = new AggregateDAOImpl();
+        AggregateDAO decoratedDAO = proxy(decoratedDAOImpl, decorated);
+
+        decoratedDAO.getCompanies();
+        decoratedDAO.save(new TestCompany(2, "renamed"));
+        decoratedDAO.delete(3);
+
+        assertEquals(List.of("tc1", "renamed"), names(decoratedDAO.getCompanies()));
+        assertEquals(1, decoratedDAOImpl.loads);
+    }
+
+    @Test
+    public void clientWithoutReplaceEvictsAggregate()
+    {
+        CacheClient client = new CacheClientImpl()
+        {
+            @Override
+            public boolean replace(String key, Object expected, Object value)
+            {
+                return false;
+            }
+        };
+        AggregateDAOImpl plainDAOImpl = new AggregateDAOImpl();
+        AggregateDAO plainDAO = proxy(plainDAOImpl, client);
+
+        plainDAO.getPagedCompanies();
+        PageManifest manifest = (PageManifest) client.get("aggregate-paged-companies");
+        plainDAO.save(new TestCompany(9, "tc9"));
+
+        assertNull(client.get("aggregate-paged-companies"));
+        assertNull(client.get(manifest.getPageKey(0)));
+        assertEquals(4, plainDAO.getPagedCompanies().size());
+        assertEquals(2, plainDAOImpl.pagedLoads);
+    }
+
+    @Test
+    public void aggregatesDoNotKeepClientReachable() throws Exception
+    {
+        CacheClient discarded = new CacheClientImpl();
+        AggregateEntries.forClient(discarded).register(AggregateDAOImpl.class);
+        WeakReference<CacheClient> reference = new WeakReference<>(discarded);
+        discarded = null;
+
+        for (int i = 0; i < 50 && reference.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void validateAggregateOfNeedsNoArguments()
+    {
+        new BatchCacheAspect(cacheClient).validate(InvalidAggregateDAO.class);
+    }
+
+    private static List<String> names(Collection<TestCompany> companies)
+    {
+        return companies.stream().map(TestCompany::getName).collect(Collectors.toList());
+    }
+}
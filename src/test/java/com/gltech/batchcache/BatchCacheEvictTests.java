@@ -10,17 +10,22 @@ import org.junit.Test;
 import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class BatchCacheEvictTests
 {
     private CacheClientImpl cacheClient;
+    private TestDAOImpl testDAOImpl;
     private TestDAO testDAO;
 
     @Before
@@ -31,7 +36,7 @@ public class BatchCacheEvictTests
         BatchCacheAspect batchCacheAspect = new BatchCacheAspect(cacheClient);
         BatchCacheEvictAspect batchCacheEvictAspect = new BatchCacheEvictAspect(cacheClient);
 
-        TestDAO testDAOImpl = new TestDAOImpl();
+        testDAOImpl = new TestDAOImpl();
         AspectJProxyFactory factory = new AspectJProxyFactory(testDAOImpl);
         factory.addAspect(batchCacheAspect);
         factory.addAspect(batchCacheEvictAspect);
@@ -56,6 +61,18 @@ public class BatchCacheEvictTests
         assertNull(cacheClient.get("all-companies"));
     }
 
+    @Test
+    public void evictAllOfPlainKeyOnlyDeletes()
+    {
+        testDAO.getAllCompanies();
+        long requests = cacheClient.getStats().requestCount();
+
+        // No paged method uses the key, so there is no manifest to look for.
+        testDAO.clearAllCompanies();
+        assertEquals(requests, cacheClient.getStats().requestCount());
+        assertNull(cacheClient.get("all-companies"));
+    }
+
     @Test
     public void evictMultipleKeys()
     {
@@ -336,12 +353,113 @@ public class BatchCacheEvictTests
         assertNull(cacheClient.get("transform-13"));
     }
 
+    @Test
+    public void evictGenerationalNamespace()
+    {
+        testDAO.getVersionedCompanies(List.of(1L, 2L, 3L));
+        testDAO.getVersionedCompanies(List.of(1L, 2L, 3L));
+        assertEquals(1, testDAOImpl.versionedLoads.size());
+
+        // Single entries are still evicted in the current generation
+        testDAO.deleteVersioned(2L);
+        testDAO.getVersionedCompanies(List.of(1L, 2L, 3L));
+        assertEquals(2, testDAOImpl.versionedLoads.size());
+        assertEquals(List.of(2L), testDAOImpl.versionedLoads.get(1));
+
+        // A no argument evict drops the whole namespace by bumping its generation
+        testDAO.reloadVersionedCompanies();
+        testDAO.getVersionedCompanies(List.of(1L, 2L, 3L));
+        assertEquals(3, testDAOImpl.versionedLoads.size());
+        assertEquals(List.of(1L, 2L, 3L), testDAOImpl.versionedLoads.get(2));
+    }
+
+    @Test
+    public void generationsDoNotKeepClientReachable() throws Exception
+    {
+        CacheClient discarded = new CacheClientImpl();
+        NamespaceGenerations.forClient(discarded).bump("versioned");
+        WeakReference<CacheClient> reference = new WeakReference<>(discarded);
+        discarded = null;
+
+        for (int i = 0; i < 50 && reference.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void evictionScopeDefersAndDeduplicates()
+    {
+        testDAO.getCompanies(new int[]{1, 2, 3});
+
+        try (EvictionScope scope = EvictionScope.open())
+        {
+            testDAO.delete(1);
+            testDAO.delete(1);
+            testDAO.refresh(new Integer[]{1, 2, 3});
+            assertNotNull(cacheClient.get("company-1"));
+            assertNotNull(cacheClient.get("company-3"));
+        }
+
+        assertNull(cacheClient.get("company-1"));
+        assertNull(cacheClient.get("company-2"));
+        assertNull(cacheClient.get("company-3"));
+        assertEquals(1, cacheClient.getBulkDeletes());
+    }
+
+    @Test
+    public void evictionScopeFlushesOnError()
+    {
+        testDAO.getCompanies(new int[]{1, 2, 3});
+
+        try (EvictionScope scope = EvictionScope.open())
+        {
+            testDAO.delete(2);
+            throw new IllegalStateException("Unit of work failed");
+        }
+        catch (IllegalStateException e)
+        {
+            assertFalse(EvictionScope.isActive());
+        }
+
+        assertNotNull(cacheClient.get("company-1"));
+        assertNull(cacheClient.get("company-2"));
+    }
+
     @Test
     public void handleNull()
     {
         testDAO.handleNull(null);
 //        assertNotNull(cacheClient.get("transform-11"));
     }
+
+    @Test
+    public void validateEvictAnnotations()
+    {
+        BatchCacheEvictAspect batchCacheEvictAspect = new BatchCacheEvictAspect(cacheClient);
+        assertTrue(batchCacheEvictAspect.validate(TestDAOImpl.class) > 0);
+
+        try
+        {
+            batchCacheEvictAspect.validate(InvalidEvictDAO.class);
+            throw new AssertionError("Expected invalid annotations");
+        }
+        catch (IllegalStateException e)
+        {
+            assertTrue(e.getMessage().contains("no accessor for field 'code'"));
+        }
+    }
+
+    static class InvalidEvictDAO
+    {
+        @BatchCacheEvict(key = "company", field = "code")
+        public void deleteCompanies(List<TestCompany> companies)
+        {
+        }
+    }
+
 /*
         void clearTransformation(TestObjectBefore testObject);
         void clearTransformations(Collection<TestObjectBefore> testObjects);
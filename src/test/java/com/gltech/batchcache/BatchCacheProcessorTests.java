@@ -0,0 +1,200 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import com.gltech.batchcache.TestDAOImpl.TestDateObj;
+import com.gltech.batchcache.TestDAOImpl.TestObjectAfter;
+import com.gltech.batchcache.TestDAOImpl.TestObjectBefore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchCacheProcessorTests
+{
+    private CacheClientImpl cacheClient;
+    private TestDAO testDAO;
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+        testDAO = new TestDAOImplBatchCache(new BatchCacheTemplate(cacheClient));
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void generatedSingleLookup()
+    {
+        assertEquals("Super Company 1", testDAO.getCompany(1).getName());
+        assertEquals(0, cacheClient.getStats().hitCount());
+
+        // Every id type of the same key prefix shares the cached entry
+        assertEquals("Super Company 1", testDAO.getCompany(Long.valueOf(1)).getName());
+        assertEquals(1, cacheClient.getStats().hitCount());
+    }
+
+    @Test
+    public void generatedValuesLookup()
+    {
+        List<TestCompany> companies = testDAO.getCompaniesLong(List.of(1L, 2L));
+        assertEquals(2, companies.size());
+        assertEquals(0, cacheClient.getStats().hitCount());
+
+        companies = testDAO.getCompaniesLong(List.of(1L, 2L, 3L));
+        assertEquals(3, companies.size());
+        assertEquals(2, cacheClient.getStats().hitCount());
+        assertEquals("Super Company 2", ((TestCompany) cacheClient.get("company-2")).getName());
+    }
+
+    @Test
+    public void generatedMapLookup()
+    {
+        Map<Long, TestCompany> companies = testDAO.getCompaniesMapLong(List.of(1L, 2L));
+        assertEquals(2, companies.size());
+
+        companies = testDAO.getCompaniesMapLong(List.of(2L, 3L));
+        assertEquals(2, companies.size());
+        assertEquals("Super Company 3", companies.get(3L).getName());
+        assertEquals(1, cacheClient.getStats().hitCount());
+    }
+
+    @Test
+    public void generatedSetLookup()
+    {
+        Set<TestCompany> companies = testDAO.getCompaniesString(List.of("1", "2", "3"));
+        assertEquals(3, cacheClient.getStats().missCount());
+        assertEquals(3, companies.size());
+
+        companies = testDAO.getCompaniesString(List.of("1", "2", "3"));
+        assertEquals(3, cacheClient.getStats().hitCount());
+        assertEquals(3, companies.size());
+    }
+
+    @Test
+    public void generatedObjectIdLookup()
+    {
+        List<TestObjectBefore> testBeforeObjects = List.of(new TestObjectBefore(1L), new TestObjectBefore(2L), new TestObjectBefore(3L));
+
+        List<TestObjectAfter> testAfterObjects = testDAO.transformObjectMatchingIds(testBeforeObjects);
+        assertEquals(3, cacheClient.getStats().missCount());
+        assertEquals(3, testAfterObjects.size());
+
+        testAfterObjects = testDAO.transformObjectMatchingIds(testBeforeObjects);
+        assertEquals(3, cacheClient.getStats().hitCount());
+        assertEquals(3, testAfterObjects.size());
+    }
+
+    @Test
+    public void generatedEvictThenLookup()
+    {
+        testDAO.getCompany(1);
+        assertEquals(1, cacheClient.getStats().missCount());
+
+        testDAO.delete(1);
+        assertNull(cacheClient.get("company-1"));
+
+        testDAO.getCompany(1);
+        assertEquals(3, cacheClient.getStats().missCount());
+        assertEquals(0, cacheClient.getStats().hitCount());
+    }
+
+    @Test
+    public void generatedPutThenLookup()
+    {
+        testDAO.getCompany(1);
+        testDAO.update(new TestCompany(1, "Updated Company 1"));
+
+        assertEquals("Updated Company 1", testDAO.getCompany(1).getName());
+        assertEquals(1, cacheClient.getStats().hitCount());
+
+        List<TestCompany> created = testDAO.createCompanies(new long[]{5, 6});
+        assertEquals(2, created.size());
+        assertEquals(created.get(1).getName(), testDAO.getCompany(6).getName());
+        assertEquals(2, cacheClient.getStats().hitCount());
+    }
+
+    @Test
+    public void generatedStringAndDateIds() throws Exception
+    {
+        assertEquals(1, testDAO.getCompany("1").getId());
+        assertEquals(1, testDAO.getCompany(1).getId());
+        assertEquals(1, cacheClient.getStats().hitCount());
+
+        Date date = new SimpleDateFormat("MM/dd/yyyy").parse("2/1/2023");
+        assertEquals(date.getTime(), testDAO.getDateObj(date).getDate().getTime());
+        TestDateObj dateObj = testDAO.getDateObj(date);
+        assertEquals(2, cacheClient.getStats().hitCount());
+
+        testDAO.save(dateObj);
+        assertNull(cacheClient.get("dateobj-" + date.getTime()));
+    }
+
+    @Test
+    public void generatedNullResultIsNotCached()
+    {
+        assertNull(testDAO.getNullParameter("1"));
+        assertNull(testDAO.getNullParameter(null));
+        assertNull(cacheClient.get("test-1"));
+    }
+
+    @Test
+    public void generatedEvictions()
+    {
+        cacheClient.set("all-companies", List.of());
+        testDAO.clearAllCompanies();
+        assertNull(cacheClient.get("all-companies"));
+
+        testDAO.getCompaniesLong(List.of(1L, 2L, 3L));
+        testDAO.clearLongs(List.of(1L));
+        assertNull(cacheClient.get("company-1"));
+        assertNotNull(cacheClient.get("company-2"));
+
+        testDAO.delete(new long[]{2, 3});
+        assertNull(cacheClient.get("company-2"));
+        assertNull(cacheClient.get("company-3"));
+
+        cacheClient.set("testobject-a-13", "toa13");
+        cacheClient.set("testobject-b-13", "tob13");
+        testDAO.evictMultipleKeys(new TestObjectBefore(13));
+        assertNull(cacheClient.get("testobject-a-13"));
+        assertNull(cacheClient.get("testobject-b-13"));
+    }
+
+    @Test
+    public void nativeImageConfigIsGenerated() throws Exception
+    {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(NativeImageConfig.PATH + "reflect-config.json"))
+        {
+            String config = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(config.contains("\"name\": \"com.gltech.batchcache.TestDAOImpl\""));
+            assertTrue(config.contains("{ \"name\": \"getCompaniesLong\", \"parameterTypes\": [\"java.util.Collection\"] }"));
+            assertTrue(config.contains("{ \"name\": \"getSomeId\", \"parameterTypes\": [] }"));
+            assertTrue(config.contains("{ \"name\": \"clearLongs\", \"parameterTypes\": [\"java.util.Collection\"] }"));
+        }
+    }
+
+    @Test
+    public void unsupportedMethodsAreNotCached()
+    {
+        assertEquals(2, testDAO.getCompanies(new long[]{1, 2}).size());
+        assertNull(cacheClient.get("company-1"));
+        assertEquals(0, cacheClient.getStats().hitCount());
+    }
+}
@@ -0,0 +1,88 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BatchCachePutTests
+{
+    private CacheClientImpl cacheClient;
+    private TestDAO testDAO;
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+
+        BatchCacheAspect batchCacheAspect = new BatchCacheAspect(cacheClient);
+        BatchCachePutAspect batchCachePutAspect = new BatchCachePutAspect(cacheClient);
+
+        TestDAO testDAOImpl = new TestDAOImpl();
+        AspectJProxyFactory factory = new AspectJProxyFactory(testDAOImpl);
+        factory.addAspect(batchCacheAspect);
+        factory.addAspect(batchCachePutAspect);
+
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+        cacheClient = null;
+        testDAO = null;
+    }
+
+    @Test
+    public void putObject()
+    {
+        testDAO.getCompany(1);
+        testDAO.update(new TestCompany(1, "Renamed Company 1"));
+
+        TestCompany company = testDAO.getCompany(1);
+        assertEquals("Renamed Company 1", company.getName());
+        assertEquals(1, cacheClient.getStats().hitCount());
+        assertEquals(1, cacheClient.getStats().missCount());
+    }
+
+    @Test
+    public void putCollection()
+    {
+        testDAO.update(List.of(new TestCompany(1, "Renamed Company 1"), new TestCompany(2, "Renamed Company 2")));
+
+        List<TestCompany> companies = testDAO.getCompanies(new int[]{1, 2});
+        assertEquals(2, companies.size());
+        assertEquals(2, cacheClient.getStats().hitCount());
+        assertEquals(0, cacheClient.getStats().missCount());
+    }
+
+    @Test
+    public void putResultArray()
+    {
+        testDAO.createCompanies(new long[]{4, 5, 6});
+
+        Set<TestCompany> companies = testDAO.getCompanies(new long[]{4, 5, 6});
+        assertEquals(3, companies.size());
+        assertEquals(3, cacheClient.getStats().hitCount());
+        assertEquals(0, cacheClient.getStats().missCount());
+        assertEquals("New Company 5", ((TestCompany) cacheClient.get("company-5")).getName());
+    }
+
+    @Test
+    public void putResultMap()
+    {
+        testDAO.createCompaniesMap(List.of(7L, 8L));
+
+        assertEquals("New Company 7", ((TestCompany) cacheClient.get("company-7")).getName());
+        assertEquals("New Company 8", ((TestCompany) cacheClient.get("company-8")).getName());
+        assertNull(cacheClient.get("company-9"));
+    }
+}
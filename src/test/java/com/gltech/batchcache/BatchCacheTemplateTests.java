@@ -0,0 +1,111 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchCacheTemplateTests
+{
+    private CacheClientImpl cacheClient;
+    private BatchCacheTemplate template;
+    private TestDAO testDAO;
+    private List<List<Long>> loads;
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+        template = new BatchCacheTemplate(cacheClient);
+        loads = new ArrayList<>();
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(new TestDAOImpl());
+        factory.addAspect(new BatchCacheAspect(template));
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void getAllLoadsOnlyMissingIds()
+    {
+        Map<Long, String> names = template.getAll("name", List.of(1L, 2L, 3L), this::loadNames);
+        assertEquals(3, names.size());
+        assertEquals("Name 2", names.get(2L));
+        assertEquals(0, cacheClient.getStats().hitCount());
+
+        names = template.getAll("name", List.of(2L, 3L, 4L), this::loadNames);
+        assertEquals(3, names.size());
+        assertEquals("Name 4", names.get(4L));
+        assertEquals(2, cacheClient.getStats().hitCount());
+        assertEquals(List.of(List.of(1L, 2L, 3L), List.of(4L)), loads);
+    }
+
+    @Test
+    public void getAllValuesSharesKeysWithAspect()
+    {
+        BatchCacheTemplate.Options options = new BatchCacheTemplate.Options("company");
+        List<TestCompany> companies = template.getAllValues(options, List.of(1L, 2L), this::loadCompanies);
+        assertEquals(2, companies.size());
+
+        companies = testDAO.getCompaniesLong(List.of(1L, 2L));
+        assertEquals(2, companies.size());
+        assertEquals(2, cacheClient.getStats().hitCount());
+        assertEquals(2, cacheClient.getStats().missCount());
+    }
+
+    @Test
+    public void getLoadsOnce()
+    {
+        BatchCacheTemplate.Options options = new BatchCacheTemplate.Options("company");
+        Function<Long, TestCompany> loader = id -> loadCompanies(List.of(id)).get(0);
+
+        assertEquals("Super Company 7", template.get(options, 7L, loader).getName());
+        assertEquals("Super Company 7", template.get(options, 7L, loader).getName());
+        assertEquals(1, cacheClient.getStats().hitCount());
+        assertEquals(1, loads.size());
+
+        assertEquals("Super Company 7", testDAO.getCompany(7L).getName());
+        assertEquals(2, cacheClient.getStats().hitCount());
+    }
+
+    @Test
+    public void membershipFilterIsSharedWithAspect()
+    {
+        MembershipFilter filter = new MembershipFilter("company", () -> List.of(1L, 2L), 100, 0.001);
+        filter.rebuild();
+        template.addMembershipFilter(filter);
+
+        Map<Long, String> names = template.getAll("company", List.of(1L, 99L), this::loadNames);
+        assertEquals(List.of(1L), List.copyOf(names.keySet()));
+        assertEquals(List.of(List.of(1L)), loads);
+
+        assertEquals(1, testDAO.getCompaniesLong(List.of(2L, 99L)).size());
+        assertEquals(2, filter.getRejectedCount());
+    }
+
+    private Map<Long, String> loadNames(List<Long> ids)
+    {
+        loads.add(ids);
+        return ids.stream().collect(Collectors.toMap(id -> id, id -> "Name " + id));
+    }
+
+    private List<TestCompany> loadCompanies(List<Long> ids)
+    {
+        loads.add(ids);
+        return ids.stream().map(id -> new TestCompany(id, "Super Company " + id)).collect(Collectors.toList());
+    }
+}
@@ -4,6 +4,9 @@ import com.gltech.batchcache.TestDAOImpl.TestCompany;
 import com.gltech.batchcache.TestDAOImpl.TestDateObj;
 import com.gltech.batchcache.TestDAOImpl.TestObjectAfter;
 import com.gltech.batchcache.TestDAOImpl.TestObjectBefore;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,16 +14,35 @@ import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class BatchCacheTests
 {
     private CacheClientImpl cacheClient;
+    private BatchCacheAspect batchCacheAspect;
+    private TestDAOImpl testDAOImpl;
     private TestDAO testDAO;
 
     //todo: test for null returns for each method.
@@ -30,10 +52,10 @@ public class BatchCacheTests
     {
         cacheClient = new CacheClientImpl();
 
-        BatchCacheAspect batchCacheAspect = new BatchCacheAspect(cacheClient);
+        batchCacheAspect = new BatchCacheAspect(cacheClient);
         BatchCacheEvictAspect batchCacheEvictAspect = new BatchCacheEvictAspect(cacheClient);
 
-        TestDAO testDAOImpl = new TestDAOImpl();
+        testDAOImpl = new TestDAOImpl();
         AspectJProxyFactory factory = new AspectJProxyFactory(testDAOImpl);
         factory.addAspect(batchCacheAspect);
         factory.addAspect(batchCacheEvictAspect);
@@ -552,4 +574,333 @@ public class BatchCacheTests
         assertEquals(3, testAfterObjects.size());
         assertEquals(2, testAfterObjects.get(new TestObjectBefore(2L)).getSomeId());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void refreshAheadReturnsStaleAndReloadsInOneBatch() throws Exception
+    {
+        List<TestCompany> companies = testDAO.getRefreshingCompanies(List.of(1L, 2L, 3L));
+        assertEquals(3, companies.size());
+        assertEquals(1, testDAOImpl.refreshingLoads.size());
+        long firstWrite = ((CacheEntry) cacheClient.get("refreshing-1")).getWriteTime();
+
+        // Fresh entries are served from cache without a refresh
+        testDAO.getRefreshingCompanies(List.of(1L, 2L, 3L));
+        assertEquals(1, testDAOImpl.refreshingLoads.size());
+
+        Thread.sleep(150);
+
+        // Stale entries are still returned right away, then reloaded together in the background
+        companies = testDAO.getRefreshingCompanies(List.of(1L, 2L));
+        testDAO.getRefreshingCompanies(List.of(3L));
+        assertEquals(2, companies.size());
+
+        for (int i = 0; i < 100 && testDAOImpl.refreshingLoads.size() < 2; i++)
+        {
+            Thread.sleep(20);
+        }
+
+        assertEquals(2, testDAOImpl.refreshingLoads.size());
+        assertEquals(Set.of(1L, 2L, 3L), Set.copyOf(testDAOImpl.refreshingLoads.get(1)));
+        assertTrue(((CacheEntry) cacheClient.get("refreshing-1")).getWriteTime() > firstWrite);
+    }
+
+    @Test
+    public void rejectedRefreshIsQueuedAgain() throws Exception
+    {
+        AtomicInteger rejections = new AtomicInteger();
+        batchCacheAspect.setRefreshExecutor(runnable ->
+        {
+            if (rejections.getAndIncrement() == 0)
+            {
+                throw new RejectedExecutionException("Saturated");
+            }
+            runnable.run();
+        });
+
+        testDAO.getRefreshingCompanies(List.of(1L));
+        Thread.sleep(150);
+
+        // The first refresh is rejected, which must not leave the key marked as being refreshed
+        for (int i = 0; i < 100 && testDAOImpl.refreshingLoads.size() < 2; i++)
+        {
+            testDAO.getRefreshingCompanies(List.of(1L));
+            Thread.sleep(20);
+        }
+
+        assertEquals(2, testDAOImpl.refreshingLoads.size());
+    }
+
+    @Test
+    public void plainBatchReadsRefreshAheadEntries()
+    {
+        testDAO.getRefreshingCompanies(List.of(1L, 2L));
+        assertTrue(cacheClient.get("refreshing-1") instanceof CacheEntry);
+
+        List<TestCompany> companies = testDAO.getPlainRefreshingCompanies(List.of(1L, 2L, 3L));
+        assertEquals(3, companies.size());
+        assertEquals("Super Company 1", companies.get(0).getName());
+        assertEquals("Plain Company 3", companies.get(2).getName());
+    }
+
+    @Test
+    public void membershipFilterSkipsUnknownIds()
+    {
+        MembershipFilter filter = new MembershipFilter("guarded", () -> List.of(1L, 2L, 3L), 100, 0.001);
+        filter.rebuild();
+        batchCacheAspect.addMembershipFilter(filter);
+
+        List<TestCompany> companies = testDAO.getGuardedCompanies(List.of(1L, 2L, 99L));
+        assertEquals(2, companies.size());
+        assertEquals(List.of(1L, 2L), testDAOImpl.guardedLoads.get(0));
+        assertEquals(1, filter.getRejectedCount());
+
+        // Unknown ids never reach the cache or the loader
+        testDAO.getGuardedCompanies(List.of(99L));
+        assertEquals(1, testDAOImpl.guardedLoads.size());
+        assertEquals(2, filter.getRejectedCount());
+
+        // Once added, the id is loaded like any other
+        filter.add(99L);
+        companies = testDAO.getGuardedCompanies(List.of(99L));
+        assertEquals(1, companies.size());
+        assertEquals(List.of(99L), testDAOImpl.guardedLoads.get(1));
+    }
+
+    @Test
+    public void membershipFilterKeepsIdsAddedDuringRebuild() throws Exception
+    {
+        // Ids are stored before they are added, as a write through @BatchCachePut would.
+        Set<Long> stored = ConcurrentHashMap.newKeySet();
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger builds = new AtomicInteger();
+        MembershipFilter filter = new MembershipFilter("guarded", () ->
+        {
+            List<Long> ids = new ArrayList<>(stored);
+            if (builds.incrementAndGet() == 1)
+            {
+                reading.countDown();
+                try
+                {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return ids;
+        }, 100, 0.001);
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try
+        {
+            // A slow rebuild, overlapped by a second one, while an id is added.
+            CompletableFuture<Void> first = filter.rebuildAsync(executor);
+            reading.await(5, TimeUnit.SECONDS);
+            CompletableFuture<Void> second = filter.rebuildAsync(executor);
+            try
+            {
+                // Rebuilds take turns, so the second one waits for the first.
+                second.get(200, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                // Expected
+            }
+            stored.add(7L);
+            filter.add(7L);
+            release.countDown();
+            CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertTrue(filter.isReady());
+        assertTrue(filter.mightContain(7L));
+    }
+
+    @Test
+    public void bloomFilterDoesNotGrowOnRepeatedKeys()
+    {
+        BloomFilter filter = new BloomFilter(10, 0.01);
+        for (int i = 0; i < 100; i++)
+        {
+            filter.put("guarded-" + (i % 5));
+        }
+
+        assertEquals(1, filter.getLayerCount());
+        assertTrue(filter.mightContain("guarded-4"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void membershipFilterRebuildsAreScheduledOnce()
+    {
+        MembershipFilter filter = new MembershipFilter("guarded", () -> List.of(1L, 2L, 3L), 100, 0.001);
+        filter.rebuildEvery(1, TimeUnit.HOURS);
+        filter.rebuildEvery(1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void partialMissLoadRunsRestOfAdviceChain()
+    {
+        testDAO.getCompaniesLong(List.of(1L, 2L));
+
+        RecordingAspect recordingAspect = new RecordingAspect();
+        AspectJProxyFactory factory = new AspectJProxyFactory(testDAOImpl);
+        factory.addAspect(batchCacheAspect);
+        factory.addAspect(recordingAspect);
+        TestDAO recordedDAO = factory.getProxy();
+
+        List<Long> ids = new ArrayList<>(List.of(1L, 2L, 3L));
+        List<TestCompany> companies = recordedDAO.getCompaniesLong(ids);
+
+        assertEquals(3, companies.size());
+        assertEquals(List.of(List.of(3L)), recordingAspect.calls);
+        assertEquals(List.of(1L, 2L, 3L), ids);
+    }
+
+    @Test
+    public void streamLoadsMissesOneWindowAtATime()
+    {
+        List<TestCompany> companies = testDAO.streamCompanies(LongStream.rangeClosed(1, 5).boxed().iterator()).collect(Collectors.toList());
+        assertEquals(5, companies.size());
+        assertEquals(List.of(List.of(1L, 2L), List.of(3L, 4L), List.of(5L)), testDAOImpl.streamedLoads);
+
+        // Cached ids are streamed from cache, only the new id is loaded
+        companies = testDAO.streamCompanies(LongStream.rangeClosed(1, 6).boxed()).collect(Collectors.toList());
+        assertEquals(6, companies.size());
+        assertEquals(List.of(6L), testDAOImpl.streamedLoads.get(3));
+
+        // Windows are only read as the stream is consumed
+        companies = testDAO.streamCompanies(LongStream.rangeClosed(7, 1_000_000).boxed()).limit(2).collect(Collectors.toList());
+        assertEquals(2, companies.size());
+        assertEquals(5, testDAOImpl.streamedLoads.size());
+        assertEquals(List.of(7L, 8L), testDAOImpl.streamedLoads.get(4));
+    }
+
+    @Test
+    public void lowHitRatioBypassesLookupUntilSamplesRecover()
+    {
+        batchCacheAspect.setBypassBelowHitRatio(0.5);
+        batchCacheAspect.setBypassSampleEvery(3);
+        List<Long> ids = LongStream.rangeClosed(1, HitRatioTracker.WINDOW_KEYS).boxed().collect(Collectors.toList());
+
+        // A full window of misses turns lookups off
+        testDAO.getCompaniesLong(ids);
+        assertEquals(1, batchCacheAspect.getBypassedMethods().size());
+
+        long requests = cacheClient.getStats().requestCount();
+        assertEquals(ids.size(), testDAO.getCompaniesLong(ids).size());
+        testDAO.getCompaniesLong(ids);
+        assertEquals(requests, cacheClient.getStats().requestCount());
+
+        // The sampled call finds everything cached and turns lookups back on
+        testDAO.getCompaniesLong(ids);
+        assertEquals(requests + ids.size(), cacheClient.getStats().requestCount());
+        assertTrue(batchCacheAspect.getBypassedMethods().isEmpty());
+
+        testDAO.getCompaniesLong(ids);
+        assertEquals(requests + 2L * ids.size(), cacheClient.getStats().requestCount());
+    }
+
+    @Test
+    public void admissionWritesBackOnlyRepeatedKeys()
+    {
+        batchCacheAspect.setAdmissionFrequency(2, 1000);
+
+        // First sight of each key is loaded but not written back
+        assertEquals(3, testDAO.getCompaniesLong(List.of(1L, 2L, 3L)).size());
+        assertEquals(3, batchCacheAspect.getRejectedWrites());
+
+        assertEquals(3, testDAO.getCompaniesLong(List.of(1L, 2L, 3L)).size());
+        assertEquals(0, cacheClient.getStats().hitCount());
+        assertEquals(3, batchCacheAspect.getRejectedWrites());
+
+        assertEquals(3, testDAO.getCompaniesLong(List.of(1L, 2L, 3L)).size());
+        assertEquals(3, cacheClient.getStats().hitCount());
+    }
+
+    @Aspect
+    public static class RecordingAspect
+    {
+        final List<Collection<?>> calls = new CopyOnWriteArrayList<>();
+
+        @Around("execution(* com.gltech.batchcache.TestDAO.getCompaniesLong(..))")
+        public Object record(ProceedingJoinPoint joinPoint) throws Throwable
+        {
+            calls.add(new ArrayList<>((Collection<?>) joinPoint.getArgs()[0]));
+            return joinPoint.proceed();
+        }
+    }
+
+    @Test
+    public void validateReportsEveryInvalidMethod()
+    {
+        try
+        {
+            batchCacheAspect.validate(TestDAOImpl.class, InvalidDAO.class);
+            throw new AssertionError("Expected invalid annotations");
+        }
+        catch (IllegalStateException e)
+        {
+            assertTrue(e.getMessage().contains("transformObjectMismatchingIds"));
+            assertTrue(e.getMessage().contains("getLinkedMap"));
+            assertTrue(e.getMessage().contains("getName"));
+            assertTrue(e.getMessage().contains("iterateCompanies"));
+            assertEquals(5, e.getMessage().split("\n").length);
+        }
+    }
+
+    @Test
+    public void validateBuildsPlans()
+    {
+        assertEquals(2, batchCacheAspect.validate(ValidDAO.class));
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(new ValidDAO());
+        factory.addAspect(batchCacheAspect);
+        ValidDAO validDAO = factory.getProxy();
+
+        assertEquals("Company 1", validDAO.getNames(List.of(1L)).get(1L));
+        assertEquals("Company 1", validDAO.getNames(List.of(1L)).get(1L));
+        assertEquals(1, cacheClient.getStats().hitCount());
+    }
+
+    static class ValidDAO
+    {
+        @BatchCache(key = "company")
+        public Map<Long, String> getNames(Collection<Long> ids)
+        {
+            return ids.stream().collect(Collectors.toMap(id -> id, id -> "Company " + id));
+        }
+
+        @BatchCache(key = "company")
+        public List<TestCompany> getCompanies(Long[] ids)
+        {
+            return List.of();
+        }
+    }
+
+    static class InvalidDAO
+    {
+        @BatchCache(key = "company")
+        public LinkedHashMap<Long, TestCompany> getLinkedMap(Long[] ids)
+        {
+            return new LinkedHashMap<>();
+        }
+
+        @BatchCache(key = "company")
+        public String getName(Collection<Long> ids)
+        {
+            return "";
+        }
+
+        @BatchCache(key = "company")
+        public List<TestCompany> iterateCompanies(Iterator<Long> ids)
+        {
+            return List.of();
+        }
+    }
+}
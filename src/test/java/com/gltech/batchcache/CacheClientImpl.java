@@ -3,6 +3,7 @@ package com.gltech.batchcache;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.DefaultSerializers;
 import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
 import com.esotericsoftware.kryo.util.Pool;
 import com.github.benmanes.caffeine.cache.Cache;
@@ -12,9 +13,12 @@ import org.objenesis.strategy.StdInstantiatorStrategy;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -23,6 +27,7 @@ public class CacheClientImpl implements CacheClient
 {
     private final Cache<String, byte[]> cache;
     private final Pool<Kryo> kryoPool;
+    private int bulkDeletes;
 
     public CacheClientImpl()
     {
@@ -37,6 +42,7 @@ public class CacheClientImpl implements CacheClient
                 kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
                 kryo.setRegistrationRequired(false);
                 kryo.setReferences(true);
+                kryo.addDefaultSerializer(UUID.class, new DefaultSerializers.UUIDSerializer());
                 return kryo;
             }
         };
@@ -48,13 +54,31 @@ public class CacheClientImpl implements CacheClient
     }
 
     public void set(String key, Object value)
+    {
+        cache.put(key, serialize(value));
+    }
+
+    public boolean replace(String key, Object expected, Object value)
+    {
+        byte[] expectedBytes = serialize(expected);
+        byte[] bytes = serialize(value);
+        boolean[] replaced = new boolean[1];
+        cache.asMap().computeIfPresent(key, (k, current) ->
+        {
+            replaced[0] = Arrays.equals(current, expectedBytes);
+            return replaced[0] ? bytes : current;
+        });
+        return replaced[0];
+    }
+
+    private byte[] serialize(Object value)
     {
         Kryo kryo = kryoPool.obtain();
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream(); Output output = new Output(baos))
         {
             kryo.writeClassAndObject(output, value);
             output.flush();
-            cache.put(key, baos.toByteArray());
+            return baos.toByteArray();
         }
         catch (IOException e)
         {
@@ -141,6 +165,17 @@ public class CacheClientImpl implements CacheClient
         cache.invalidate(key);
     }
 
+    public void delete(Collection<String> keys)
+    {
+        bulkDeletes++;
+        cache.invalidateAll(keys);
+    }
+
+    public int getBulkDeletes()
+    {
+        return bulkDeletes;
+    }
+
     public void delete(String keyPrefix, Object id)
     {
         cache.invalidate(keyPrefix + "-" + id);
@@ -0,0 +1,100 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheEventsTests
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CacheClientImpl cacheClient;
+    private TestDAO testDAO;
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(new TestDAOImpl());
+        factory.addAspect(new BatchCacheAspect(cacheClient));
+        factory.addAspect(new BatchCacheEvictAspect(cacheClient));
+
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void eventsAreRecordedWhenEnabled() throws Exception
+    {
+        Path file = folder.newFile("batchcache.jfr").toPath();
+        try (Recording recording = new Recording())
+        {
+            recording.enable("com.gltech.batchcache.Lookup");
+            recording.enable("com.gltech.batchcache.Load");
+            recording.enable("com.gltech.batchcache.WriteBack");
+            recording.enable("com.gltech.batchcache.Evict");
+            recording.start();
+
+            testDAO.getCompaniesLong(List.of(1L, 2L));
+            testDAO.getCompaniesLong(List.of(1L, 2L, 3L));
+            testDAO.save(new TestCompany(1L, "Super Company 1"));
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<String, List<RecordedEvent>> events = RecordingFile.readAllEvents(file).stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+
+        List<RecordedEvent> lookups = events.get("com.gltech.batchcache.Lookup");
+        assertEquals(2, lookups.size());
+        assertEquals("company", lookups.get(1).getString("key"));
+        assertEquals(3, lookups.get(1).getInt("keys"));
+        assertEquals(2, lookups.get(1).getInt("hits"));
+        assertTrue(lookups.get(1).getString("method").endsWith(".getCompaniesLong"));
+
+        List<RecordedEvent> loads = events.get("com.gltech.batchcache.Load");
+        assertEquals(2, loads.size());
+        assertEquals(1, loads.get(1).getInt("ids"));
+
+        assertEquals(2, events.get("com.gltech.batchcache.WriteBack").size());
+        assertEquals(1, events.get("com.gltech.batchcache.Evict").get(0).getInt("keys"));
+    }
+
+    @Test
+    public void eventsAreDisabledByDefault() throws Exception
+    {
+        Path file = folder.newFile("default.jfr").toPath();
+        try (Recording recording = new Recording())
+        {
+            recording.start();
+            testDAO.getCompaniesLong(List.of(1L, 2L));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        assertTrue(RecordingFile.readAllEvents(file).stream().noneMatch(event -> event.getEventType().getName().startsWith("com.gltech.batchcache")));
+    }
+}
@@ -0,0 +1,84 @@
+package com.gltech.batchcache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheWarmerTests
+{
+    private CacheClientImpl cacheClient;
+    private TestDAO testDAO;
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(new TestDAOImpl());
+        factory.addAspect(new BatchCacheAspect(cacheClient));
+
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void warmInChunks()
+    {
+        List<Long> ids = LongStream.rangeClosed(1, 25).boxed().collect(Collectors.toList());
+        CacheWarmer<Long> warmer = new CacheWarmer<>(chunk -> testDAO.getCompanies(chunk.stream().mapToLong(Long::longValue).toArray()), 10, 0);
+
+        warmer.warm(ids);
+        assertTrue(warmer.isComplete());
+        assertEquals(25, warmer.getProcessed());
+        assertEquals(1.0, warmer.getFillRatio(), 0);
+        assertEquals(25, cacheClient.getStats().missCount());
+
+        testDAO.getCompanies(new long[]{1, 12, 25});
+        assertEquals(3, cacheClient.getStats().hitCount());
+        assertEquals(25, cacheClient.getStats().missCount());
+    }
+
+    @Test
+    public void warmAsyncIsRateLimited() throws Exception
+    {
+        List<Long> ids = LongStream.rangeClosed(1, 40).boxed().collect(Collectors.toList());
+        CacheWarmer<Long> warmer = new CacheWarmer<>(testDAO::getCompaniesLong, 10, 200);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try
+        {
+            long start = System.nanoTime();
+            CompletableFuture<Void> future = warmer.warmAsync(ids, executor);
+
+            assertTrue(warmer.awaitFillRatio(0.5, 5, TimeUnit.SECONDS));
+            future.get(5, TimeUnit.SECONDS);
+
+            assertFalse(warmer.isRunning());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+            assertTrue(warmer.getThroughput() <= 250);
+            assertEquals(40, cacheClient.getStats().missCount());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
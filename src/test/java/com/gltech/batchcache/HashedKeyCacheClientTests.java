@@ -0,0 +1,74 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class HashedKeyCacheClientTests
+{
+    private CacheClientImpl cacheClient;
+    private HashedKeyCacheClient hashedKeyCacheClient;
+    private TestDAO testDAO;
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+        hashedKeyCacheClient = new HashedKeyCacheClient(cacheClient, HashedKeyCacheClient.Mode.ID, 9, true);
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(new TestDAOImpl());
+        factory.addAspect(new BatchCacheAspect(hashedKeyCacheClient));
+        factory.addAspect(new BatchCacheEvictAspect(hashedKeyCacheClient));
+
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void longKeysAreHashed()
+    {
+        assertEquals("company-1", hashedKeyCacheClient.hashKey("company-1"));
+        assertEquals("company-".length() + 22, hashedKeyCacheClient.hashKey("company-a-very-long-string-id-that-keeps-going").length());
+
+        HashedKeyCacheClient wholeKey = new HashedKeyCacheClient(cacheClient, HashedKeyCacheClient.Mode.KEY, 0, false);
+        assertEquals(22, wholeKey.hashKey("company-1").length());
+    }
+
+    @Test
+    public void aspectReadsThroughHashedKeys()
+    {
+        testDAO.getCompaniesLong(List.of(100L, 200L));
+        List<TestCompany> companies = testDAO.getCompaniesLong(List.of(100L, 200L));
+        assertEquals(2, companies.size());
+        assertEquals(2, cacheClient.getStats().hitCount());
+
+        assertNotNull(cacheClient.get(hashedKeyCacheClient.hashKey("company-100")));
+        assertNull(cacheClient.get("company-100"));
+
+        testDAO.save(new TestCompany(100L, "Super Company 100"));
+        assertNull(hashedKeyCacheClient.get("company-100"));
+    }
+
+    @Test
+    public void collisionIsTreatedAsMiss()
+    {
+        String hashedKey = hashedKeyCacheClient.hashKey("company-100");
+        cacheClient.set(hashedKey, new HashedKeyCacheClient.KeyedValue("company-other", "other value"));
+
+        assertNull(hashedKeyCacheClient.get("company-100"));
+        assertEquals(0, hashedKeyCacheClient.get(List.of("company-100")).size());
+    }
+}
@@ -0,0 +1,127 @@
+package com.gltech.batchcache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HedgedCacheClientTests
+{
+    private CacheClientImpl store;
+    private SlowCacheClient slowCacheClient;
+
+    @Before
+    public void setUp()
+    {
+        store = new CacheClientImpl();
+        slowCacheClient = new SlowCacheClient(store);
+        store.set("company-1", "Super Company 1");
+        store.set("company-2", "Super Company 2");
+    }
+
+    @After
+    public void tearDown()
+    {
+        store.clearAll();
+    }
+
+    @Test
+    public void slowReadIsHedged()
+    {
+        HedgedCacheClient hedgedCacheClient = new HedgedCacheClient(slowCacheClient, store, 0.95, 20, 0.5);
+        slowCacheClient.delayMillis = 1000;
+
+        long start = System.currentTimeMillis();
+        Map<String, Object> values = hedgedCacheClient.get(List.of("company-1", "company-2"));
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertEquals(2, values.size());
+        assertEquals(1, hedgedCacheClient.getHedges());
+        assertEquals(1, hedgedCacheClient.getHedgeWins());
+    }
+
+    @Test
+    public void fastReadIsNotHedged()
+    {
+        HedgedCacheClient hedgedCacheClient = new HedgedCacheClient(slowCacheClient, store, 0.95, 200, 0.5);
+
+        assertEquals("Super Company 1", hedgedCacheClient.get("company-1"));
+        assertEquals(1, hedgedCacheClient.getRequests());
+        assertEquals(0, hedgedCacheClient.getHedges());
+    }
+
+    @Test
+    public void hedgesAreCapped()
+    {
+        HedgedCacheClient hedgedCacheClient = new HedgedCacheClient(slowCacheClient, store, 0.95, 5, 0.01);
+        slowCacheClient.delayMillis = 30;
+
+        for (int i = 0; i < 15; i++)
+        {
+            assertEquals("Super Company 1", hedgedCacheClient.get("company-1"));
+        }
+
+        assertEquals(15, hedgedCacheClient.getRequests());
+        assertEquals(10, hedgedCacheClient.getHedges());
+    }
+
+    static class SlowCacheClient implements CacheClient
+    {
+        private final CacheClient cacheClient;
+        volatile long delayMillis;
+
+        SlowCacheClient(CacheClient cacheClient)
+        {
+            this.cacheClient = cacheClient;
+        }
+
+        private void pause()
+        {
+            try
+            {
+                Thread.sleep(delayMillis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void set(String key, Object value)
+        {
+            cacheClient.set(key, value);
+        }
+
+        public void set(Map<String, Object> objectMap)
+        {
+            cacheClient.set(objectMap);
+        }
+
+        public Object get(String key)
+        {
+            pause();
+            return cacheClient.get(key);
+        }
+
+        public Map<String, Object> get(List<String> keys)
+        {
+            pause();
+            return cacheClient.get(keys);
+        }
+
+        public void delete(String key)
+        {
+            cacheClient.delete(key);
+        }
+
+        public void delete(Collection<String> keys)
+        {
+            cacheClient.delete(keys);
+        }
+    }
+}
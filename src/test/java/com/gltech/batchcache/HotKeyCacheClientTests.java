@@ -0,0 +1,105 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HotKeyCacheClientTests
+{
+    private CacheClientImpl cacheClient;
+    private HotKeyCacheClient hotKeyCacheClient;
+    private TestDAO testDAO;
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+        hotKeyCacheClient = new HotKeyCacheClient(cacheClient, 2, 60_000, 3);
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(new TestDAOImpl());
+        factory.addAspect(new BatchCacheAspect(hotKeyCacheClient));
+        factory.addAspect(new BatchCacheEvictAspect(hotKeyCacheClient));
+
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void hotKeysAreServedInProcess()
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            testDAO.getCompaniesLong(List.of(1L, 2L, 3L));
+        }
+        testDAO.getCompaniesLong(List.of(1L));
+        long remoteRequests = cacheClient.getStats().requestCount();
+
+        // Keys read three times are pinned, so further reads skip the wrapped client
+        for (int i = 0; i < 5; i++)
+        {
+            List<TestCompany> companies = testDAO.getCompaniesLong(List.of(1L));
+            assertEquals(1, companies.size());
+        }
+
+        assertEquals(remoteRequests, cacheClient.getStats().requestCount());
+        assertEquals(5, hotKeyCacheClient.getPinnedHits());
+        assertEquals(2, hotKeyCacheClient.getHotKeys().size());
+        assertEquals("company-1", hotKeyCacheClient.getHotKeys().keySet().iterator().next());
+    }
+
+    @Test
+    public void evictDropsPin()
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            testDAO.getCompany(1L);
+        }
+        assertTrue(hotKeyCacheClient.getHotKeys().containsKey("company-1"));
+
+        testDAO.save(new TestCompany(1L, "Super Company 1"));
+        assertTrue(hotKeyCacheClient.getHotKeys().isEmpty());
+    }
+
+    @Test
+    public void deleteDuringReadPreventsPin()
+    {
+        HotKeyCacheClient[] racingClient = new HotKeyCacheClient[1];
+        CacheClientImpl slowClient = new CacheClientImpl()
+        {
+            @Override
+            public Object get(String key)
+            {
+                Object value = super.get(key);
+                // Another caller deletes the key while this read is still on its way back.
+                if (getStats().requestCount() == 3)
+                {
+                    racingClient[0].delete(key);
+                }
+                return value;
+            }
+        };
+        racingClient[0] = new HotKeyCacheClient(slowClient, 2, 60_000, 3);
+        racingClient[0].set("company-1", new TestCompany(1L, "Super Company 1"));
+
+        for (int i = 0; i < 3; i++)
+        {
+            racingClient[0].get("company-1");
+        }
+
+        assertTrue(racingClient[0].getHotKeys().isEmpty());
+        assertNull(racingClient[0].get("company-1"));
+    }
+}
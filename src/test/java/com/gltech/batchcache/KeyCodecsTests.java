@@ -0,0 +1,103 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestTenant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.time.DayOfWeek;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class KeyCodecsTests
+{
+    private CacheClientImpl cacheClient;
+    private TestDAOImpl testDAOImpl;
+    private TestDAO testDAO;
+
+    record OrderLineId(long orderId, int line, DayOfWeek day)
+    {
+    }
+
+    record NameId(String first, String last)
+    {
+    }
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+
+        testDAOImpl = new TestDAOImpl();
+        AspectJProxyFactory factory = new AspectJProxyFactory(testDAOImpl);
+        factory.addAspect(new BatchCacheAspect(cacheClient));
+
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+        KeyCodecs.unregister(DayOfWeek.class);
+        KeyCodecs.unregister(OrderLineId.class);
+        KeyCodecs.unregister(NameId.class);
+    }
+
+    @Test
+    public void uuidKeysAreBase64()
+    {
+        UUID id = UUID.fromString("123e4567-e89b-12d3-a456-426614174000");
+        assertEquals("tenant-Ej5FZ-ibEtOkVkJmFBdAAA", BatchCacheAspect.getKey("tenant", "id", id));
+        assertEquals(16, KeyCodecs.uuidRaw().encode(id).length());
+    }
+
+    @Test
+    public void uuidArrayIsCached()
+    {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        List<TestTenant> tenants = testDAO.getTenants(new UUID[]{first});
+        assertEquals(1, tenants.size());
+
+        tenants = testDAO.getTenants(new UUID[]{first, second});
+        assertEquals(2, tenants.size());
+        assertEquals(List.of(second), testDAOImpl.tenantLoads.get(1));
+        assertNotNull(cacheClient.get(BatchCacheAspect.getKey("tenant", "id", second)));
+    }
+
+    @Test
+    public void enumByNameOrOrdinal()
+    {
+        assertEquals("day-MONDAY", BatchCacheAspect.getKey("day", "id", DayOfWeek.MONDAY));
+
+        KeyCodecs.register(DayOfWeek.class, KeyCodecs.enumOrdinal());
+        assertEquals("day-0", BatchCacheAspect.getKey("day", "id", DayOfWeek.MONDAY));
+    }
+
+    @Test
+    public void recordAsCompositeKey()
+    {
+        KeyCodecs.register(OrderLineId.class, KeyCodecs.composite());
+        assertEquals("line-42:3:FRIDAY", BatchCacheAspect.getKey("line", "id", new OrderLineId(42, 3, DayOfWeek.FRIDAY)));
+    }
+
+    @Test
+    public void compositeKeysDoNotCollide()
+    {
+        KeyCodecs.register(NameId.class, KeyCodecs.composite());
+        List<NameId> ids = List.of(new NameId("a:b", "c"), new NameId("a", "b:c"), new NameId("a\\", ":c"), new NameId("a\\:", "c"),
+                new NameId(null, "c"), new NameId("", "c"), new NameId("\\0", "c"), new NameId("a", null), new NameId("a", ""));
+
+        Set<String> keys = ids.stream().map(id -> BatchCacheAspect.getKey("name", "id", id)).collect(Collectors.toSet());
+        assertEquals(ids.size(), keys.size());
+        assertEquals("name-a\\:b:c", BatchCacheAspect.getKey("name", "id", new NameId("a:b", "c")));
+    }
+}
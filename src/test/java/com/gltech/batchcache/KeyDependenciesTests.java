@@ -0,0 +1,142 @@
+package com.gltech.batchcache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class KeyDependenciesTests
+{
+    private CacheClientImpl cacheClient;
+    private TestDAOImpl testDAOImpl;
+    private TestDAO testDAO;
+    private KeyDependencies dependencies;
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+
+        dependencies = KeyDependencies.forClient(cacheClient);
+
+        testDAOImpl = new TestDAOImpl();
+        AspectJProxyFactory factory = new AspectJProxyFactory(testDAOImpl);
+        factory.addAspect(new BatchCacheAspect(cacheClient));
+        factory.addAspect(new BatchCacheEvictAspect(cacheClient));
+
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void evictCascadesToDependents()
+    {
+        dependencies.register("company", "guarded-{id}", "all-companies");
+        dependencies.register("guarded", "dashboard");
+
+        testDAO.getCompany(1);
+        testDAO.getCompany(2);
+        testDAO.getGuardedCompanies(List.of(1L, 2L));
+        testDAO.getAllCompanies();
+        cacheClient.set("dashboard", "summary");
+
+        testDAO.delete(1);
+
+        assertNull(cacheClient.get("company-1"));
+        assertNull(cacheClient.get("guarded-1"));
+        assertNull(cacheClient.get("all-companies"));
+        assertNull(cacheClient.get("dashboard"));
+        assertNotNull(cacheClient.get("company-2"));
+        assertNotNull(cacheClient.get("guarded-2"));
+    }
+
+    @Test
+    public void evictAllCascadesToDependents()
+    {
+        dependencies.register("all-companies", "dashboard");
+
+        testDAO.getAllCompanies();
+        cacheClient.set("dashboard", "summary");
+
+        testDAO.clearAllCompanies();
+
+        assertNull(cacheClient.get("all-companies"));
+        assertNull(cacheClient.get("dashboard"));
+    }
+
+    @Test
+    public void closureIsResolvedOnce()
+    {
+        dependencies.register("a", "b-{id}");
+        dependencies.register("b", "a-{id}", "x");
+
+        KeyDependencies.Closure closure = dependencies.closure("a");
+        assertSame(closure, dependencies.closure("a"));
+        assertEquals(List.of("a", "b"), closure.getPrefixes());
+        assertEquals(List.of("x"), closure.getKeys());
+
+        dependencies.register("a", "y");
+        assertEquals(Set.of("x", "y"), Set.copyOf(dependencies.closure("a").getKeys()));
+        assertEquals(List.of("a", "b"), dependencies.closure(" a, b ").getPrefixes());
+    }
+
+    @Test
+    public void dependentsKeepTheirOwnGenerationalSetting()
+    {
+        dependencies.register("versioned", "company-{id}", "all-companies");
+
+        testDAO.getCompany(2);
+        testDAO.getAllCompanies();
+        testDAO.deleteVersioned(2);
+
+        assertNull(cacheClient.get("company-2"));
+        assertNull(cacheClient.get("all-companies"));
+        assertNull(cacheClient.get("company@generation"));
+
+        // A no argument eviction only bumps the generational prefix, and deletes the others.
+        testDAO.getAllCompanies();
+        testDAO.reloadVersionedCompanies();
+        assertNull(cacheClient.get("all-companies"));
+        assertNull(cacheClient.get("company@generation"));
+        assertNull(cacheClient.get("all-companies@generation"));
+    }
+
+    @Test
+    public void generationalDependent()
+    {
+        dependencies.register("company", "versioned-{id}");
+        dependencies.setGenerational("versioned", true);
+
+        testDAO.getVersionedCompanies(List.of(1L, 2L));
+        testDAO.delete(2);
+        testDAO.getVersionedCompanies(List.of(1L, 2L));
+
+        assertEquals(2, testDAOImpl.versionedLoads.size());
+        assertEquals(List.of(2L), testDAOImpl.versionedLoads.get(1));
+        assertNull(cacheClient.get("company@generation"));
+    }
+
+    @Test
+    public void dependenciesArePerClient()
+    {
+        dependencies.register("company", "all-companies");
+        assertEquals(List.of("all-companies"), dependencies.closure("company").getKeys());
+        assertEquals(List.of(), KeyDependencies.forClient(new CacheClientImpl()).closure("company").getKeys());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dependentRequiresPrefix()
+    {
+        dependencies.register("company", "-{id}");
+    }
+}
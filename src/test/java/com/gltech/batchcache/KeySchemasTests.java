@@ -0,0 +1,109 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KeySchemasTests
+{
+    private CacheClientImpl cacheClient;
+    private KeySchemas schemas;
+    private TestDAO testDAO;
+
+    static class CompanyV1
+    {
+        long id;
+        String name;
+    }
+
+    static class CompanyV2
+    {
+        long id;
+        String name;
+        List<String> tags;
+    }
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+        schemas = KeySchemas.forClient(cacheClient);
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(new TestDAOImpl());
+        factory.addAspect(new BatchCacheAspect(cacheClient));
+        factory.addAspect(new BatchCacheEvictAspect(cacheClient));
+
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void fingerprintFollowsFields()
+    {
+        assertEquals(KeySchemas.fingerprint(CompanyV1.class), KeySchemas.fingerprint(CompanyV1.class));
+        assertNotEquals(KeySchemas.fingerprint(CompanyV1.class), KeySchemas.fingerprint(CompanyV2.class));
+    }
+
+    @Test
+    public void keysCarryVersion()
+    {
+        schemas.register("company", TestCompany.class);
+        testDAO.getCompany(1);
+
+        assertNull(cacheClient.get("company-1"));
+        assertNotNull(cacheClient.get("company~" + KeySchemas.fingerprint(TestCompany.class) + "-1"));
+    }
+
+    @Test
+    public void newVersionMissesOnce()
+    {
+        schemas.register("company", "1");
+        testDAO.getCompany(1);
+        testDAO.getCompany(1);
+        assertEquals(1, cacheClient.getStats().missCount());
+
+        schemas.register("company", "2");
+        testDAO.getCompany(1);
+        testDAO.getCompany(1);
+        assertEquals(2, cacheClient.getStats().missCount());
+        assertNotNull(cacheClient.get("company~1-1"));
+        assertNotNull(cacheClient.get("company~2-1"));
+    }
+
+    @Test
+    public void evictUsesVersionedKeys()
+    {
+        schemas.register("company", "1");
+        testDAO.getCompany(1);
+        assertNotNull(cacheClient.get("company~1-1"));
+
+        testDAO.delete(1);
+        assertNull(cacheClient.get("company~1-1"));
+    }
+
+    @Test
+    public void versionsArePerClient()
+    {
+        schemas.register("company", "1");
+
+        assertEquals("1", KeySchemas.forClient(cacheClient).getVersion("company"));
+        assertNull(KeySchemas.forClient(new CacheClientImpl()).getVersion("company"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void versionRequired()
+    {
+        schemas.register("company", "");
+    }
+}
@@ -0,0 +1,157 @@
+package com.gltech.batchcache;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.junit.Assert.*;
+
+public class MappedFileCacheClientTests
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private MappedFileCacheClient cacheClient;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = folder.newFolder("cache").toPath();
+        cacheClient = new MappedFileCacheClient(directory, new KryoSerializer(), 1024, 0.5);
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.close();
+    }
+
+    @Test
+    public void setAndGet()
+    {
+        cacheClient.set("company-1", new TestCompany(1, "Super Company 1"));
+        cacheClient.set(Map.of("company-2", new TestCompany(2, "Super Company 2"), "company-3", new TestCompany(3, "Super Company 3")));
+
+        assertEquals(1, ((TestCompany) cacheClient.get("company-1")).getId());
+        assertEquals(3, cacheClient.get(List.of("company-1", "company-2", "company-3", "company-4")).size());
+        assertNull(cacheClient.get("company-4"));
+    }
+
+    @Test
+    public void reopenRebuildsIndex()
+    {
+        cacheClient.set("company-1", new TestCompany(1, "Super Company 1"));
+        cacheClient.set("company-2", new TestCompany(2, "Super Company 2"));
+        cacheClient.set("company-1", new TestCompany(1, "Renamed Company 1"));
+        cacheClient.delete("company-2");
+        cacheClient.close();
+
+        cacheClient = new MappedFileCacheClient(directory, new KryoSerializer(), 1024, 0.5);
+        assertEquals(1, cacheClient.size());
+        assertEquals("Renamed Company 1", ((TestCompany) cacheClient.get("company-1")).getName());
+        assertNull(cacheClient.get("company-2"));
+    }
+
+    @Test
+    public void rollsAndCompactsSegments()
+    {
+        for (int i = 0; i < 200; i++)
+        {
+            cacheClient.set("company-" + (i % 10), new TestCompany(i, "Super Company " + i));
+        }
+
+        cacheClient.compact();
+        assertEquals(1, Objects.requireNonNull(directory.toFile().listFiles((dir, name) -> name.endsWith(".seg"))).length);
+        assertEquals(10, cacheClient.size());
+        assertEquals(199, ((TestCompany) cacheClient.get("company-9")).getId());
+
+        cacheClient.close();
+        cacheClient = new MappedFileCacheClient(directory, new KryoSerializer(), 1024, 0.5);
+        assertEquals(10, cacheClient.size());
+        assertEquals(190, ((TestCompany) cacheClient.get("company-0")).getId());
+    }
+
+    @Test
+    public void replaceOnlyWhenUnchanged()
+    {
+        cacheClient.set("company-1", new TestCompany(1, "Super Company 1"));
+
+        assertTrue(cacheClient.replace("company-1", new TestCompany(1, "Super Company 1"), new TestCompany(1, "Renamed Company 1")));
+        assertFalse(cacheClient.replace("company-1", new TestCompany(1, "Super Company 1"), new TestCompany(1, "Stale Company 1")));
+        assertFalse(cacheClient.replace("company-2", new TestCompany(2, "Super Company 2"), new TestCompany(2, "Renamed Company 2")));
+        assertEquals("Renamed Company 1", ((TestCompany) cacheClient.get("company-1")).getName());
+        assertNull(cacheClient.get("company-2"));
+    }
+
+    @Test
+    public void warmRestartThroughAspect()
+    {
+        TestDAOImpl testDAOImpl = new TestDAOImpl();
+        proxy(testDAOImpl, cacheClient).getGuardedCompanies(List.of(1L, 2L, 3L));
+        cacheClient.close();
+
+        cacheClient = new MappedFileCacheClient(directory, new KryoSerializer(), 1024, 0.5);
+        assertEquals(3, cacheClient.size());
+        assertEquals(3, proxy(testDAOImpl, cacheClient).getGuardedCompanies(List.of(1L, 2L, 3L)).size());
+
+        // Served from the reopened files, not reloaded
+        assertEquals(1, testDAOImpl.guardedLoads.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void directoryOpensInOneClient()
+    {
+        new MappedFileCacheClient(directory, new KryoSerializer(), 1024, 0.5);
+    }
+
+    private static TestDAO proxy(TestDAOImpl testDAOImpl, CacheClient cacheClient)
+    {
+        AspectJProxyFactory factory = new AspectJProxyFactory(testDAOImpl);
+        factory.addAspect(new BatchCacheAspect(cacheClient));
+        return factory.getProxy();
+    }
+
+    private static class KryoSerializer implements CacheSerializer
+    {
+        private final Kryo kryo = new Kryo();
+
+        KryoSerializer()
+        {
+            kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+            kryo.setRegistrationRequired(false);
+        }
+
+        public synchronized byte[] serialize(Object value)
+        {
+            try (Output output = new Output(256, -1))
+            {
+                kryo.writeClassAndObject(output, value);
+                return output.toBytes();
+            }
+        }
+
+        public synchronized Object deserialize(byte[] bytes)
+        {
+            try (Input input = new Input(bytes))
+            {
+                return kryo.readClassAndObject(input);
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PagedResultsTests
+{
+    private CacheClientImpl cacheClient;
+    private PagedDAOImpl pagedDAOImpl;
+    private PagedDAO pagedDAO;
+
+    public interface PagedDAO
+    {
+        List<TestCompany> getCompanies();
+
+        Set<TestCompany> getCompanySet();
+
+        Stream<TestCompany> streamCompanies();
+
+        Iterator<TestCompany> iterateCompanies();
+
+        void clearCompanies();
+    }
+
+    static public class PagedDAOImpl implements PagedDAO
+    {
+        int size = 10;
+        int loads;
+
+        @Override
+        @BatchCache(key = "paged-companies", pageSize = 4)
+        public List<TestCompany> getCompanies()
+        {
+            loads++;
+            return IntStream.range(0, size).mapToObj(id -> new TestCompany(id, "tc" + id)).collect(Collectors.toList());
+        }
+
+        @Override
+        @BatchCache(key = "paged-company-set", pageSize = 4)
+        public Set<TestCompany> getCompanySet()
+        {
+            return new LinkedHashSet<>(getCompanies());
+        }
+
+        @Override
+        @BatchCache(key = "paged-companies", pageSize = 4)
+        public Stream<TestCompany> streamCompanies()
+        {
+            return getCompanies().stream();
+        }
+
+        @Override
+        @BatchCache(key = "paged-companies", pageSize = 4)
+        public Iterator<TestCompany> iterateCompanies()
+        {
+            return getCompanies().iterator();
+        }
+
+        @Override
+        @BatchCacheEvict(key = "paged-companies")
+        public void clearCompanies()
+        {
+        }
+    }
+
+    static public class InvalidPagedDAO
+    {
+        @BatchCache(key = "paged-company", pageSize = 4)
+        public TestCompany getCompany(long id)
+        {
+            return null;
+        }
+
+        @BatchCache(key = "paged-companies", pageSize = 4)
+        public Map<Long, TestCompany> getCompanies()
+        {
+            return null;
+        }
+    }
+
+    @Before
+    public void setUp()
+    {
+        cacheClient = new CacheClientImpl();
+
+        pagedDAOImpl = new PagedDAOImpl();
+        AspectJProxyFactory factory = new AspectJProxyFactory(pagedDAOImpl);
+        factory.addAspect(new BatchCacheAspect(cacheClient));
+        factory.addAspect(new BatchCacheEvictAspect(cacheClient));
+
+        pagedDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        cacheClient.clearAll();
+    }
+
+    @Test
+    public void resultIsStoredInPages()
+    {
+        List<TestCompany> companies = pagedDAO.getCompanies();
+        assertEquals(10, companies.size());
+        assertEquals(1, pagedDAOImpl.loads);
+
+        PageManifest manifest = (PageManifest) cacheClient.get("paged-companies");
+        assertEquals(3, manifest.getPages());
+        assertEquals(10, manifest.getSize());
+        assertEquals(4, ((List) cacheClient.get(manifest.getPageKey(0))).size());
+        assertEquals(2, ((List) cacheClient.get(manifest.getPageKey(2))).size());
+
+        List<TestCompany> cached = pagedDAO.getCompanies();
+        assertEquals(1, pagedDAOImpl.loads);
+        assertEquals(companies.stream().map(TestCompany::getId).collect(Collectors.toList()),
+                cached.stream().map(TestCompany::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void setIsReadFromPages()
+    {
+        assertEquals(10, pagedDAO.getCompanySet().size());
+        assertEquals(10, pagedDAO.getCompanySet().size());
+        assertEquals(1, pagedDAOImpl.loads);
+    }
+
+    @Test
+    public void streamReadsPagesLazily()
+    {
+        pagedDAO.getCompanies();
+        long requests = cacheClient.getStats().requestCount();
+
+        assertEquals(List.of(0L, 1L), pagedDAO.streamCompanies().limit(2).map(TestCompany::getId).collect(Collectors.toList()));
+        // The manifest and the first page.
+        assertEquals(requests + 2, cacheClient.getStats().requestCount());
+
+        assertEquals(10, pagedDAO.streamCompanies().count());
+        assertEquals(1, pagedDAOImpl.loads);
+    }
+
+    @Test
+    public void iteratorReloadsMissingPage()
+    {
+        pagedDAO.getCompanies();
+        PageManifest manifest = (PageManifest) cacheClient.get("paged-companies");
+        cacheClient.delete(manifest.getPageKey(1));
+
+        List<Long> ids = new ArrayList<>();
+        pagedDAO.iterateCompanies().forEachRemaining(company -> ids.add(company.getId()));
+        assertEquals(ids(10), ids);
+        assertEquals(2, pagedDAOImpl.loads);
+
+        // The reload wrote a new set of pages and removed the old ones.
+        assertNull(cacheClient.get(manifest.getPageKey(0)));
+        assertEquals(10, pagedDAO.getCompanies().size());
+        assertEquals(2, pagedDAOImpl.loads);
+    }
+
+    @Test
+    public void evictRemovesPages()
+    {
+        pagedDAO.getCompanies();
+        PageManifest manifest = (PageManifest) cacheClient.get("paged-companies");
+
+        pagedDAO.clearCompanies();
+        assertNull(cacheClient.get("paged-companies"));
+        assertNull(cacheClient.get(manifest.getPageKey(0)));
+
+        pagedDAOImpl.size = 5;
+        assertEquals(5, pagedDAO.getCompanies().size());
+        assertEquals(2, pagedDAOImpl.loads);
+    }
+
+    @Test
+    public void emptyResultIsCached()
+    {
+        pagedDAOImpl.size = 0;
+        assertTrue(pagedDAO.getCompanies().isEmpty());
+        assertTrue(pagedDAO.getCompanies().isEmpty());
+        assertEquals(1, pagedDAOImpl.loads);
+    }
+
+    @Test
+    public void validatePagedMethods()
+    {
+        BatchCacheAspect batchCacheAspect = new BatchCacheAspect(cacheClient);
+        assertEquals(4, batchCacheAspect.validate(PagedDAOImpl.class));
+
+        try
+        {
+            batchCacheAspect.validate(InvalidPagedDAO.class);
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e)
+        {
+            assertTrue(e.getMessage().contains("page size only applies to methods without arguments"));
+            assertTrue(e.getMessage().contains("paged results must be returned as"));
+        }
+    }
+
+    private static List<Long> ids(int size)
+    {
+        return IntStream.range(0, size).mapToObj(Long::valueOf).collect(Collectors.toList());
+    }
+}
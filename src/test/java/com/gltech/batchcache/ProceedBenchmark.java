@@ -0,0 +1,70 @@
+package com.gltech.batchcache;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Compares the two ways BatchCacheAspect can load a partial miss: reflective Method.invoke on the target, and
+ * ProceedingJoinPoint.proceed(Object[]) through the rest of the advice chain.  Not run by the test suite.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=com.gltech.batchcache.ProceedBenchmark -Dexec.classpathScope=test
+ * </pre>
+ */
+public class ProceedBenchmark
+{
+    private static final int ITERATIONS = 2_000_000;
+
+    public static void main(String[] args) throws Throwable
+    {
+        CapturingAspect capturingAspect = new CapturingAspect();
+        AspectJProxyFactory factory = new AspectJProxyFactory(new TestDAOImpl());
+        factory.addAspect(capturingAspect);
+        TestDAO testDAO = factory.getProxy();
+        testDAO.getCompaniesLong(List.of(1L));
+
+        ProceedingJoinPoint joinPoint = capturingAspect.joinPoint;
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object target = joinPoint.getTarget();
+        Object[] methodArgs = new Object[]{List.of(1L, 2L, 3L)};
+
+        for (int round = 0; round < 5; round++)
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                method.invoke(target, methodArgs);
+            }
+            long reflective = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++)
+            {
+                joinPoint.proceed(methodArgs.clone());
+            }
+            long proceed = System.nanoTime() - start;
+
+            System.out.printf("round %d: Method.invoke %.1f ns/op, proceed(Object[]) %.1f ns/op%n",
+                    round, (double) reflective / ITERATIONS, (double) proceed / ITERATIONS);
+        }
+    }
+
+    @Aspect
+    public static class CapturingAspect
+    {
+        volatile ProceedingJoinPoint joinPoint;
+
+        @Around("execution(* com.gltech.batchcache.TestDAO.getCompaniesLong(..))")
+        public Object capture(ProceedingJoinPoint joinPoint) throws Throwable
+        {
+            this.joinPoint = joinPoint;
+            return joinPoint.proceed();
+        }
+    }
+}
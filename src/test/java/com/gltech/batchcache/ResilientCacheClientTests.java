@@ -0,0 +1,139 @@
+package com.gltech.batchcache;
+
+import com.gltech.batchcache.TestDAOImpl.TestCompany;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResilientCacheClientTests
+{
+    private FlakyCacheClient flakyCacheClient;
+    private ResilientCacheClient resilientCacheClient;
+    private TestDAO testDAO;
+
+    @Before
+    public void setUp()
+    {
+        flakyCacheClient = new FlakyCacheClient();
+        resilientCacheClient = new ResilientCacheClient(flakyCacheClient, 50, 50);
+        resilientCacheClient.setCircuitBreaker(2, 200);
+
+        AspectJProxyFactory factory = new AspectJProxyFactory(new TestDAOImpl());
+        factory.addAspect(new BatchCacheAspect(resilientCacheClient));
+
+        testDAO = factory.getProxy();
+    }
+
+    @After
+    public void tearDown()
+    {
+        flakyCacheClient.clearAll();
+    }
+
+    @Test
+    public void failingCacheFallsBackToLoader()
+    {
+        flakyCacheClient.failing.set(true);
+
+        List<TestCompany> companies = testDAO.getCompaniesLong(List.of(1L, 2L));
+        assertEquals(2, companies.size());
+        assertEquals(ResilientCacheClient.State.OPEN, resilientCacheClient.getState());
+
+        // While open the wrapped client is not called at all
+        long calls = flakyCacheClient.calls.get();
+        assertEquals(2, testDAO.getCompaniesLong(List.of(1L, 2L)).size());
+        assertEquals(calls, flakyCacheClient.calls.get());
+    }
+
+    @Test
+    public void slowCacheTimesOut()
+    {
+        flakyCacheClient.slow.set(true);
+
+        long start = System.currentTimeMillis();
+        assertEquals(2, testDAO.getCompaniesLong(List.of(1L, 2L)).size());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(resilientCacheClient.getFailures() > 0);
+    }
+
+    @Test
+    public void trialCallClosesBreaker() throws Exception
+    {
+        flakyCacheClient.failing.set(true);
+        testDAO.getCompaniesLong(List.of(1L, 2L));
+        assertEquals(ResilientCacheClient.State.OPEN, resilientCacheClient.getState());
+
+        flakyCacheClient.failing.set(false);
+        Thread.sleep(250);
+        assertEquals(ResilientCacheClient.State.HALF_OPEN, resilientCacheClient.getState());
+
+        testDAO.getCompaniesLong(List.of(1L, 2L));
+        assertEquals(ResilientCacheClient.State.CLOSED, resilientCacheClient.getState());
+        testDAO.getCompaniesLong(List.of(1L, 2L));
+        assertEquals(2, flakyCacheClient.getStats().hitCount());
+    }
+
+    static class FlakyCacheClient extends CacheClientImpl
+    {
+        final AtomicBoolean failing = new AtomicBoolean();
+        final AtomicBoolean slow = new AtomicBoolean();
+        final AtomicLong calls = new AtomicLong();
+
+        private void check()
+        {
+            calls.incrementAndGet();
+            if (failing.get())
+            {
+                throw new IllegalStateException("Cache is down");
+            }
+            if (slow.get())
+            {
+                try
+                {
+                    Thread.sleep(5_000);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void set(String key, Object value)
+        {
+            check();
+            super.set(key, value);
+        }
+
+        @Override
+        public void set(Map<String, Object> objectMap)
+        {
+            check();
+            super.set(objectMap);
+        }
+
+        @Override
+        public Object get(String key)
+        {
+            check();
+            return super.get(key);
+        }
+
+        @Override
+        public Map<String, Object> get(List<String> keys)
+        {
+            check();
+            return super.get(keys);
+        }
+    }
+}
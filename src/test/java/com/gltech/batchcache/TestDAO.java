@@ -1,6 +1,7 @@
 package com.gltech.batchcache;
 
 import java.util.*;
+import java.util.stream.Stream;
 
 public interface TestDAO
 {
@@ -68,12 +69,34 @@ public interface TestDAO
 
     Map<TestDAOImpl.TestObjectBefore, TestDAOImpl.TestObjectAfter> transformObjectMatchingIdsMap(Collection<TestDAOImpl.TestObjectBefore> testObjects);
 
+    List<TestDAOImpl.TestCompany> getRefreshingCompanies(Collection<Long> ids);
+
+    List<TestDAOImpl.TestCompany> getPlainRefreshingCompanies(Collection<Long> ids);
+
+    List<TestDAOImpl.TestCompany> getVersionedCompanies(Collection<Long> ids);
+
+    List<TestDAOImpl.TestCompany> getGuardedCompanies(Collection<Long> ids);
+
+    Stream<TestDAOImpl.TestCompany> streamCompanies(Iterator<Long> ids);
+
+    Stream<TestDAOImpl.TestCompany> streamCompanies(Stream<Long> ids);
+
+    List<TestDAOImpl.TestTenant> getTenants(UUID[] ids);
+
     void save(TestDAOImpl.TestCompany company);
 
     void save(TestDAOImpl.TestDateObj dateObj);
 
     void save(Collection<TestDAOImpl.TestCompany> company);
 
+    void update(TestDAOImpl.TestCompany company);
+
+    void update(Collection<TestDAOImpl.TestCompany> companies);
+
+    List<TestDAOImpl.TestCompany> createCompanies(long[] ids);
+
+    Map<Long, TestDAOImpl.TestCompany> createCompaniesMap(Collection<Long> ids);
+
     void delete(int id);
 
     void delete(int id, int someIgnoredId);
@@ -115,4 +138,8 @@ public interface TestDAO
     void evictMultipleKeys(Collection<TestDAOImpl.TestObjectBefore> testObjects);
 
     void handleNull(String nullParameter);
+
+    void deleteVersioned(long id);
+
+    void reloadVersionedCompanies();
 }
\ No newline at end of file
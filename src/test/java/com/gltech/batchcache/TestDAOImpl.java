@@ -1,11 +1,19 @@
 package com.gltech.batchcache;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TestDAOImpl implements TestDAO
 {
+    final List<Collection<Long>> refreshingLoads = new CopyOnWriteArrayList<>();
+    final List<Collection<Long>> versionedLoads = new CopyOnWriteArrayList<>();
+    final List<Collection<Long>> guardedLoads = new CopyOnWriteArrayList<>();
+    final List<Collection<Long>> streamedLoads = new CopyOnWriteArrayList<>();
+    final List<Collection<UUID>> tenantLoads = new CopyOnWriteArrayList<>();
+
     @Override
     @BatchCache(key = "all-companies")
     public List<TestCompany> getAllCompanies()
@@ -229,6 +237,64 @@ public class TestDAOImpl implements TestDAO
         return testObjects.stream().collect(Collectors.toMap(Function.identity(), test -> new TestObjectAfter(test.getSomeId())));
     }
 
+    @Override
+    @BatchCache(key = "refreshing", refreshAfterMillis = 100)
+    public List<TestCompany> getRefreshingCompanies(Collection<Long> ids)
+    {
+        refreshingLoads.add(new ArrayList<>(ids));
+        return ids.stream().map(id -> new TestCompany(id, "Super Company " + id)).collect(Collectors.toList());
+    }
+
+    @Override
+    @BatchCache(key = "refreshing")
+    public List<TestCompany> getPlainRefreshingCompanies(Collection<Long> ids)
+    {
+        return ids.stream().map(id -> new TestCompany(id, "Plain Company " + id)).collect(Collectors.toList());
+    }
+
+    @Override
+    @BatchCache(key = "versioned", generational = true)
+    public List<TestCompany> getVersionedCompanies(Collection<Long> ids)
+    {
+        versionedLoads.add(new ArrayList<>(ids));
+        return ids.stream().map(id -> new TestCompany(id, "Super Company " + id)).collect(Collectors.toList());
+    }
+
+    @Override
+    @BatchCache(key = "guarded")
+    public List<TestCompany> getGuardedCompanies(Collection<Long> ids)
+    {
+        guardedLoads.add(new ArrayList<>(ids));
+        return ids.stream().map(id -> new TestCompany(id, "Super Company " + id)).collect(Collectors.toList());
+    }
+
+    @Override
+    @BatchCache(key = "streamed", windowSize = 2)
+    public Stream<TestCompany> streamCompanies(Iterator<Long> ids)
+    {
+        List<Long> loaded = new ArrayList<>();
+        ids.forEachRemaining(loaded::add);
+        streamedLoads.add(loaded);
+        return loaded.stream().map(id -> new TestCompany(id, "Super Company " + id));
+    }
+
+    @Override
+    @BatchCache(key = "streamed", windowSize = 2)
+    public Stream<TestCompany> streamCompanies(Stream<Long> ids)
+    {
+        List<Long> loaded = ids.collect(Collectors.toList());
+        streamedLoads.add(loaded);
+        return loaded.stream().map(id -> new TestCompany(id, "Super Company " + id));
+    }
+
+    @Override
+    @BatchCache(key = "tenant")
+    public List<TestTenant> getTenants(UUID[] ids)
+    {
+        tenantLoads.add(Arrays.asList(ids));
+        return Arrays.stream(ids).map(id -> new TestTenant(id, "Tenant " + id)).collect(Collectors.toList());
+    }
+
     @Override
     @BatchCacheEvict(key = "company")
     public void save(TestCompany company)
@@ -247,6 +313,32 @@ public class TestDAOImpl implements TestDAO
     {
     }
 
+    @Override
+    @BatchCachePut(key = "company")
+    public void update(TestCompany company)
+    {
+    }
+
+    @Override
+    @BatchCachePut(key = "company")
+    public void update(Collection<TestCompany> companies)
+    {
+    }
+
+    @Override
+    @BatchCachePut(key = "company", result = true)
+    public List<TestCompany> createCompanies(long[] ids)
+    {
+        return Arrays.stream(ids).mapToObj(id -> new TestCompany(id, "New Company " + id)).collect(Collectors.toList());
+    }
+
+    @Override
+    @BatchCachePut(key = "company", result = true)
+    public Map<Long, TestCompany> createCompaniesMap(Collection<Long> ids)
+    {
+        return ids.stream().map(id -> new TestCompany(id, "New Company " + id)).collect(Collectors.toMap(TestCompany::getId, Function.identity()));
+    }
+
     @Override
     @BatchCacheEvict(key = "company")
     public void delete(int id)
@@ -373,6 +465,22 @@ public class TestDAOImpl implements TestDAO
     {
     }
 
+    @Override
+    @BatchCacheEvict(key = "versioned", generational = true)
+    public void deleteVersioned(long id)
+    {
+    }
+
+    @Override
+    @BatchCacheEvict(key = "versioned", generational = true)
+    public void reloadVersionedCompanies()
+    {
+    }
+
+    public record TestTenant(UUID id, String name)
+    {
+    }
+
     static public class TestCompany
     {
         private final long id;